@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Checks that applying a record allocates nothing on the hot path: once a 
+ * batch has been fetched, handing its records to a 
+ * {@link sync.db.mysql.ApplyType#MULTI_ROW} applier must not create objects 
+ * for integer, double and text attributes.
+ * The bytes allocated by the calling thread are measured around the calls 
+ * to {@link sync.db.mysql.RowApplier#addRow(RowBatch, int)} only; the 
+ * statements are sent between the measurements, as the string handed to 
+ * the driver is the one allocation the driver requires. The applier runs 
+ * against the in-process JDBC stand-in, after a warm up long enough for the 
+ * JIT to compile the encoding loop.
+ * <p>
+ * Usage: <code>java sync.db.mysql.AllocationCheck [--warmup=millis] 
+ * [--measure=millis] [--max-bytes=bytes]</code>, where the check fails if 
+ * more than the given number of bytes, 0.5 by default, are allocated per 
+ * record on average. Exits with status 1 if the check fails, or if the JVM 
+ * cannot measure allocations.
+ * @author Arvind Sasikumar
+ */
+public class AllocationCheck {
+    
+    private static final int BATCH_SIZE = 1000;
+    
+    private static final AttributeType[] TYPES = {AttributeType.BIGINT, 
+            AttributeType.INT, AttributeType.DOUBLE, AttributeType.TEXT, 
+            AttributeType.STRING};
+    
+    public static void main(String[] args) throws Exception{
+        
+        long warmupMillis = 3000;
+        long measureMillis = 3000;
+        double maxBytes = 0.5;
+        
+        for(String arg : args){
+            
+            if(arg.startsWith("--warmup=")){
+                
+                warmupMillis = Long.parseLong(arg.substring(9));
+            }
+            else if(arg.startsWith("--measure=")){
+                
+                measureMillis = Long.parseLong(arg.substring(10));
+            }
+            else if(arg.startsWith("--max-bytes=")){
+                
+                maxBytes = Double.parseDouble(arg.substring(12));
+            }
+        }
+        
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)){
+            
+            System.out.println("FAIL: this JVM cannot measure allocations.");
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean allocations = 
+                                    (com.sun.management.ThreadMXBean)threads;
+        
+        TableMap tableMap = new TableMap("orders_server", "orders_client", 
+                                    "updated_at", "updated_at", "id", "id");
+        for(int i = 0; i < TYPES.length; i++){
+            
+            tableMap.addAttributeMap(new AttributeMap(i == 0 ? "id" : 
+                        "attribute_" + i, i == 0 ? "id" : "attribute_" + i, 
+                        TYPES[i]));
+        }
+        SyncPlan syncPlan = new SyncPlan(tableMap, 0, false);
+        RowBatch batch = SyncBenchmarks.fillBatch(TYPES, BATCH_SIZE);
+        
+        // a statement never fills up in the middle of a batch, so every 
+        // statement is sent outside of the measurements
+        RowApplier rowApplier = RowApplier.create(ApplyType.MULTI_ROW, 
+                    JdbcStandIn.connection(), syncPlan, BATCH_SIZE + 1, 
+                    Long.MAX_VALUE, false);
+        
+        long thread = Thread.currentThread().getId();
+        long[] measured = new long[2];
+        apply(rowApplier, batch, allocations, thread, warmupMillis, measured);
+        measured[0] = 0;
+        measured[1] = 0;
+        apply(rowApplier, batch, allocations, thread, measureMillis, measured);
+        rowApplier.close();
+        
+        double bytesPerRecord = (double)measured[0] / measured[1];
+        System.out.println(String.format(Locale.ROOT, 
+                "MULTI_ROW addRow: %d records, %.3f bytes allocated per record", 
+                measured[1], bytesPerRecord));
+        
+        if(bytesPerRecord > maxBytes){
+            
+            System.out.println(String.format(Locale.ROOT, 
+                    "FAIL: more than %.3f bytes per record.", maxBytes));
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+    
+    /**
+     * Hands the records of the batch to the applier over and over again for 
+     * the given time.
+     * @param measured the bytes allocated by addRow and the number of 
+     * records, added to
+     */
+    private static void apply(RowApplier rowApplier, RowBatch batch, 
+                com.sun.management.ThreadMXBean allocations, long thread, 
+                long millis, long[] measured) throws Exception{
+        
+        long end = System.nanoTime() + millis * 1000000L;
+        while(System.nanoTime() < end){
+            
+            long before = allocations.getThreadAllocatedBytes(thread);
+            for(int row = 0; row < batch.size(); row++){
+                
+                rowApplier.addRow(batch, row);
+            }
+            long after = allocations.getThreadAllocatedBytes(thread);
+            rowApplier.flush();
+            
+            measured[0] += after - before;
+            measured[1] += batch.size();
+        }
+    }
+}
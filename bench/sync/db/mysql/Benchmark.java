@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * A single benchmark of the benchmark suite, see 
+ * {@link sync.db.mysql.SyncBenchmarks}.
+ * An operation is run over and over again, first to warm up the JIT and 
+ * then for a measured period, during which both the throughput and the 
+ * number of bytes allocated by the benchmark thread are recorded.
+ * @author Arvind Sasikumar
+ */
+abstract class Benchmark {
+    
+    private static volatile long sink;
+    
+    private final String name;
+    
+    Benchmark(String name){
+        
+        this.name = name;
+    }
+    
+    String getName(){
+        
+        return name;
+    }
+    
+    /**
+     * Prepares the data of the benchmark, once before it is run.
+     * @throws Exception if the benchmark could not be prepared
+     */
+    void setUp() throws Exception{
+        
+    }
+    
+    /**
+     * Runs one operation.
+     * @return any value derived from the work done, which is consumed so 
+     * that the JIT cannot drop the work
+     * @throws Exception if the operation failed
+     */
+    abstract long run() throws Exception;
+    
+    /**
+     * Warms up and measures this benchmark.
+     * @param warmupMillis how long to run before measuring
+     * @param measureMillis how long to measure
+     * @return the result
+     * @throws Exception if an operation failed
+     */
+    Result measure(long warmupMillis, long measureMillis) throws Exception{
+        
+        setUp();
+        loop(warmupMillis * 1000000L);
+        
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = 
+                threads instanceof com.sun.management.ThreadMXBean ? 
+                (com.sun.management.ThreadMXBean)threads : null;
+        long thread = Thread.currentThread().getId();
+        
+        long allocatedBefore = allocations == null ? 0 : 
+                                allocations.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long operations = loop(measureMillis * 1000000L);
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocations == null ? 0 : 
+                                allocations.getThreadAllocatedBytes(thread);
+        
+        return new Result(name, operations, elapsed, allocations == null ? -1 : 
+                                        allocatedAfter - allocatedBefore);
+    }
+    
+    /**
+     * Runs operations until the given time has passed, checking the clock 
+     * only every so many operations.
+     * @return number of operations run
+     */
+    private long loop(long nanos) throws Exception{
+        
+        long operations = 0;
+        long consumed = 0;
+        int step = 1;
+        long start = System.nanoTime();
+        
+        while(System.nanoTime() - start < nanos){
+            
+            for(int i = 0; i < step; i++){
+                
+                consumed += run();
+            }
+            operations += step;
+            if(step < 1024){
+                
+                step *= 2;
+            }
+        }
+        
+        sink += consumed;
+        return operations;
+    }
+    
+    /**
+     * The throughput and allocation rate of a benchmark.
+     */
+    static class Result {
+        
+        private final String name;
+        private final long operations;
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        
+        Result(String name, long operations, long elapsedNanos, 
+                                                        long allocatedBytes){
+            
+            this.name = name;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+        
+        double getOperationsPerSecond(){
+            
+            return operations * 1e9 / elapsedNanos;
+        }
+        
+        /**
+         * Gets the number of bytes allocated per operation, -1 if the JVM 
+         * cannot tell.
+         */
+        double getBytesPerOperation(){
+            
+            return allocatedBytes < 0 ? -1 : (double)allocatedBytes / operations;
+        }
+        
+        /**
+         * Gets the number of megabytes allocated per second, -1 if the JVM 
+         * cannot tell.
+         */
+        double getAllocationRate(){
+            
+            return allocatedBytes < 0 ? -1 : 
+                        allocatedBytes * 1e9 / elapsedNanos / (1024 * 1024);
+        }
+        
+        /**
+         * Formats this result as a tab separated line: name, operations per 
+         * second, bytes per operation and megabytes allocated per second.
+         */
+        @Override
+        public String toString(){
+            
+            return String.format(Locale.ROOT, "%s\t%.1f\t%.1f\t%.1f", name, 
+                                getOperationsPerSecond(), getBytesPerOperation(), 
+                                getAllocationRate());
+        }
+    }
+}
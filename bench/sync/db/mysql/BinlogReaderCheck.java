@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Checks that the rows of a binlog file are decoded from the right offsets.
+ * A binlog file is written to a temporary directory holding a table map of 
+ * a BIT(16), a BIT(17) and an INT column, and an insert of one record into 
+ * that table. Every BIT column takes its whole bytes plus one for any 
+ * leftover bits, so the check fails if either BIT value or the INT value 
+ * after them is read wrongly.
+ * <p>
+ * Usage: <code>java sync.db.mysql.BinlogReaderCheck</code>. Exits with 
+ * status 1 if the check fails.
+ * @author Arvind Sasikumar
+ */
+public class BinlogReaderCheck {
+    
+    private static final String FILE_NAME = "binlog.000001";
+    
+    private static final int FORMAT_DESCRIPTION_EVENT = 15;
+    private static final int TABLE_MAP_EVENT = 19;
+    private static final int WRITE_ROWS_EVENT = 30;
+    
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_BIT = 16;
+    
+    private static final byte[] BIT16 = {(byte)0xa5, 0x5a};
+    private static final byte[] BIT17 = {0x01, (byte)0xc3, 0x3c};
+    private static final int INT = 42;
+    
+    public static void main(String[] args) throws Exception{
+        
+        File directory = File.createTempFile("binlog", "");
+        directory.delete();
+        directory.mkdir();
+        File binlogFile = new File(directory, FILE_NAME);
+        
+        boolean passed = true;
+        try{
+            
+            writeBinlog(binlogFile);
+            
+            BinlogReader reader = new BinlogReader(directory, 
+                    new BinlogPosition(FILE_NAME, 4), 
+                    new BinlogReader.ColumnResolver() {
+                        @Override
+                        public void resolve(BinlogTable table){
+                        }
+                    });
+            BinlogEvent event;
+            try{
+                
+                event = reader.next();
+            }
+            
+            finally{
+                
+                reader.close();
+            }
+            
+            if(event == null || event.getKind() != BinlogEvent.Kind.INSERT 
+                                            || event.getRows().size() != 1){
+                
+                System.out.println("FAIL: expected an insert of one record, " + 
+                                                            "read " + event);
+                passed = false;
+            }
+            else{
+                
+                Object[] row = event.getRows().get(0);
+                System.out.println("Read " + Arrays.toString((byte[])row[0]) + 
+                        ", " + Arrays.toString((byte[])row[1]) + ", " + row[2]);
+                if(!Arrays.equals((byte[])row[0], BIT16)){
+                    
+                    System.out.println("FAIL: the BIT(16) value was read wrongly.");
+                    passed = false;
+                }
+                if(!Arrays.equals((byte[])row[1], BIT17)){
+                    
+                    System.out.println("FAIL: the BIT(17) value was read wrongly.");
+                    passed = false;
+                }
+                if(!Long.valueOf(INT).equals(row[2])){
+                    
+                    System.out.println("FAIL: the INT value after the BIT " + 
+                                                    "values was read wrongly.");
+                    passed = false;
+                }
+            }
+        }
+        
+        finally{
+            
+            binlogFile.delete();
+            directory.delete();
+        }
+        
+        System.out.println(passed ? "PASS" : "FAIL");
+        if(!passed){
+            
+            System.exit(1);
+        }
+    }
+    
+    private static void writeBinlog(File binlogFile) throws IOException{
+        
+        ByteArrayOutputStream formatDescription = new ByteArrayOutputStream();
+        writeInt(formatDescription, 4, 2);
+        formatDescription.write(Arrays.copyOf(
+                    "8.0.36".getBytes(StandardCharsets.US_ASCII), 50));
+        writeInt(formatDescription, 0, 4);
+        writeInt(formatDescription, 19, 1);
+        byte[] postHeaderLengths = new byte[WRITE_ROWS_EVENT];
+        postHeaderLengths[TABLE_MAP_EVENT - 1] = 8;
+        postHeaderLengths[WRITE_ROWS_EVENT - 1] = 10;
+        formatDescription.write(postHeaderLengths);
+        writeInt(formatDescription, 0, 1);
+        writeInt(formatDescription, 0, 4);
+        
+        ByteArrayOutputStream tableMap = new ByteArrayOutputStream();
+        writeInt(tableMap, 1, 6);
+        writeInt(tableMap, 0, 2);
+        writeName(tableMap, "db");
+        writeName(tableMap, "bits");
+        writeInt(tableMap, 3, 1);
+        tableMap.write(new byte[]{TYPE_BIT, TYPE_BIT, TYPE_LONG});
+        writeInt(tableMap, 4, 1);
+        // leftover bits, then whole bytes
+        tableMap.write(new byte[]{0, 2, 1, 2});
+        writeInt(tableMap, 0, 1);
+        
+        ByteArrayOutputStream writeRows = new ByteArrayOutputStream();
+        writeInt(writeRows, 1, 6);
+        writeInt(writeRows, 0, 2);
+        writeInt(writeRows, 2, 2);
+        writeInt(writeRows, 3, 1);
+        writeInt(writeRows, 0x07, 1);
+        writeInt(writeRows, 0, 1);
+        writeRows.write(BIT16);
+        writeRows.write(BIT17);
+        writeInt(writeRows, INT, 4);
+        
+        FileOutputStream out = new FileOutputStream(binlogFile);
+        try{
+            
+            out.write(new byte[]{(byte)0xfe, 'b', 'i', 'n'});
+            long position = 4;
+            position = writeEvent(out, position, FORMAT_DESCRIPTION_EVENT, 
+                                            formatDescription.toByteArray());
+            position = writeEvent(out, position, TABLE_MAP_EVENT, 
+                                                    tableMap.toByteArray());
+            writeEvent(out, position, WRITE_ROWS_EVENT, writeRows.toByteArray());
+        }
+        
+        finally{
+            
+            out.close();
+        }
+    }
+    
+    private static long writeEvent(FileOutputStream out, long position, 
+                                    int type, byte[] body) throws IOException{
+        
+        ByteArrayOutputStream event = new ByteArrayOutputStream();
+        long next = position + 19 + body.length;
+        writeInt(event, 0, 4);
+        writeInt(event, type, 1);
+        writeInt(event, 1, 4);
+        writeInt(event, 19 + body.length, 4);
+        writeInt(event, next, 4);
+        writeInt(event, 0, 2);
+        event.write(body);
+        out.write(event.toByteArray());
+        return next;
+    }
+    
+    private static void writeName(ByteArrayOutputStream out, String name) 
+                                                            throws IOException{
+        
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        writeInt(out, bytes.length, 1);
+        out.write(bytes);
+        writeInt(out, 0, 1);
+    }
+    
+    private static void writeInt(ByteArrayOutputStream out, long value, 
+                                                                int length){
+        
+        for(int i = 0; i < length; i++){
+            
+            out.write((int)(value >>> (8 * i)));
+        }
+    }
+}
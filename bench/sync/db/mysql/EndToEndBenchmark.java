@@ -0,0 +1,546 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end benchmark of a {@link sync.db.mysql.DBSyncAgent} against real 
+ * source and client databases, under a synthetic workload.
+ * <p>
+ * The benchmark creates its own tables, bench_t0, bench_t1 and so on, in 
+ * both databases, dropping them first if they exist. Each table is filled 
+ * with an initial set of records, which are copied with 
+ * {@link sync.db.mysql.DBSyncAgent#sync()}. Then 
+ * {@link sync.db.mysql.DBSyncAgent#liveSync()} is started while a generator 
+ * keeps inserting records into the source tables at a given rate, in bursts 
+ * of a given size, and a poller watches the client tables. The lag of every 
+ * record is the time from the commit of its insert on the source database 
+ * until the poller first sees it on the client database, so its resolution 
+ * is the poll interval.
+ * <p>
+ * Usage: <code>java sync.db.mysql.EndToEndBenchmark --source-url=jdbc:mysql://
+ * host:port/db?options --client-url=... [option=value ...]</code>, with the 
+ * options listed in {@link #main(java.lang.String[])}. The result is printed 
+ * as a single line of JSON starting with "RESULT ", and written to the file 
+ * given by --output, so that the results of two builds can be compared.
+ * @author Arvind Sasikumar
+ */
+public class EndToEndBenchmark {
+    
+    private static final String TABLE_PREFIX = "bench_t";
+    
+    private final Map<String, String> options;
+    
+    private final int tables;
+    private final int rowWidth;
+    private final int rate;
+    private final int burst;
+    private final int initialRows;
+    private final int duration;
+    private final int pollInterval;
+    
+    private final LongList[] commitTimes;
+    private final long[] visibleRows;
+    private final LongList lags = new LongList();
+    
+    private volatile boolean polling;
+    private volatile long generatedRows;
+    private volatile long visibleTotal;
+    private volatile long lastVisibleTime;
+    
+    private EndToEndBenchmark(Map<String, String> options){
+        
+        this.options = options;
+        this.tables = getInt("tables", 4);
+        this.rowWidth = getInt("row-width", 100);
+        this.rate = getInt("rate", 1000);
+        this.burst = Math.max(getInt("burst", 1), 1);
+        this.initialRows = getInt("initial-rows", 10000);
+        this.duration = getInt("duration", 60);
+        this.pollInterval = getInt("poll-interval", 10);
+        
+        commitTimes = new LongList[tables];
+        for(int i = 0; i < tables; i++){
+            
+            commitTimes[i] = new LongList();
+        }
+        visibleRows = new long[tables];
+    }
+    
+    /**
+     * Runs the benchmark.
+     * The options, all given as --name=value, are: 
+     * source-url, source-user, source-password, client-url, client-user and 
+     * client-password for the two databases; tables (4), the number of 
+     * tables; row-width (100), the size of the text payload of every record; 
+     * rate (1000), the records inserted per second over all tables; burst 
+     * (1), the records inserted per transaction; initial-rows (10000), the 
+     * records per table copied by the initial sync; duration (60), the 
+     * seconds the generator runs during the live sync; poll-interval (10), 
+     * the milliseconds between two polls of the client tables; 
+     * sync-interval (1), apply-type (MULTI_ROW), batch-size (100) and 
+     * page-size (0) for the agent; and output, a file to write the result 
+     * to.
+     * @param args the options
+     * @throws Exception if the benchmark failed
+     */
+    public static void main(String[] args) throws Exception{
+        
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args){
+            
+            int equals = arg.indexOf('=');
+            if(!arg.startsWith("--") || equals < 0){
+                
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        
+        new EndToEndBenchmark(options).run();
+    }
+    
+    private int getInt(String name, int defaultValue){
+        
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    
+    private String getRequired(String name){
+        
+        String value = options.get(name);
+        if(value == null){
+            
+            throw new IllegalArgumentException("Missing --" + name + "=...");
+        }
+        return value;
+    }
+    
+    private Connection connect(String side) throws SQLException{
+        
+        return DriverManager.getConnection(getRequired(side + "-url"), 
+                    options.get(side + "-user"), options.get(side + "-password"));
+    }
+    
+    private void run() throws Exception{
+        
+        Class.forName("com.mysql.jdbc.Driver");
+        
+        Connection sourceConnection = connect("source");
+        Connection clientConnection = connect("client");
+        try{
+            
+            createTables(sourceConnection);
+            createTables(clientConnection);
+            
+            for(int table = 0; table < tables; table++){
+                
+                for(int id = 0; id < initialRows; id += burst){
+                    
+                    insert(sourceConnection, table, Math.min(burst, initialRows - id));
+                }
+            }
+            
+            DBSyncAgent agent = createAgent();
+            agent.connect();
+            
+            long start = System.nanoTime();
+            agent.sync();
+            agent.hold();
+            double initialSeconds = (System.nanoTime() - start) / 1e9;
+            
+            for(int table = 0; table < tables; table++){
+                
+                visibleRows[table] = getVisibleRows(clientConnection, table);
+            }
+            long initialSynced = sum(visibleRows);
+            visibleTotal = initialSynced;
+            
+            agent.liveSync();
+            long liveStart = System.currentTimeMillis();
+            lastVisibleTime = liveStart;
+            
+            Thread poller = startPoller(connect("client"));
+            generate(sourceConnection, liveStart + duration * 1000L);
+            
+            long drainUntil = System.currentTimeMillis() + 30000;
+            while(visibleTotal < initialSynced + generatedRows && 
+                                    System.currentTimeMillis() < drainUntil){
+                
+                Thread.sleep(pollInterval);
+            }
+            polling = false;
+            poller.join();
+            
+            agent.stopSync();
+            agent.hold();
+            agent.disconnect();
+            
+            report(initialSynced, initialSeconds, liveStart, 
+                                    sum(visibleRows) - initialSynced);
+        }
+        
+        finally{
+            
+            sourceConnection.close();
+            clientConnection.close();
+        }
+    }
+    
+    private DBSyncAgent createAgent(){
+        
+        DBMap dbMap = new DBMap();
+        for(int table = 0; table < tables; table++){
+            
+            TableMap tableMap = new TableMap(TABLE_PREFIX + table, 
+                                TABLE_PREFIX + table, "updated_at", "updated_at", 
+                                "id", "id");
+            tableMap.addAttributeMap(new AttributeMap("id", "id", 
+                                                    AttributeType.BIGINT));
+            tableMap.addAttributeMap(new AttributeMap("updated_at", "updated_at", 
+                                                    AttributeType.DATETIME));
+            tableMap.addAttributeMap(new AttributeMap("payload", "payload", 
+                                                    AttributeType.TEXT));
+            dbMap.addTableMap(tableMap);
+        }
+        
+        URI source = URI.create(getRequired("source-url").substring(5));
+        URI client = URI.create(getRequired("client-url").substring(5));
+        
+        return new DBSyncAgent.Builder()
+                .setServerDatabaseAddress(source.getHost())
+                .setServerDatabasePort(source.getPort() < 0 ? 3306 : source.getPort())
+                .setServerDatabaseName(source.getPath().substring(1))
+                .setServerDatabaseConnectionOptions(source.getRawQuery() == null ? 
+                                            "" : "?" + source.getRawQuery())
+                .setServerDatabaseUsername(options.get("source-user"))
+                .setServerDatabasePassword(options.get("source-password"))
+                .setClientDatabaseAddress(client.getHost())
+                .setClientDatabasePort(client.getPort() < 0 ? 3306 : client.getPort())
+                .setClientDatabaseName(client.getPath().substring(1))
+                .setClientDatabaseConnectionOptions(client.getRawQuery() == null ? 
+                                            "" : "?" + client.getRawQuery())
+                .setClientDatabaseUsername(options.get("client-user"))
+                .setClientDatabasePassword(options.get("client-password"))
+                .setDBMap(dbMap)
+                .setSyncInterval(getInt("sync-interval", 1))
+                .setApplyType(ApplyType.valueOf(options.containsKey("apply-type") ? 
+                                    options.get("apply-type") : "MULTI_ROW"))
+                .setBatchSize(getInt("batch-size", 100))
+                .setPageSize(getInt("page-size", 0))
+                .build();
+    }
+    
+    private void createTables(Connection connection) throws SQLException{
+        
+        Statement statement = connection.createStatement();
+        try{
+            
+            for(int table = 0; table < tables; table++){
+                
+                statement.executeUpdate("drop table if exists " + TABLE_PREFIX + table);
+                statement.executeUpdate("create table " + TABLE_PREFIX + table + 
+                        " (id bigint primary key, updated_at datetime(3) not null, " + 
+                        "payload varchar(" + Math.max(rowWidth, 1) + ") not null, " + 
+                        "key (updated_at, id))");
+            }
+        }
+        
+        finally{
+            
+            statement.close();
+        }
+    }
+    
+    /**
+     * Inserts records into a source table in one transaction and remembers 
+     * when they were committed.
+     */
+    private void insert(Connection connection, int table, int rows) 
+                                                        throws SQLException{
+        
+        LongList tableCommitTimes = commitTimes[table];
+        long firstId;
+        synchronized(tableCommitTimes){
+            
+            firstId = tableCommitTimes.size() + 1;
+        }
+        
+        StringBuilder insert = new StringBuilder("insert into ")
+                .append(TABLE_PREFIX).append(table)
+                .append(" (id, updated_at, payload) values ");
+        for(int i = 0; i < rows; i++){
+            
+            insert.append(i > 0 ? ", " : "").append("(").append(firstId + i)
+                  .append(", now(3), '").append(payload(firstId + i)).append("')");
+        }
+        
+        Statement statement = connection.createStatement();
+        try{
+            
+            statement.executeUpdate(insert.toString());
+        }
+        
+        finally{
+            
+            statement.close();
+        }
+        
+        long committed = System.currentTimeMillis();
+        synchronized(tableCommitTimes){
+            
+            for(int i = 0; i < rows; i++){
+                
+                tableCommitTimes.add(committed);
+            }
+        }
+    }
+    
+    private String payload(long id){
+        
+        StringBuilder payload = new StringBuilder(rowWidth);
+        payload.append(id).append(':');
+        while(payload.length() < rowWidth){
+            
+            payload.append((char)('a' + (payload.length() * 7 + id) % 26));
+        }
+        payload.setLength(rowWidth);
+        return payload.toString();
+    }
+    
+    /**
+     * Inserts records at the configured rate until the given time, round 
+     * robin over the tables.
+     */
+    private void generate(Connection connection, long until) throws Exception{
+        
+        long intervalNanos = rate > 0 ? burst * 1000000000L / rate : 0;
+        long next = System.nanoTime();
+        int table = 0;
+        
+        while(System.currentTimeMillis() < until){
+            
+            insert(connection, table, burst);
+            generatedRows += burst;
+            table = (table + 1) % tables;
+            
+            next += intervalNanos;
+            long sleep = next - System.nanoTime();
+            if(sleep > 0){
+                
+                Thread.sleep(sleep / 1000000, (int)(sleep % 1000000));
+            }
+        }
+    }
+    
+    private static long getVisibleRows(Connection connection, int table) 
+                                                        throws SQLException{
+        
+        Statement statement = connection.createStatement();
+        try{
+            
+            ResultSet rs = statement.executeQuery("select coalesce(max(id), 0) from " + 
+                                                    TABLE_PREFIX + table);
+            rs.next();
+            long rows = rs.getLong(1);
+            rs.close();
+            return rows;
+        }
+        
+        finally{
+            
+            statement.close();
+        }
+    }
+    
+    /**
+     * Starts polling the client tables, taking the lag of every record that 
+     * has become visible since the last poll. Records are inserted and 
+     * synchronized in id order, so all records up to the highest visible id 
+     * are taken to be visible.
+     */
+    private Thread startPoller(final Connection connection){
+        
+        polling = true;
+        Thread poller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    while(polling){
+                        poll(connection);
+                        Thread.sleep(pollInterval);
+                    }
+                    poll(connection);
+                    connection.close();
+                }
+                catch(Exception e){
+                    e.printStackTrace();
+                }
+            }
+        }, "EndToEndBenchmark-poller");
+        poller.start();
+        return poller;
+    }
+    
+    private void poll(Connection connection) throws SQLException{
+        
+        for(int table = 0; table < tables; table++){
+            
+            long visible = getVisibleRows(connection, table);
+            long now = System.currentTimeMillis();
+            if(visible <= visibleRows[table]){
+                
+                continue;
+            }
+            
+            LongList tableCommitTimes = commitTimes[table];
+            synchronized(tableCommitTimes){
+                
+                // records may show up before their insert has returned and 
+                // taken its commit time; those are left for the next poll
+                visible = Math.min(visible, tableCommitTimes.size());
+                for(long id = Math.max(visibleRows[table], initialRows) + 1; 
+                                                        id <= visible; id++){
+                    
+                    lags.add(now - tableCommitTimes.get((int)id - 1));
+                }
+            }
+            if(visible <= visibleRows[table]){
+                
+                continue;
+            }
+            visibleRows[table] = visible;
+            lastVisibleTime = now;
+        }
+        visibleTotal = sum(visibleRows);
+    }
+    
+    private static long sum(long[] values){
+        
+        long sum = 0;
+        for(long value : values){
+            
+            sum += value;
+        }
+        return sum;
+    }
+    
+    private void report(long initialSynced, double initialSeconds, 
+                        long liveStart, long liveSynced) throws IOException{
+        
+        long rowBytes = 16 + rowWidth;
+        double liveSeconds = Math.max(lastVisibleTime - liveStart, 1) / 1000.0;
+        long[] sortedLags = lags.toArray();
+        Arrays.sort(sortedLags);
+        
+        String result = String.format(Locale.ROOT, "{\"tables\": %d, " + 
+                "\"rowWidth\": %d, \"rate\": %d, \"burst\": %d, " + 
+                "\"applyType\": \"%s\", \"initialRows\": %d, " + 
+                "\"initialSeconds\": %.3f, \"initialRowsPerSec\": %.1f, " + 
+                "\"initialBytesPerSec\": %.1f, \"generatedRows\": %d, " + 
+                "\"syncedRows\": %d, \"liveSeconds\": %.3f, " + 
+                "\"rowsPerSec\": %.1f, \"bytesPerSec\": %.1f, " + 
+                "\"lagSamples\": %d, \"lagP50Ms\": %d, \"lagP99Ms\": %d, " + 
+                "\"lagMaxMs\": %d}", 
+                tables, rowWidth, rate, burst, 
+                options.containsKey("apply-type") ? options.get("apply-type") : "MULTI_ROW", 
+                initialSynced, initialSeconds, initialSynced / initialSeconds, 
+                initialSynced * rowBytes / initialSeconds, generatedRows, 
+                liveSynced, liveSeconds, liveSynced / liveSeconds, 
+                liveSynced * rowBytes / liveSeconds, sortedLags.length, 
+                percentile(sortedLags, 0.50), percentile(sortedLags, 0.99), 
+                sortedLags.length == 0 ? -1 : sortedLags[sortedLags.length - 1]);
+        
+        System.out.println("RESULT " + result);
+        
+        String output = options.get("output");
+        if(output != null){
+            
+            Writer writer = new FileWriter(output, true);
+            try{
+                
+                writer.write(result + "\n");
+            }
+            
+            finally{
+                
+                writer.close();
+            }
+        }
+    }
+    
+    private static long percentile(long[] sorted, double fraction){
+        
+        if(sorted.length == 0){
+            
+            return -1;
+        }
+        return sorted[Math.min((int)Math.ceil(fraction * sorted.length) - 1, 
+                                            sorted.length - 1)];
+    }
+    
+    /**
+     * A growable list of longs, which does not box its values.
+     */
+    private static class LongList {
+        
+        private long[] values = new long[1024];
+        private int size;
+        
+        void add(long value){
+            
+            if(size == values.length){
+                
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        long get(int index){
+            
+            return values[index];
+        }
+        
+        int size(){
+            
+            return size;
+        }
+        
+        long[] toArray(){
+            
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
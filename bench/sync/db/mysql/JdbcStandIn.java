@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Arrays;
+
+/**
+ * An in-process stand-in for the JDBC driver, used by the benchmarks to run 
+ * the fetch and apply code without a database.
+ * The stand-in result sets return the same or a generated record over and 
+ * over again, and the stand-in statements accept everything and send 
+ * nothing. They are 
+ * dynamic proxies, so every call to them boxes its arguments; those 
+ * allocations are part of what the benchmarks report for code binding 
+ * values to a prepared statement.
+ * @author Arvind Sasikumar
+ */
+class JdbcStandIn {
+    
+    private static final Long LONG = 1234567890123L;
+    private static final Double DOUBLE = 3.14159;
+    private static final Integer INTEGER = 1;
+    private static final BigDecimal DECIMAL = new BigDecimal("12345.6789");
+    private static final Timestamp TIMESTAMP = Timestamp.valueOf("2017-06-01 12:34:56");
+    private static final Date DATE = Date.valueOf("2017-06-01");
+    private static final byte[] BYTES = "binary\0value'\n".getBytes(StandardCharsets.UTF_8);
+    private static final String STRING = "It's a \"quoted\" value\twith\\escapes";
+    private static final String JSON = "{\"id\": 42, \"tags\": [\"a\", \"b\"]}";
+    
+    /**
+     * Number of statements executed against all stand-in connections.
+     */
+    static volatile long executed;
+    
+    private JdbcStandIn(){
+        
+    }
+    
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        
+        return type.cast(Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(), 
+                                                new Class<?>[]{type}, handler));
+    }
+    
+    /**
+     * Creates a result set returning the same record a given number of times.
+     * The value of every column depends on the getter used to read it: 
+     * getString returns a string needing escapes, or a JSON document for 
+     * columns of type name JSON.
+     * @param columnTypes the SQL type of every column, as in 
+     * {@link java.sql.Types}, reported by the metadata of the result set
+     * @param typeNames the type name of every column
+     * @param rows number of records to return
+     * @return the result set
+     */
+    static ResultSet resultSet(final int[] columnTypes, final String[] typeNames, 
+                                                            final int rows){
+        
+        final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, 
+                                                    new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "getColumnCount":
+                        return columnTypes.length;
+                    case "getColumnType":
+                        return columnTypes[(Integer)args[0] - 1];
+                    case "getColumnTypeName":
+                        return typeNames[(Integer)args[0] - 1];
+                    case "isSigned":
+                        return Boolean.TRUE;
+                    default:
+                        return null;
+                }
+            }
+        });
+        
+        return proxy(ResultSet.class, new InvocationHandler() {
+            
+            private int row;
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "next":
+                        return ++row <= rows;
+                    case "wasNull":
+                        return Boolean.FALSE;
+                    case "getMetaData":
+                        return metaData;
+                    case "getLong":
+                        return LONG;
+                    case "getInt":
+                        return INTEGER;
+                    case "getDouble":
+                        return DOUBLE;
+                    case "getBigDecimal":
+                        return DECIMAL;
+                    case "getTimestamp":
+                        return TIMESTAMP;
+                    case "getDate":
+                        return DATE;
+                    case "getBytes":
+                        return BYTES;
+                    case "getString":
+                        return "JSON".equals(typeNames[(Integer)args[0] - 1]) ? 
+                                                                JSON : STRING;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Creates a result set generating new values for every record, so that 
+     * a reader holding on to the records it has fetched runs out of memory.
+     * getLong returns the number of the record, getString a new string of 
+     * the given width and getTimestamp a new timestamp one second after 
+     * that of the previous record.
+     * @param width number of characters of every string
+     * @param rows number of records to return
+     * @return the result set
+     */
+    static ResultSet generatedResultSet(final int width, final long rows){
+        
+        return proxy(ResultSet.class, new InvocationHandler() {
+            
+            private final char[] chars = new char[width];
+            private long row;
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "next":
+                        return ++row <= rows;
+                    case "wasNull":
+                        return Boolean.FALSE;
+                    case "getLong":
+                        return row;
+                    case "getString":
+                        Arrays.fill(chars, (char)('a' + row % 26));
+                        return new String(chars);
+                    case "getTimestamp":
+                        return new Timestamp(TIMESTAMP.getTime() + row * 1000);
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Creates a prepared statement whose query returns the given result set.
+     * @param resultSet the result set to return
+     * @return the prepared statement
+     */
+    static PreparedStatement preparedQuery(final ResultSet resultSet){
+        
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "executeQuery":
+                        executed++;
+                        return resultSet;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Creates a connection whose statements execute nothing.
+     * Executed statements are only counted, and prepared statements report 
+     * one updated record for every record of a batch. The connection reports 
+     * a MySQL 8.0 server.
+     * @return the connection
+     */
+    static Connection connection(){
+        
+        final DatabaseMetaData metaData = proxy(DatabaseMetaData.class, 
+                                                    new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "getDatabaseProductVersion":
+                        return "8.0.36";
+                    default:
+                        return null;
+                }
+            }
+        });
+        
+        return proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "createStatement":
+                        return statement();
+                    case "prepareStatement":
+                        return preparedStatement();
+                    case "getAutoCommit":
+                        return Boolean.FALSE;
+                    case "getMetaData":
+                        return metaData;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+    
+    private static Statement statement(){
+        
+        return proxy(Statement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "executeUpdate":
+                        executed++;
+                        return INTEGER;
+                    case "execute":
+                        executed++;
+                        return Boolean.FALSE;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+    
+    private static PreparedStatement preparedStatement(){
+        
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            
+            private int batched;
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args){
+                switch(method.getName()){
+                    case "addBatch":
+                        batched++;
+                        return null;
+                    case "executeBatch":
+                        executed++;
+                        int[] counts = new int[batched];
+                        batched = 0;
+                        return counts;
+                    case "executeUpdate":
+                        executed++;
+                        return INTEGER;
+                    case "execute":
+                        executed++;
+                        return Boolean.FALSE;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+}
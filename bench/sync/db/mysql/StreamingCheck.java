@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Checks that a table holding more data than the heap can be synchronized, 
+ * i.e. that the records are streamed from the result set to the client 
+ * database rather than held in memory.
+ * The records come from a result set of the in-process JDBC stand-in that 
+ * generates new values for every record, and are applied to a stand-in 
+ * connection through the same reader, pipeline and applier as a real 
+ * synchronization. The check fails if fewer records are applied than 
+ * generated, or if the records applied hold less data than the heap, which 
+ * would prove nothing; holding on to them instead runs out of memory.
+ * <p>
+ * Usage: <code>java -Xmx64m sync.db.mysql.StreamingCheck [--rows=n] 
+ * [--width=chars] [--apply-type=type] [--pipeline-depth=n]</code>, where 
+ * the number of records defaults to twice as much data as the maximum heap 
+ * size. Exits with status 1 if the check fails.
+ * @author Arvind Sasikumar
+ */
+public class StreamingCheck {
+    
+    private static final int ATTRIBUTES = 4;
+    private static final int BATCH_SIZE = 1000;
+    
+    public static void main(String[] args) throws Exception{
+        
+        long rows = 0;
+        int width = 64;
+        ApplyType applyType = ApplyType.MULTI_ROW;
+        int pipelineDepth = 2;
+        
+        for(String arg : args){
+            
+            if(arg.startsWith("--rows=")){
+                
+                rows = Long.parseLong(arg.substring(7));
+            }
+            else if(arg.startsWith("--width=")){
+                
+                width = Integer.parseInt(arg.substring(8));
+            }
+            else if(arg.startsWith("--apply-type=")){
+                
+                applyType = ApplyType.valueOf(arg.substring(13));
+            }
+            else if(arg.startsWith("--pipeline-depth=")){
+                
+                pipelineDepth = Integer.parseInt(arg.substring(17));
+            }
+        }
+        
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if(rows == 0){
+            
+            rows = 2 * maxMemory / ((long)ATTRIBUTES * width) + 1;
+        }
+        
+        TableMap tableMap = new TableMap("events_server", "events_client", 
+                                    "updated_at", "updated_at", "id", "id");
+        tableMap.addAttributeMap(new AttributeMap("id", "id", AttributeType.BIGINT));
+        for(int i = 1; i <= ATTRIBUTES; i++){
+            
+            tableMap.addAttributeMap(new AttributeMap("attribute_" + i, 
+                                "attribute_" + i, AttributeType.TEXT));
+        }
+        SyncPlan syncPlan = new SyncPlan(tableMap, 0, false);
+        
+        System.out.println("Streaming " + rows + " records of " + ATTRIBUTES + 
+                " attributes of " + width + " characters through a heap of " + 
+                maxMemory / (1024 * 1024) + " MB...");
+        
+        PreparedStatement statement = JdbcStandIn.preparedQuery(
+                            JdbcStandIn.generatedResultSet(width, rows));
+        RowPipeline rowPipeline = new RowPipeline(new QueryReader(statement), 
+                    BATCH_SIZE, syncPlan.getSelectCodecs(), pipelineDepth);
+        RowApplier rowApplier = RowApplier.create(applyType, 
+                    JdbcStandIn.connection(), syncPlan, BATCH_SIZE, 
+                    4 * 1024 * 1024, false);
+        
+        long bytes = 0;
+        long start = System.nanoTime();
+        
+        try{
+            
+            RowBatch batch;
+            while((batch = rowPipeline.next()) != null){
+                
+                bytes += batch.getByteSize();
+                for(int row = 0; row < batch.size(); row++){
+                    
+                    rowApplier.addRow(batch, row);
+                }
+                rowPipeline.release(batch);
+            }
+            rowApplier.flush();
+        }
+        
+        finally{
+            
+            rowPipeline.close();
+            rowApplier.close();
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Applied " + rowApplier.getAppliedRows() + 
+                " records, " + bytes / (1024 * 1024) + " MB, in " + 
+                String.format("%.2f", elapsed / 1e9) + " seconds.");
+        
+        boolean passed = true;
+        if(rowApplier.getAppliedRows() != rows){
+            
+            System.out.println("FAIL: " + rows + " records were generated.");
+            passed = false;
+        }
+        if(bytes <= maxMemory){
+            
+            System.out.println("FAIL: the records applied fit in the heap; " + 
+                        "raise --rows or --width, or lower -Xmx.");
+            passed = false;
+        }
+        
+        System.out.println(passed ? "PASS" : "FAIL");
+        if(!passed){
+            
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the hot paths of the synchronization, run without a 
+ * database: encoding and binding of values per attribute type, compiling 
+ * the sync plans of narrow and wide tables, parsing large DMML files, and 
+ * the apply loop of every apply type against an in-process JDBC stand-in.
+ * <p>
+ * Usage: <code>java sync.db.mysql.SyncBenchmarks [--warmup=millis] 
+ * [--measure=millis] [filter]</code>, where only the benchmarks whose name 
+ * contains the filter are run. Every result is printed as a tab separated 
+ * line holding the name, the operations per second, the bytes allocated per 
+ * operation and the megabytes allocated per second, so that the output of 
+ * two builds can be compared line by line.
+ * @author Arvind Sasikumar
+ */
+public class SyncBenchmarks {
+    
+    private static final int BATCH_SIZE = 1000;
+    private static final int DMML_TABLES = 5000;
+    
+    public static void main(String[] args) throws Exception{
+        
+        long warmupMillis = 2000;
+        long measureMillis = 3000;
+        String filter = "";
+        
+        for(String arg : args){
+            
+            if(arg.startsWith("--warmup=")){
+                
+                warmupMillis = Long.parseLong(arg.substring(9));
+            }
+            else if(arg.startsWith("--measure=")){
+                
+                measureMillis = Long.parseLong(arg.substring(10));
+            }
+            else{
+                
+                filter = arg;
+            }
+        }
+        
+        System.out.println("# benchmark\tops/s\tbytes/op\tMB/s");
+        for(Benchmark benchmark : createBenchmarks()){
+            
+            if(benchmark.getName().contains(filter)){
+                
+                System.out.println(benchmark.measure(warmupMillis, measureMillis));
+            }
+        }
+    }
+    
+    private static List<Benchmark> createBenchmarks(){
+        
+        List<Benchmark> benchmarks = new ArrayList<>();
+        
+        for(AttributeType type : AttributeType.values()){
+            
+            if(type != AttributeType.AUTO){
+                
+                addEncodingBenchmarks(benchmarks, type);
+            }
+        }
+        
+        benchmarks.add(planBenchmark("plan.narrow", 4));
+        benchmarks.add(planBenchmark("plan.wide", 200));
+        benchmarks.add(dmmlBenchmark("dmml.parse." + DMML_TABLES, DMML_TABLES));
+        
+        for(ApplyType applyType : new ApplyType[]{ApplyType.STATEMENT, 
+                                    ApplyType.BATCH, ApplyType.MULTI_ROW}){
+            
+            benchmarks.add(applyBenchmark(applyType));
+        }
+        
+        return benchmarks;
+    }
+    
+    private static int sqlType(AttributeType type){
+        
+        switch(type){
+            
+            case INT:
+                return Types.INTEGER;
+            case BIGINT:
+                return Types.BIGINT;
+            case DECIMAL:
+            case NUMERICAL:
+                return Types.DECIMAL;
+            case DOUBLE:
+                return Types.DOUBLE;
+            case DATETIME:
+            case TIMESTAMP:
+                return Types.TIMESTAMP;
+            case DATE:
+                return Types.DATE;
+            case BINARY:
+                return Types.VARBINARY;
+            default:
+                return Types.VARCHAR;
+        }
+    }
+    
+    /**
+     * Creates a batch of records holding an attribute of each of the given 
+     * types, filled from the stand-in result set.
+     */
+    static RowBatch fillBatch(AttributeType[] types, int rows) 
+                                                        throws SQLException{
+        
+        ColumnCodec[] codecs = new ColumnCodec[types.length];
+        int[] sqlTypes = new int[types.length];
+        String[] typeNames = new String[types.length];
+        for(int i = 0; i < types.length; i++){
+            
+            codecs[i] = ColumnCodec.forType(types[i]);
+            sqlTypes[i] = sqlType(types[i]);
+            typeNames[i] = types[i] == AttributeType.JSON ? "JSON" : types[i].name();
+        }
+        
+        RowBatch batch = new RowBatch(rows, codecs);
+        ResultSet rs = JdbcStandIn.resultSet(sqlTypes, typeNames, rows);
+        while(rs.next()){
+            
+            batch.add(rs);
+        }
+        return batch;
+    }
+    
+    private static void addEncodingBenchmarks(List<Benchmark> benchmarks, 
+                                                final AttributeType type){
+        
+        benchmarks.add(new Benchmark("encode.read." + type) {
+            
+            private RowBatch batch;
+            private ResultSet rs;
+            
+            @Override
+            void setUp() throws SQLException{
+                batch = fillBatch(new AttributeType[]{type}, BATCH_SIZE);
+                rs = JdbcStandIn.resultSet(new int[]{sqlType(type)}, 
+                                    new String[]{type.name()}, Integer.MAX_VALUE);
+            }
+            
+            @Override
+            long run() throws SQLException{
+                if(batch.isFull()){
+                    batch.clear();
+                }
+                batch.add(rs);
+                return batch.size();
+            }
+        });
+        
+        benchmarks.add(new Benchmark("encode.literal." + type) {
+            
+            private RowBatch batch;
+            private final StringBuilder sql = new StringBuilder(256);
+            private int row;
+            
+            @Override
+            void setUp() throws SQLException{
+                batch = fillBatch(new AttributeType[]{type}, BATCH_SIZE);
+            }
+            
+            @Override
+            long run(){
+                sql.setLength(0);
+                batch.appendLiteral(row, 1, sql);
+                row = (row + 1) % BATCH_SIZE;
+                return sql.length();
+            }
+        });
+        
+        benchmarks.add(new Benchmark("encode.field." + type) {
+            
+            private RowBatch batch;
+            private final StringBuilder line = new StringBuilder(256);
+            private int row;
+            
+            @Override
+            void setUp() throws SQLException{
+                batch = fillBatch(new AttributeType[]{type}, BATCH_SIZE);
+            }
+            
+            @Override
+            long run(){
+                line.setLength(0);
+                batch.appendField(row, 1, line);
+                row = (row + 1) % BATCH_SIZE;
+                return line.length();
+            }
+        });
+        
+        benchmarks.add(new Benchmark("encode.bind." + type) {
+            
+            private RowBatch batch;
+            private PreparedStatement statement;
+            private int row;
+            
+            @Override
+            void setUp() throws SQLException{
+                batch = fillBatch(new AttributeType[]{type}, BATCH_SIZE);
+                statement = JdbcStandIn.connection().prepareStatement("?");
+            }
+            
+            @Override
+            long run() throws SQLException{
+                batch.bind(row, 1, statement, 1);
+                row = (row + 1) % BATCH_SIZE;
+                return row;
+            }
+        });
+    }
+    
+    private static TableMap createTableMap(String name, int attributes){
+        
+        TableMap tableMap = new TableMap(name + "_server", name + "_client", 
+                                "updated_at", "updated_at", "id", "id");
+        tableMap.addAttributeMap(new AttributeMap("id", "id", AttributeType.BIGINT));
+        for(int i = 1; i < attributes - 1; i++){
+            
+            tableMap.addAttributeMap(new AttributeMap("attribute_" + i, 
+                                "attribute_" + i, AttributeType.TEXT));
+        }
+        tableMap.addAttributeMap(new AttributeMap("updated_at", "updated_at", 
+                                                    AttributeType.DATETIME));
+        return tableMap;
+    }
+    
+    private static Benchmark planBenchmark(String name, int attributes){
+        
+        final TableMap tableMap = createTableMap(name.replace('.', '_'), 
+                                                                    attributes);
+        return new Benchmark(name) {
+            @Override
+            long run(){
+                SyncPlan syncPlan = new SyncPlan(tableMap, BATCH_SIZE, true);
+                return syncPlan.getPageQuery().length() + 
+                       syncPlan.getInsertQuery().length() + 
+                       syncPlan.getUpsertClause(true).length();
+            }
+        };
+    }
+    
+    private static Benchmark dmmlBenchmark(String name, final int tables){
+        
+        return new Benchmark(name) {
+            
+            private File file;
+            
+            @Override
+            void setUp() throws IOException{
+                file = File.createTempFile("dbsync", ".dmml");
+                file.deleteOnExit();
+                writeDMML(file, tables);
+            }
+            
+            @Override
+            long run() throws Exception{
+                return DBMap.getDBMapFromFile(file).getTableMap().size();
+            }
+        };
+    }
+    
+    private static void writeDMML(File file, int tables) throws IOException{
+        
+        String[] types = {"BIGINT", "TEXT", "DECIMAL", "DATETIME", "STRING"};
+        
+        try(PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())){
+            
+            out.println("<databasemap>");
+            for(int t = 0; t < tables; t++){
+                
+                out.println("\t<tablemap>");
+                writeTag(out, "\t\t", "source", "table_" + t);
+                writeTag(out, "\t\t", "dest", "table_" + t);
+                writeTag(out, "\t\t", "sourcetimestamp", "updated_at");
+                writeTag(out, "\t\t", "desttimestamp", "updated_at");
+                for(int a = 0; a < types.length; a++){
+                    
+                    out.println("\t\t<attrmap>");
+                    writeTag(out, "\t\t\t", "source", "attribute_" + a);
+                    writeTag(out, "\t\t\t", "dest", "attribute_" + a);
+                    writeTag(out, "\t\t\t", "type", types[a]);
+                    out.println("\t\t</attrmap>");
+                }
+                out.println("\t</tablemap>");
+            }
+            out.println("</databasemap>");
+        }
+    }
+    
+    private static void writeTag(PrintWriter out, String indent, String tag, 
+                                                                String value){
+        
+        out.println(indent + "<" + tag + ">");
+        out.println(indent + "\t" + value);
+        out.println(indent + "</" + tag + ">");
+    }
+    
+    private static Benchmark applyBenchmark(final ApplyType applyType){
+        
+        return new Benchmark("apply." + applyType + "." + BATCH_SIZE) {
+            
+            private RowBatch batch;
+            private RowApplier rowApplier;
+            
+            @Override
+            void setUp() throws SQLException{
+                TableMap tableMap = new TableMap("orders_server", "orders_client", 
+                                    "updated_at", "updated_at", "id", "id");
+                AttributeType[] types = {AttributeType.BIGINT, AttributeType.TEXT, 
+                        AttributeType.DECIMAL, AttributeType.DOUBLE, 
+                        AttributeType.DATETIME, AttributeType.JSON};
+                for(int i = 0; i < types.length; i++){
+                    tableMap.addAttributeMap(new AttributeMap(i == 0 ? "id" : 
+                                "attribute_" + i, i == 0 ? "id" : "attribute_" + i, 
+                                types[i]));
+                }
+                
+                SyncPlan syncPlan = new SyncPlan(tableMap, 0, false);
+                batch = fillBatch(types, BATCH_SIZE);
+                rowApplier = RowApplier.create(applyType, JdbcStandIn.connection(), 
+                        syncPlan, BATCH_SIZE, 4 * 1024 * 1024, true);
+            }
+            
+            @Override
+            long run() throws SQLException{
+                for(int row = 0; row < batch.size(); row++){
+                    rowApplier.addRow(batch, row);
+                }
+                rowApplier.flush();
+                return rowApplier.getAppliedRows();
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+/**
+ * Enum class that defines the ways in which fetched records can be applied to 
+ * the client database.
+ * <p>
+ * <b>STATEMENT</b> type sends one insert statement per record.
+ * <b>BATCH</b> type binds each record to a single prepared statement per table 
+ * and sends the records in batches using JDBC batching.
+ * <b>MULTI_ROW</b> type packs many records into a single multi-row insert 
+ * statement, sized against the max_allowed_packet of the client database.
+ * <b>LOAD_DATA</b> type streams the records into "LOAD DATA LOCAL INFILE", 
+ * the bulk loader of the client database.
+ * @author Arvind Sasikumar
+ */
+public enum ApplyType {
+    
+    STATEMENT, BATCH, MULTI_ROW, LOAD_DATA
+}
@@ -43,14 +43,15 @@ public class AttributeMap {
      * as found in their respective tables. The type parameter indicates whether 
      * the datatype of the attributes to be mapped is of form 
      * {@link sync.db.mysql.AttributeType#STRING} or 
-     * {@link sync.db.mysql.AttributeType#NUMERICAL}.
+     * {@link sync.db.mysql.AttributeType#NUMERICAL}, or which typed form, 
+     * for e.g. {@link sync.db.mysql.AttributeType#INT}, carries its values.
      * @param sourceAttribute attribute name in the source table
      * @param destinationAttribute corresponding attribute name in the 
      * destination table
      * @param type specifies whether the attribute is of type 
      * {@link sync.db.mysql.AttributeType#STRING} or 
-     * {@link sync.db.mysql.AttributeType#NUMERICAL}, 
-     * as defined in the enum {@link sync.db.mysql.AttributeType}.
+     * {@link sync.db.mysql.AttributeType#NUMERICAL} or one of the typed 
+     * forms, as defined in the enum {@link sync.db.mysql.AttributeType}.
      * @see sync.db.mysql.AttributeType
      * @see sync.db.mysql.AttributeType#STRING
      * @see sync.db.mysql.AttributeType#NUMERICAL
@@ -31,9 +31,44 @@ package sync.db.mysql;
  * surrounded with a '' or "" in a MySQL insert statement.
  * <b>NUMERICAL</b> type refers to all attributes that do not require them to 
  * be surrounded with a '' or "" in a MySQL insert statement.
+ * Both are carried as text.
+ * <p>
+ * The remaining types carry values in their own form: <b>INT</b> and 
+ * <b>BIGINT</b> as longs, <b>DECIMAL</b> exactly, <b>DOUBLE</b> for float and 
+ * double attributes, <b>DATETIME</b>, <b>TIMESTAMP</b> and <b>DATE</b> as 
+ * JDBC date values, <b>BINARY</b> for binary, varbinary and blob attributes 
+ * byte for byte, and <b>TEXT</b> and <b>JSON</b> as text. <b>AUTO</b> picks 
+ * one of these from the result set metadata of the source table.
  * @author Arvind Sasikumar
  */
 public enum AttributeType {
     
-    STRING, NUMERICAL 
+    STRING, NUMERICAL, 
+    INT, BIGINT, DECIMAL, DOUBLE, 
+    DATETIME, TIMESTAMP, DATE, 
+    BINARY, TEXT, JSON, 
+    AUTO;
+    
+    /**
+     * Gets the attribute type with the given name, as written in a DMML file.
+     * VARBINARY and BLOB are accepted for {@link #BINARY}.
+     * @param name name of the attribute type
+     * @return the attribute type, null if there is none with this name
+     */
+    static AttributeType fromName(String name){
+        
+        if(name.equals("VARBINARY") || name.equals("BLOB")){
+            
+            return BINARY;
+        }
+        
+        for(AttributeType type : values()){
+            
+            if(type.name().equals(name)){
+                
+                return type;
+            }
+        }
+        return null;
+    }
 }
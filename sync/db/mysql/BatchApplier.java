@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Applies records through a single parameterized insert statement per table, 
+ * sending them to the client database in batches.
+ * The statement is parsed once and every record only binds its values, which 
+ * saves both the per-record statement parse and the per-record round trip. 
+ * With Connector/J, adding "rewriteBatchedStatements=true" to the client 
+ * connection options additionally lets the driver send each batch as a single 
+ * multi-row insert, also when it carries an upsert clause. Every value is 
+ * bound with the setter of its codec, so numbers, dates and binary values are 
+ * sent without being turned into text first.
+ * @author Arvind Sasikumar
+ */
+class BatchApplier extends RowApplier {
+    
+    private final PreparedStatement insertStatement;
+    
+    private final int columnCount;
+    private final int batchSize;
+    
+    private int pendingRows;
+    
+    /**
+     * Creates a new batch applier.
+     * @param connection connection to the client database
+     * @param insertQuery parameterized insert statement of one record
+     * @param columnCount number of mapped attributes
+     * @param batchSize maximum number of records per batch
+     * @throws SQLException if the statement could not be prepared
+     */
+    BatchApplier(Connection connection, String insertQuery, int columnCount, 
+                                        int batchSize) throws SQLException{
+        
+        this.insertStatement = connection.prepareStatement(insertQuery);
+        this.columnCount = columnCount;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+    
+    @Override
+    void addRow(RowBatch batch, int row) throws SQLException{
+        
+        for(int i = 1; i <= columnCount; i++){
+            
+            batch.bind(row, i, insertStatement, i);
+        }
+        insertStatement.addBatch();
+        
+        if(++pendingRows >= batchSize){
+            
+            flush();
+        }
+    }
+    
+    @Override
+    void flush() throws SQLException{
+        
+        if(pendingRows == 0){
+            
+            return;
+        }
+        
+        insertStatement.executeBatch();
+        rowsApplied(pendingRows);
+        pendingRows = 0;
+    }
+    
+    @Override
+    void close() throws SQLException{
+        
+        insertStatement.close();
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays row changes read from the binary log of the server database on 
+ * the client database, translating table and attribute names through the 
+ * {@link sync.db.mysql.DBMap}.<p>
+ * The changes of one server transaction are applied in one client 
+ * transaction. Replaying is made safe to repeat, since after a restart the 
+ * changes since the last saved binlog position are replayed once more: 
+ * inserts skip rows that already exist, updates of rows that do not exist 
+ * insert them instead, and deletes of rows that do not exist do nothing. 
+ * Rows are found by the key attribute of their table map if it has one, and 
+ * by all their mapped attributes otherwise.
+ * @author Arvind Sasikumar
+ */
+class BinlogApplier {
+    
+    private final Connection clientConnection;
+    private final String schema;
+    private final ArrayList<TableMap> tableMaps;
+    
+    private final Map<String, PreparedStatement> statements;
+    
+    private final boolean autoCommit;
+    
+    private long appliedRows;
+    
+    /**
+     * Creates a new applier and turns autocommit off on the client 
+     * connection.
+     * @param clientConnection connection to the client database
+     * @param dbMap database map
+     * @param schema name of the server database; tables of other databases 
+     * are only replayed if their table map names them with the database
+     * @throws SQLException if autocommit could not be turned off
+     */
+    BinlogApplier(Connection clientConnection, DBMap dbMap, String schema) 
+                                                        throws SQLException{
+        
+        this.clientConnection = clientConnection;
+        this.schema = schema;
+        this.tableMaps = dbMap.getTableMap();
+        
+        statements = new HashMap<>();
+        
+        autoCommit = clientConnection.getAutoCommit();
+        clientConnection.setAutoCommit(false);
+    }
+    
+    /**
+     * Finds the table map of a table of the server database.
+     * @param table the table to look up
+     * @return its table map, null if the table is not synchronized
+     */
+    TableMap getTableMap(BinlogTable table){
+        
+        for(TableMap tableMap : tableMaps){
+            
+            String sourceTable = tableMap.getSourceTable();
+            if(sourceTable.contains(".")){
+                
+                if(sourceTable.equalsIgnoreCase(table.toString())){
+                    
+                    return tableMap;
+                }
+            }
+            else if(sourceTable.equalsIgnoreCase(table.getName()) && 
+                                    table.getSchema().equalsIgnoreCase(schema)){
+                
+                return tableMap;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Applies the rows of a row change.
+     * @param event an insert, update or delete
+     * @throws SQLException if the rows could not be applied
+     */
+    void apply(BinlogEvent event) throws SQLException{
+        
+        BinlogTable table = event.getTable();
+        TableMap tableMap = getTableMap(table);
+        if(tableMap == null){
+            
+            return;
+        }
+        
+        ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
+        int[] columns = new int[attributeMap.size()];
+        for(int i = 0; i < columns.length; i++){
+            
+            columns[i] = findColumn(table, attributeMap.get(i).getSourceAttribute());
+        }
+        int keyColumn = tableMap.getSourceKeyAttribute() == null ? -1 
+                            : findColumn(table, tableMap.getSourceKeyAttribute());
+        
+        List<Object[]> rows = event.getRows();
+        switch(event.getKind()){
+            
+            case INSERT:
+                for(Object[] row : rows){
+                    
+                    insert(tableMap, columns, row, event.getAfterColumns());
+                }
+                break;
+                
+            case UPDATE:
+                for(int i = 0; i < rows.size(); i += 2){
+                    
+                    update(tableMap, columns, keyColumn, rows.get(i), 
+                                event.getBeforeColumns(), rows.get(i + 1), 
+                                event.getAfterColumns());
+                }
+                break;
+                
+            case DELETE:
+                for(Object[] row : rows){
+                    
+                    delete(tableMap, columns, keyColumn, row, 
+                                                    event.getBeforeColumns());
+                }
+                break;
+                
+            default:
+                break;
+        }
+    }
+    
+    void commit() throws SQLException{
+        
+        clientConnection.commit();
+    }
+    
+    void rollback(){
+        
+        try{
+            
+            clientConnection.rollback();
+        }
+        
+        catch(SQLException e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    long getAppliedRows(){
+        
+        return appliedRows;
+    }
+    
+    /**
+     * Closes all statements and restores autocommit on the client 
+     * connection.
+     */
+    void close(){
+        
+        for(PreparedStatement statement : statements.values()){
+            
+            try{
+                
+                statement.close();
+            }
+            
+            catch(SQLException e){
+                
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+        
+        try{
+            
+            clientConnection.setAutoCommit(autoCommit);
+        }
+        
+        catch(SQLException e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    private static int findColumn(BinlogTable table, String name) 
+                                                        throws SQLException{
+        
+        String[] columnNames = table.getColumnNames();
+        for(int i = 0; i < columnNames.length; i++){
+            
+            if(columnNames[i].equalsIgnoreCase(name)){
+                
+                return i;
+            }
+        }
+        throw new SQLException("Attribute " + name + " not found in " + table);
+    }
+    
+    private void insert(TableMap tableMap, int[] columns, Object[] row, 
+                                        BitSet present) throws SQLException{
+        
+        ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
+        String name = "insert:" + tableMap.getDestinationTable() + ":" + present;
+        
+        PreparedStatement statement = statements.get(name);
+        if(statement == null){
+            
+            StringBuilder insertQuery = new StringBuilder("insert ignore into ")
+                            .append(tableMap.getDestinationTable()).append("(");
+            StringBuilder values = new StringBuilder();
+            for(int i = 0; i < columns.length; i++){
+                
+                if(present.get(columns[i])){
+                    
+                    if(values.length() > 0){
+                        
+                        insertQuery.append(",");
+                        values.append(",");
+                    }
+                    insertQuery.append(attributeMap.get(i).getDestinationAttribute());
+                    values.append("?");
+                }
+            }
+            insertQuery.append(") values (").append(values).append(")");
+            
+            statement = clientConnection.prepareStatement(insertQuery.toString());
+            statements.put(name, statement);
+        }
+        
+        int parameterIndex = 1;
+        for(int column : columns){
+            
+            if(present.get(column)){
+                
+                statement.setObject(parameterIndex++, row[column]);
+            }
+        }
+        
+        statement.executeUpdate();
+        appliedRows++;
+    }
+    
+    private void update(TableMap tableMap, int[] columns, int keyColumn, 
+                        Object[] before, BitSet beforePresent, Object[] after, 
+                        BitSet afterPresent) throws SQLException{
+        
+        ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
+        String name = "update:" + tableMap.getDestinationTable() + ":" + 
+                                            beforePresent + ":" + afterPresent;
+        
+        PreparedStatement statement = statements.get(name);
+        if(statement == null){
+            
+            StringBuilder updateQuery = new StringBuilder("update ")
+                            .append(tableMap.getDestinationTable()).append(" set ");
+            boolean first = true;
+            for(int i = 0; i < columns.length; i++){
+                
+                if(afterPresent.get(columns[i])){
+                    
+                    if(!first){
+                        
+                        updateQuery.append(", ");
+                    }
+                    updateQuery.append(attributeMap.get(i).getDestinationAttribute())
+                               .append(" = ?");
+                    first = false;
+                }
+            }
+            updateQuery.append(generateWhereClause(tableMap, columns, keyColumn, 
+                                                                beforePresent));
+            
+            statement = clientConnection.prepareStatement(updateQuery.toString());
+            statements.put(name, statement);
+        }
+        
+        int parameterIndex = 1;
+        for(int column : columns){
+            
+            if(afterPresent.get(column)){
+                
+                statement.setObject(parameterIndex++, after[column]);
+            }
+        }
+        bindWhereClause(statement, parameterIndex, columns, keyColumn, before, 
+                                                                beforePresent);
+        
+        if(statement.executeUpdate() == 0){
+            
+            insert(tableMap, columns, after, afterPresent);
+            return;
+        }
+        appliedRows++;
+    }
+    
+    private void delete(TableMap tableMap, int[] columns, int keyColumn, 
+                        Object[] before, BitSet present) throws SQLException{
+        
+        String name = "delete:" + tableMap.getDestinationTable() + ":" + present;
+        
+        PreparedStatement statement = statements.get(name);
+        if(statement == null){
+            
+            statement = clientConnection.prepareStatement("delete from " + 
+                        tableMap.getDestinationTable() + 
+                        generateWhereClause(tableMap, columns, keyColumn, present));
+            statements.put(name, statement);
+        }
+        
+        bindWhereClause(statement, 1, columns, keyColumn, before, present);
+        
+        statement.executeUpdate();
+        appliedRows++;
+    }
+    
+    private static boolean isKeyed(int keyColumn, BitSet present){
+        
+        return keyColumn >= 0 && present.get(keyColumn);
+    }
+    
+    private static String generateWhereClause(TableMap tableMap, int[] columns, 
+                                            int keyColumn, BitSet present){
+        
+        if(isKeyed(keyColumn, present)){
+            
+            return " where " + tableMap.getDestinationKeyAttribute() + " = ?";
+        }
+        
+        ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
+        StringBuilder whereClause = new StringBuilder(" where ");
+        boolean first = true;
+        for(int i = 0; i < columns.length; i++){
+            
+            if(present.get(columns[i])){
+                
+                if(!first){
+                    
+                    whereClause.append(" and ");
+                }
+                whereClause.append(attributeMap.get(i).getDestinationAttribute())
+                           .append(" <=> ?");
+                first = false;
+            }
+        }
+        return whereClause.append(" limit 1").toString();
+    }
+    
+    private static void bindWhereClause(PreparedStatement statement, 
+                int parameterIndex, int[] columns, int keyColumn, Object[] row, 
+                BitSet present) throws SQLException{
+        
+        if(isKeyed(keyColumn, present)){
+            
+            statement.setObject(parameterIndex, row[keyColumn]);
+            return;
+        }
+        
+        for(int column : columns){
+            
+            if(present.get(column)){
+                
+                statement.setObject(parameterIndex++, row[column]);
+            }
+        }
+    }
+}
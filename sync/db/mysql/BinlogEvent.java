@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A change read from the binary log of the server database.
+ * Row changes carry the rows of one rows event, each row being the values 
+ * of all the columns of the table in table order. For updates, the rows 
+ * alternate between the row before and the row after the change.
+ * @author Arvind Sasikumar
+ */
+class BinlogEvent {
+    
+    enum Kind {
+        
+        INSERT, UPDATE, DELETE, COMMIT, DDL
+    }
+    
+    private final Kind kind;
+    private final BinlogTable table;
+    private final List<Object[]> rows;
+    private final BitSet beforeColumns;
+    private final BitSet afterColumns;
+    private final String query;
+    private final BinlogPosition position;
+    
+    private BinlogEvent(Kind kind, BinlogTable table, List<Object[]> rows, 
+                        BitSet beforeColumns, BitSet afterColumns, String query, 
+                        BinlogPosition position){
+        
+        this.kind = kind;
+        this.table = table;
+        this.rows = rows;
+        this.beforeColumns = beforeColumns;
+        this.afterColumns = afterColumns;
+        this.query = query;
+        this.position = position;
+    }
+    
+    /**
+     * Creates a row change.
+     * @param kind {@link Kind#INSERT}, {@link Kind#UPDATE} or 
+     * {@link Kind#DELETE}
+     * @param table the table that was changed
+     * @param rows the changed rows
+     * @param beforeColumns columns present in the rows before the change, 
+     * null for inserts
+     * @param afterColumns columns present in the rows after the change, 
+     * null for deletes
+     * @param position position right after the event
+     * @return the row change
+     */
+    static BinlogEvent rows(Kind kind, BinlogTable table, List<Object[]> rows, 
+                        BitSet beforeColumns, BitSet afterColumns, 
+                        BinlogPosition position){
+        
+        return new BinlogEvent(kind, table, rows, beforeColumns, afterColumns, 
+                                                            null, position);
+    }
+    
+    static BinlogEvent commit(BinlogPosition position){
+        
+        return new BinlogEvent(Kind.COMMIT, null, null, null, null, null, position);
+    }
+    
+    static BinlogEvent ddl(String query, BinlogPosition position){
+        
+        return new BinlogEvent(Kind.DDL, null, null, null, null, query, position);
+    }
+    
+    Kind getKind(){
+        
+        return kind;
+    }
+    
+    BinlogTable getTable(){
+        
+        return table;
+    }
+    
+    List<Object[]> getRows(){
+        
+        return rows;
+    }
+    
+    BitSet getBeforeColumns(){
+        
+        return beforeColumns;
+    }
+    
+    BitSet getAfterColumns(){
+        
+        return afterColumns;
+    }
+    
+    String getQuery(){
+        
+        return query;
+    }
+    
+    /**
+     * Gets the position right after this event, where reading resumes once 
+     * the event has been applied.
+     * @return position of the next event
+     */
+    BinlogPosition getPosition(){
+        
+        return position;
+    }
+}
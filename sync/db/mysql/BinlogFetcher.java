@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the binary log of the server database into a local directory over 
+ * a replication connection, by running mysqlbinlog with 
+ * --read-from-remote-server and --raw. The files it writes are read by 
+ * {@link sync.db.mysql.BinlogReader} as they grow.
+ * @author Arvind Sasikumar
+ */
+class BinlogFetcher {
+    
+    private final String command;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final File directory;
+    
+    private Process process;
+    
+    /**
+     * Creates a new fetcher; nothing is run until {@link #start(java.lang.String)}.
+     * @param command path of the mysqlbinlog executable
+     * @param host address of the server database
+     * @param port port of the server database
+     * @param username user with the REPLICATION SLAVE privilege
+     * @param password password of the user
+     * @param directory directory the binlog files are written to
+     */
+    BinlogFetcher(String command, String host, int port, String username, 
+                                        String password, File directory){
+        
+        this.command = command;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.directory = directory;
+    }
+    
+    /**
+     * Starts streaming the binary log, from the start of the given file 
+     * onwards, until {@link #stop()} is called.
+     * @param fileName name of the first binlog file to fetch
+     * @throws IOException if mysqlbinlog could not be started
+     */
+    void start(String fileName) throws IOException{
+        
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            
+            throw new IOException("Could not create " + directory);
+        }
+        
+        List<String> arguments = new ArrayList<>();
+        arguments.add(command);
+        arguments.add("--read-from-remote-server");
+        arguments.add("--host=" + host);
+        arguments.add("--port=" + port);
+        arguments.add("--user=" + username);
+        arguments.add("--raw");
+        arguments.add("--stop-never");
+        arguments.add("--result-file=" + directory.getPath() + File.separator);
+        arguments.add(fileName);
+        
+        ProcessBuilder processBuilder = new ProcessBuilder(arguments);
+        processBuilder.environment().put("MYSQL_PWD", password);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        
+        System.out.println("Fetching binlog from " + host + ":" + port + 
+                                            " starting with " + fileName + "...");
+        process = processBuilder.start();
+    }
+    
+    /**
+     * Checks that mysqlbinlog is still running.
+     * @throws IOException if it has exited
+     */
+    void check() throws IOException{
+        
+        if(process != null && !process.isAlive()){
+            
+            throw new IOException("mysqlbinlog exited with status " + 
+                                                        process.exitValue());
+        }
+    }
+    
+    void stop(){
+        
+        if(process == null){
+            
+            return;
+        }
+        
+        process.destroy();
+        try{
+            
+            process.waitFor();
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+        }
+        process = null;
+    }
+}
@@ -0,0 +1,1129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads row based events from binlog files in a local directory.
+ * The files are either copies of the binary log of the server database, or 
+ * are being streamed into the directory from the server by 
+ * {@link sync.db.mysql.BinlogFetcher}; events that have not been written 
+ * completely yet are left for a later call. Files are followed from one to 
+ * the next through their rotate events.<p>
+ * Only the events needed to replay row changes are returned: the rows of 
+ * insert, update and delete events, the end of every transaction and 
+ * statements that may have changed the layout of a table. Everything else 
+ * is skipped, except events that carry row changes in a form that cannot 
+ * be decoded, which fail the read rather than lose the changes: the server 
+ * must log full row images uncompressed, i.e. run MySQL with 
+ * binlog_transaction_compression=OFF and without PARTIAL_JSON in 
+ * binlog_row_value_options, and MariaDB with log_bin_compress=OFF.
+ * @author Arvind Sasikumar
+ */
+class BinlogReader {
+    
+    /**
+     * Looks up the column names of a table when the binlog does not carry 
+     * them, and marks the tables whose rows are of no interest.
+     */
+    interface ColumnResolver {
+        
+        void resolve(BinlogTable table) throws IOException;
+    }
+    
+    private static final byte[] MAGIC = {(byte)0xfe, 'b', 'i', 'n'};
+    
+    private static final int HEADER_LENGTH = 19;
+    
+    private static final int QUERY_EVENT = 2;
+    private static final int STOP_EVENT = 3;
+    private static final int ROTATE_EVENT = 4;
+    private static final int FORMAT_DESCRIPTION_EVENT = 15;
+    private static final int XID_EVENT = 16;
+    private static final int TABLE_MAP_EVENT = 19;
+    private static final int WRITE_ROWS_EVENT_V1 = 23;
+    private static final int UPDATE_ROWS_EVENT_V1 = 24;
+    private static final int DELETE_ROWS_EVENT_V1 = 25;
+    private static final int WRITE_ROWS_EVENT = 30;
+    private static final int UPDATE_ROWS_EVENT = 31;
+    private static final int DELETE_ROWS_EVENT = 32;
+    private static final int PARTIAL_UPDATE_ROWS_EVENT = 39;
+    private static final int TRANSACTION_PAYLOAD_EVENT = 40;
+    private static final int QUERY_COMPRESSED_EVENT = 165;
+    private static final int WRITE_ROWS_COMPRESSED_EVENT_V1 = 166;
+    private static final int UPDATE_ROWS_COMPRESSED_EVENT_V1 = 167;
+    private static final int DELETE_ROWS_COMPRESSED_EVENT_V1 = 168;
+    private static final int WRITE_ROWS_COMPRESSED_EVENT = 169;
+    private static final int UPDATE_ROWS_COMPRESSED_EVENT = 170;
+    private static final int DELETE_ROWS_COMPRESSED_EVENT = 171;
+    
+    private static final int TYPE_DECIMAL = 0;
+    private static final int TYPE_TINY = 1;
+    private static final int TYPE_SHORT = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_FLOAT = 4;
+    private static final int TYPE_DOUBLE = 5;
+    private static final int TYPE_NULL = 6;
+    private static final int TYPE_TIMESTAMP = 7;
+    private static final int TYPE_LONGLONG = 8;
+    private static final int TYPE_INT24 = 9;
+    private static final int TYPE_DATE = 10;
+    private static final int TYPE_TIME = 11;
+    private static final int TYPE_DATETIME = 12;
+    private static final int TYPE_YEAR = 13;
+    private static final int TYPE_VARCHAR = 15;
+    private static final int TYPE_BIT = 16;
+    private static final int TYPE_TIMESTAMP2 = 17;
+    private static final int TYPE_DATETIME2 = 18;
+    private static final int TYPE_TIME2 = 19;
+    private static final int TYPE_JSON = 245;
+    private static final int TYPE_NEWDECIMAL = 246;
+    private static final int TYPE_ENUM = 247;
+    private static final int TYPE_SET = 248;
+    private static final int TYPE_TINY_BLOB = 249;
+    private static final int TYPE_MEDIUM_BLOB = 250;
+    private static final int TYPE_LONG_BLOB = 251;
+    private static final int TYPE_BLOB = 252;
+    private static final int TYPE_VAR_STRING = 253;
+    private static final int TYPE_STRING = 254;
+    private static final int TYPE_GEOMETRY = 255;
+    
+    private static final int METADATA_SIGNEDNESS = 1;
+    private static final int METADATA_COLUMN_NAME = 4;
+    
+    private static final int[] DIGITS_TO_BYTES = {0, 1, 1, 2, 2, 3, 3, 4, 4, 4};
+    
+    private final File directory;
+    private final ColumnResolver columnResolver;
+    
+    private final Map<Long, BinlogTable> tables;
+    
+    private String fileName;
+    private RandomAccessFile file;
+    private long position;
+    private boolean stopped;
+    
+    private boolean checksummed;
+    private byte[] postHeaderLengths;
+    
+    private final byte[] header;
+    private final CRC32 crc;
+    
+    /**
+     * Creates a new reader; no file is opened until the first event is read.
+     * @param directory directory holding the binlog files
+     * @param start position of the first event to read
+     * @param columnResolver looks up the column names of the tables
+     */
+    BinlogReader(File directory, BinlogPosition start, 
+                                            ColumnResolver columnResolver){
+        
+        this.directory = directory;
+        this.columnResolver = columnResolver;
+        
+        tables = new HashMap<>();
+        
+        fileName = start.getFileName();
+        position = start.getPosition();
+        
+        header = new byte[HEADER_LENGTH];
+        crc = new CRC32();
+    }
+    
+    /**
+     * Gets the position of the next event to be read.
+     * @return the current position
+     */
+    BinlogPosition getPosition(){
+        
+        return new BinlogPosition(fileName, position);
+    }
+    
+    /**
+     * Reads the next event of interest.
+     * @return the event, null if no complete event is available yet
+     * @throws IOException if the binlog could not be read or holds an event 
+     * that cannot be replayed
+     */
+    BinlogEvent next() throws IOException{
+        
+        while(true){
+            
+            if(file == null && !open()){
+                
+                return null;
+            }
+            
+            if(file.length() - position < HEADER_LENGTH && stopped 
+                                                    && nextFileExists()){
+                
+                switchTo(getNextFileName(), 4);
+                continue;
+            }
+            
+            byte[] event = readRawEvent();
+            if(event == null){
+                
+                return null;
+            }
+            
+            int type = event[4] & 0xff;
+            int bodyEnd = event.length;
+            if(checksummed && type != FORMAT_DESCRIPTION_EVENT){
+                
+                bodyEnd -= 4;
+                verifyChecksum(event, bodyEnd);
+            }
+            
+            BinlogEvent binlogEvent = readEvent(type, 
+                                new BinlogBuffer(event, HEADER_LENGTH, bodyEnd));
+            if(binlogEvent != null){
+                
+                return binlogEvent;
+            }
+        }
+    }
+    
+    /**
+     * Reads the event at the current position and moves past it.
+     * @return the event including its header, null if it has not been 
+     * written completely yet
+     */
+    private byte[] readRawEvent() throws IOException{
+        
+        long available = file.length() - position;
+        if(available < HEADER_LENGTH){
+            
+            return null;
+        }
+        
+        file.seek(position);
+        file.readFully(header);
+        long eventSize = new BinlogBuffer(header, 9, 13).readLong(4);
+        if(available < eventSize){
+            
+            return null;
+        }
+        
+        byte[] event = new byte[(int)eventSize];
+        System.arraycopy(header, 0, event, 0, HEADER_LENGTH);
+        file.readFully(event, HEADER_LENGTH, event.length - HEADER_LENGTH);
+        
+        position += eventSize;
+        return event;
+    }
+    
+    /**
+     * Closes the current binlog file.
+     */
+    void close(){
+        
+        if(file != null){
+            
+            try{
+                
+                file.close();
+            }
+            
+            catch(IOException e){
+                
+                e.printStackTrace();
+            }
+            file = null;
+        }
+    }
+    
+    private BinlogEvent readEvent(int type, BinlogBuffer body) throws IOException{
+        
+        switch(type){
+            
+            case FORMAT_DESCRIPTION_EVENT:
+                readFormatDescription(body);
+                return null;
+                
+            case ROTATE_EVENT:
+                long nextPosition = body.readLong(8);
+                String nextFile = body.readString(body.remaining());
+                if(!nextFile.equals(fileName)){
+                    
+                    switchTo(nextFile, nextPosition);
+                }
+                return null;
+                
+            case STOP_EVENT:
+                stopped = true;
+                return null;
+                
+            case TABLE_MAP_EVENT:
+                readTableMap(body);
+                return null;
+                
+            case XID_EVENT:
+                return BinlogEvent.commit(getPosition());
+                
+            case QUERY_EVENT:
+                return readQuery(body);
+                
+            case WRITE_ROWS_EVENT_V1:
+            case WRITE_ROWS_EVENT:
+                return readRows(BinlogEvent.Kind.INSERT, body, 
+                                                type == WRITE_ROWS_EVENT);
+                
+            case UPDATE_ROWS_EVENT_V1:
+            case UPDATE_ROWS_EVENT:
+                return readRows(BinlogEvent.Kind.UPDATE, body, 
+                                                type == UPDATE_ROWS_EVENT);
+                
+            case DELETE_ROWS_EVENT_V1:
+            case DELETE_ROWS_EVENT:
+                return readRows(BinlogEvent.Kind.DELETE, body, 
+                                                type == DELETE_ROWS_EVENT);
+            
+            case PARTIAL_UPDATE_ROWS_EVENT:
+            case TRANSACTION_PAYLOAD_EVENT:
+            case QUERY_COMPRESSED_EVENT:
+            case WRITE_ROWS_COMPRESSED_EVENT_V1:
+            case UPDATE_ROWS_COMPRESSED_EVENT_V1:
+            case DELETE_ROWS_COMPRESSED_EVENT_V1:
+            case WRITE_ROWS_COMPRESSED_EVENT:
+            case UPDATE_ROWS_COMPRESSED_EVENT:
+            case DELETE_ROWS_COMPRESSED_EVENT:
+                throw new IOException("Event type " + type + " ending at " + 
+                        getPosition() + " cannot be replayed from the binlog; " + 
+                        "turn off binlog compression and partial JSON updates");
+                
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Opens the current binlog file and reads its format description event, 
+     * which tells whether events carry a checksum; this is done even when 
+     * resuming from further down the file.
+     * @return false if the file has not been written far enough yet
+     */
+    private boolean open() throws IOException{
+        
+        File binlogFile = new File(directory, fileName);
+        if(!binlogFile.exists()){
+            
+            return false;
+        }
+        
+        file = new RandomAccessFile(binlogFile, "r");
+        stopped = false;
+        
+        long start = position;
+        position = MAGIC.length;
+        
+        byte[] magic = new byte[MAGIC.length];
+        byte[] event = null;
+        if(file.length() >= magic.length){
+            
+            file.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC)){
+                
+                close();
+                throw new IOException(binlogFile + " is not a binlog file");
+            }
+            event = readRawEvent();
+        }
+        
+        if(event == null){
+            
+            position = start;
+            close();
+            return false;
+        }
+        
+        if((event[4] & 0xff) != FORMAT_DESCRIPTION_EVENT){
+            
+            close();
+            throw new IOException(binlogFile + " does not start with a format description event");
+        }
+        readFormatDescription(new BinlogBuffer(event, HEADER_LENGTH, event.length));
+        
+        position = Math.max(start, position);
+        return true;
+    }
+    
+    private void switchTo(String nextFile, long nextPosition) throws IOException{
+        
+        close();
+        tables.clear();
+        fileName = nextFile;
+        position = nextPosition;
+        open();
+    }
+    
+    private String getNextFileName(){
+        
+        int dot = fileName.lastIndexOf('.');
+        String extension = fileName.substring(dot + 1);
+        String next = Long.toString(Long.parseLong(extension) + 1);
+        while(next.length() < extension.length()){
+            
+            next = "0" + next;
+        }
+        return fileName.substring(0, dot + 1) + next;
+    }
+    
+    private boolean nextFileExists(){
+        
+        return new File(directory, getNextFileName()).exists();
+    }
+    
+    private void verifyChecksum(byte[] event, int length) throws IOException{
+        
+        crc.reset();
+        crc.update(event, 0, length);
+        long expected = new BinlogBuffer(event, length, length + 4).readLong(4);
+        if(crc.getValue() != expected){
+            
+            throw new IOException("Checksum mismatch in event ending at " + 
+                                                                getPosition());
+        }
+    }
+    
+    private void readFormatDescription(BinlogBuffer body){
+        
+        body.skip(2);
+        String serverVersion = body.readString(50).trim();
+        body.skip(4);
+        body.skip(1);
+        
+        int postHeaderCount = body.remaining();
+        boolean hasChecksumAlgorithm = isAtLeast(serverVersion, 5, 6, 1);
+        if(hasChecksumAlgorithm){
+            
+            postHeaderCount -= 5;
+        }
+        
+        postHeaderLengths = body.readBytes(postHeaderCount);
+        checksummed = hasChecksumAlgorithm && body.readInt(1) == 1;
+    }
+    
+    private int getPostHeaderLength(int type, int defaultLength){
+        
+        if(postHeaderLengths == null || type > postHeaderLengths.length){
+            
+            return defaultLength;
+        }
+        return postHeaderLengths[type - 1] & 0xff;
+    }
+    
+    private BinlogEvent readQuery(BinlogBuffer body){
+        
+        int postHeaderLength = getPostHeaderLength(QUERY_EVENT, 13);
+        body.skip(8);
+        int schemaLength = body.readInt(1);
+        body.skip(2);
+        int statusLength = body.readInt(2);
+        body.skip(postHeaderLength - 13);
+        body.skip(statusLength);
+        body.skip(schemaLength + 1);
+        
+        String query = body.readString(body.remaining()).trim();
+        
+        if(query.equalsIgnoreCase("BEGIN")){
+            
+            return null;
+        }
+        
+        if(query.equalsIgnoreCase("COMMIT")){
+            
+            return BinlogEvent.commit(getPosition());
+        }
+        
+        return BinlogEvent.ddl(query, getPosition());
+    }
+    
+    private long readTableId(BinlogBuffer body, int type){
+        
+        return getPostHeaderLength(type, 8) == 6 ? body.readLong(4) 
+                                                 : body.readLong(6);
+    }
+    
+    private void readTableMap(BinlogBuffer body) throws IOException{
+        
+        long tableId = readTableId(body, TABLE_MAP_EVENT);
+        body.skip(2);
+        
+        String schema = body.readString(body.readInt(1));
+        body.skip(1);
+        String name = body.readString(body.readInt(1));
+        body.skip(1);
+        
+        int columnCount = (int)body.readLengthEncoded();
+        int[] types = new int[columnCount];
+        for(int i = 0; i < columnCount; i++){
+            
+            types[i] = body.readInt(1);
+        }
+        
+        int metadataEnd = (int)body.readLengthEncoded();
+        metadataEnd += body.getOffset();
+        int[] metadata = new int[columnCount];
+        for(int i = 0; i < columnCount; i++){
+            
+            metadata[i] = readColumnMetadata(body, types[i]);
+        }
+        body.skip(metadataEnd - body.getOffset());
+        body.skip((columnCount + 7) / 8);
+        
+        BinlogTable table = new BinlogTable(schema, name, types, metadata);
+        readOptionalMetadata(body, table);
+        columnResolver.resolve(table);
+        
+        tables.put(tableId, table);
+    }
+    
+    private static int readColumnMetadata(BinlogBuffer body, int type){
+        
+        switch(type){
+            
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+            case TYPE_BLOB:
+            case TYPE_TINY_BLOB:
+            case TYPE_MEDIUM_BLOB:
+            case TYPE_LONG_BLOB:
+            case TYPE_GEOMETRY:
+            case TYPE_JSON:
+            case TYPE_TIMESTAMP2:
+            case TYPE_DATETIME2:
+            case TYPE_TIME2:
+                return body.readInt(1);
+                
+            case TYPE_VARCHAR:
+            case TYPE_VAR_STRING:
+                return body.readInt(2);
+                
+            case TYPE_BIT:
+            case TYPE_NEWDECIMAL:
+            case TYPE_STRING:
+            case TYPE_ENUM:
+            case TYPE_SET:
+                int high = body.readInt(1);
+                return (high << 8) | body.readInt(1);
+                
+            default:
+                return 0;
+        }
+    }
+    
+    private static void readOptionalMetadata(BinlogBuffer body, BinlogTable table){
+        
+        boolean[] unsigned = new boolean[table.getColumnCount()];
+        String[] columnNames = null;
+        
+        while(body.remaining() > 0){
+            
+            int type = body.readInt(1);
+            int length = (int)body.readLengthEncoded();
+            BinlogBuffer value = body.slice(length);
+            
+            if(type == METADATA_SIGNEDNESS){
+                
+                byte[] bits = value.readBytes(length);
+                int numeric = 0;
+                for(int i = 0; i < table.getColumnCount(); i++){
+                    
+                    if(isNumeric(table.getType(i))){
+                        
+                        unsigned[i] = (bits[numeric / 8] & (0x80 >> (numeric % 8))) != 0;
+                        numeric++;
+                    }
+                }
+            }
+            
+            else if(type == METADATA_COLUMN_NAME){
+                
+                columnNames = new String[table.getColumnCount()];
+                for(int i = 0; i < columnNames.length; i++){
+                    
+                    columnNames[i] = value.readString((int)value.readLengthEncoded());
+                }
+            }
+        }
+        
+        if(columnNames != null){
+            
+            table.setColumns(columnNames, unsigned);
+        }
+    }
+    
+    private static boolean isNumeric(int type){
+        
+        switch(type){
+            
+            case TYPE_TINY:
+            case TYPE_SHORT:
+            case TYPE_INT24:
+            case TYPE_LONG:
+            case TYPE_LONGLONG:
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+            case TYPE_DECIMAL:
+            case TYPE_NEWDECIMAL:
+                return true;
+                
+            default:
+                return false;
+        }
+    }
+    
+    private BinlogEvent readRows(BinlogEvent.Kind kind, BinlogBuffer body, 
+                                    boolean version2) throws IOException{
+        
+        int type = version2 ? WRITE_ROWS_EVENT : WRITE_ROWS_EVENT_V1;
+        long tableId = readTableId(body, type);
+        body.skip(2);
+        if(version2){
+            
+            body.skip(body.readInt(2) - 2);
+        }
+        
+        BinlogTable table = tables.get(tableId);
+        if(table == null){
+            
+            throw new IOException("Rows event without table map at " + getPosition());
+        }
+        
+        if(table.isIgnored()){
+            
+            return null;
+        }
+        
+        int columnCount = (int)body.readLengthEncoded();
+        BitSet beforeColumns = null;
+        BitSet afterColumns = null;
+        
+        if(kind == BinlogEvent.Kind.UPDATE){
+            
+            beforeColumns = body.readBitmap(columnCount);
+            afterColumns = body.readBitmap(columnCount);
+        }
+        else if(kind == BinlogEvent.Kind.DELETE){
+            
+            beforeColumns = body.readBitmap(columnCount);
+        }
+        else{
+            
+            afterColumns = body.readBitmap(columnCount);
+        }
+        
+        List<Object[]> rows = new ArrayList<>();
+        while(body.remaining() > 0){
+            
+            if(beforeColumns != null){
+                
+                rows.add(readRow(body, table, beforeColumns));
+            }
+            if(afterColumns != null){
+                
+                rows.add(readRow(body, table, afterColumns));
+            }
+        }
+        
+        return BinlogEvent.rows(kind, table, rows, beforeColumns, afterColumns, 
+                                                                getPosition());
+    }
+    
+    private Object[] readRow(BinlogBuffer body, BinlogTable table, 
+                                        BitSet columns) throws IOException{
+        
+        Object[] row = new Object[table.getColumnCount()];
+        BitSet nulls = body.readBitmap(columns.cardinality());
+        
+        int present = 0;
+        for(int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)){
+            
+            if(!nulls.get(present++)){
+                
+                row[i] = readValue(body, table, i);
+            }
+        }
+        
+        return row;
+    }
+    
+    private Object readValue(BinlogBuffer body, BinlogTable table, int column) 
+                                                            throws IOException{
+        
+        int type = table.getType(column);
+        int metadata = table.getMetadata(column);
+        boolean unsigned = table.isUnsigned(column);
+        
+        if(type == TYPE_STRING){
+            
+            int realType = metadata >> 8;
+            int length = metadata & 0xff;
+            if((realType & 0x30) != 0x30){
+                
+                length |= ((realType & 0x30) ^ 0x30) << 4;
+                realType |= 0x30;
+            }
+            
+            if(realType == TYPE_ENUM || realType == TYPE_SET){
+                
+                return body.readLong(length);
+            }
+            
+            return body.readBytes(body.readInt(length < 256 ? 1 : 2));
+        }
+        
+        switch(type){
+            
+            case TYPE_TINY:
+                return readInteger(body, 1, unsigned);
+                
+            case TYPE_SHORT:
+                return readInteger(body, 2, unsigned);
+                
+            case TYPE_INT24:
+                return readInteger(body, 3, unsigned);
+                
+            case TYPE_LONG:
+                return readInteger(body, 4, unsigned);
+                
+            case TYPE_LONGLONG:
+                long value = body.readLong(8);
+                if(unsigned && value < 0){
+                    
+                    return new BigInteger(Long.toUnsignedString(value));
+                }
+                return value;
+                
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(body.readInt(4));
+                
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(body.readLong(8));
+                
+            case TYPE_NEWDECIMAL:
+                return readDecimal(body, metadata >> 8, metadata & 0xff);
+                
+            case TYPE_YEAR:
+                int year = body.readInt(1);
+                return year == 0 ? 0 : 1900 + year;
+                
+            case TYPE_DATE:
+                int date = body.readInt(3);
+                return formatDateTime(date >> 9, (date >> 5) & 15, date & 31, 
+                                                        -1, 0, 0, 0, 0);
+                
+            case TYPE_TIME:
+                int time = body.readInt(3);
+                return String.format("%02d:%02d:%02d", time / 10000, 
+                                                (time / 100) % 100, time % 100);
+                
+            case TYPE_DATETIME:
+                long datetime = body.readLong(8);
+                long ymd = datetime / 1000000;
+                long hms = datetime % 1000000;
+                return formatDateTime((int)(ymd / 10000), (int)(ymd / 100 % 100), 
+                                (int)(ymd % 100), (int)(hms / 10000), 
+                                (int)(hms / 100 % 100), (int)(hms % 100), 0, 0);
+                
+            case TYPE_TIMESTAMP:
+                return readTimestamp(body.readLong(4), 0);
+                
+            case TYPE_TIMESTAMP2:
+                long seconds = body.readBigEndian(4);
+                return readTimestamp(seconds, readFraction(body, metadata));
+                
+            case TYPE_DATETIME2:
+                return readDatetime2(body, metadata);
+                
+            case TYPE_TIME2:
+                return readTime2(body, metadata);
+                
+            case TYPE_BIT:
+                // the metadata holds the leftover bits, then the whole bytes
+                return body.readBytes((metadata & 0xff) + ((metadata >> 8) > 0 ? 1 : 0));
+                
+            case TYPE_ENUM:
+            case TYPE_SET:
+                return body.readLong(metadata & 0xff);
+                
+            case TYPE_VARCHAR:
+            case TYPE_VAR_STRING:
+                return body.readBytes(body.readInt(metadata < 256 ? 1 : 2));
+                
+            case TYPE_BLOB:
+            case TYPE_TINY_BLOB:
+            case TYPE_MEDIUM_BLOB:
+            case TYPE_LONG_BLOB:
+            case TYPE_GEOMETRY:
+                return body.readBytes((int)body.readLong(metadata));
+                
+            case TYPE_NULL:
+                return null;
+                
+            default:
+                throw new IOException("Column type " + type + " of " + table + 
+                                            " cannot be replayed from the binlog");
+        }
+    }
+    
+    private static long readInteger(BinlogBuffer body, int length, boolean unsigned){
+        
+        long value = body.readLong(length);
+        if(!unsigned){
+            
+            int shift = 64 - length * 8;
+            value = (value << shift) >> shift;
+        }
+        return value;
+    }
+    
+    /**
+     * Reads the fractional seconds of a temporal value.
+     * @return the fraction in microseconds
+     */
+    private static int readFraction(BinlogBuffer body, int precision){
+        
+        switch(precision){
+            
+            case 1:
+            case 2:
+                return (int)body.readBigEndian(1) * 10000;
+                
+            case 3:
+            case 4:
+                return (int)body.readBigEndian(2) * 100;
+                
+            case 5:
+            case 6:
+                return (int)body.readBigEndian(3);
+                
+            default:
+                return 0;
+        }
+    }
+    
+    private static Object readTimestamp(long seconds, int micros){
+        
+        if(seconds == 0 && micros == 0){
+            
+            return "0000-00-00 00:00:00";
+        }
+        
+        Timestamp timestamp = new Timestamp(seconds * 1000);
+        timestamp.setNanos(micros * 1000);
+        return timestamp;
+    }
+    
+    private static String readDatetime2(BinlogBuffer body, int precision){
+        
+        long packed = body.readBigEndian(5) - 0x8000000000L;
+        int micros = readFraction(body, precision);
+        
+        long yearMonth = (packed >> 22) & 0x1ffff;
+        return formatDateTime((int)(yearMonth / 13), (int)(yearMonth % 13), 
+                        (int)((packed >> 17) & 31), (int)((packed >> 12) & 31), 
+                        (int)((packed >> 6) & 63), (int)(packed & 63), 
+                        micros, precision);
+    }
+    
+    private static String readTime2(BinlogBuffer body, int precision){
+        
+        long packed;
+        if(precision >= 5){
+            
+            packed = body.readBigEndian(6) - 0x800000000000L;
+        }
+        else{
+            
+            long seconds = body.readBigEndian(3) - 0x800000L;
+            long fraction = 0;
+            if(precision >= 1){
+                
+                int fractionBytes = (precision + 1) / 2;
+                fraction = body.readBigEndian(fractionBytes);
+                if(seconds < 0 && fraction != 0){
+                    
+                    seconds++;
+                    fraction -= 1L << (8 * fractionBytes);
+                }
+                fraction *= fractionBytes == 1 ? 10000 : 100;
+            }
+            packed = (seconds << 24) + fraction;
+        }
+        
+        String sign = "";
+        if(packed < 0){
+            
+            sign = "-";
+            packed = -packed;
+        }
+        
+        long hms = packed >> 24;
+        String time = String.format("%s%02d:%02d:%02d", sign, (hms >> 12) % 1024, 
+                                                (hms >> 6) % 64, hms % 64);
+        if(precision > 0){
+            
+            time += "." + String.format("%06d", packed % (1 << 24))
+                                                    .substring(0, precision);
+        }
+        return time;
+    }
+    
+    private static String formatDateTime(int year, int month, int day, int hour, 
+                            int minute, int second, int micros, int precision){
+        
+        String date = String.format("%04d-%02d-%02d", year, month, day);
+        if(hour < 0){
+            
+            return date;
+        }
+        
+        String datetime = date + String.format(" %02d:%02d:%02d", hour, minute, second);
+        if(precision > 0){
+            
+            datetime += "." + String.format("%06d", micros).substring(0, precision);
+        }
+        return datetime;
+    }
+    
+    /**
+     * Reads a value in MySQL's binary DECIMAL format, in which every nine 
+     * decimal digits take four bytes and the sign is stored by inverting 
+     * all bits.
+     */
+    private static BigDecimal readDecimal(BinlogBuffer body, int precision, 
+                                                                    int scale){
+        
+        int integerDigits = precision - scale;
+        int integerWords = integerDigits / 9;
+        int integerRest = integerDigits % 9;
+        int fractionWords = scale / 9;
+        int fractionRest = scale % 9;
+        int size = integerWords * 4 + DIGITS_TO_BYTES[integerRest] + 
+                            fractionWords * 4 + DIGITS_TO_BYTES[fractionRest];
+        
+        byte[] bytes = body.readBytes(size);
+        boolean positive = (bytes[0] & 0x80) != 0;
+        bytes[0] ^= 0x80;
+        if(!positive){
+            
+            for(int i = 0; i < bytes.length; i++){
+                
+                bytes[i] ^= 0xff;
+            }
+        }
+        
+        BinlogBuffer digits = new BinlogBuffer(bytes, 0, bytes.length);
+        StringBuilder value = new StringBuilder(positive ? "" : "-");
+        
+        value.append(readDigits(digits, integerRest));
+        for(int i = 0; i < integerWords; i++){
+            
+            value.append(readDigits(digits, 9));
+        }
+        if(integerDigits == 0){
+            
+            value.append('0');
+        }
+        
+        if(scale > 0){
+            
+            value.append('.');
+            for(int i = 0; i < fractionWords; i++){
+                
+                value.append(readDigits(digits, 9));
+            }
+            value.append(readDigits(digits, fractionRest));
+        }
+        
+        return new BigDecimal(value.toString());
+    }
+    
+    private static String readDigits(BinlogBuffer digits, int count){
+        
+        if(count == 0){
+            
+            return "";
+        }
+        
+        long value = digits.readBigEndian(count == 9 ? 4 : DIGITS_TO_BYTES[count]);
+        String text = Long.toString(value);
+        while(text.length() < count){
+            
+            text = "0" + text;
+        }
+        return text;
+    }
+    
+    private static boolean isAtLeast(String version, int major, int minor, 
+                                                                int patch){
+        
+        String[] parts = version.split("[^0-9]+");
+        int[] numbers = new int[3];
+        for(int i = 0; i < 3 && i < parts.length; i++){
+            
+            numbers[i] = parts[i].isEmpty() ? 0 : Integer.parseInt(parts[i]);
+        }
+        
+        if(numbers[0] != major){
+            
+            return numbers[0] > major;
+        }
+        if(numbers[1] != minor){
+            
+            return numbers[1] > minor;
+        }
+        return numbers[2] >= patch;
+    }
+    
+    /**
+     * A view of a part of an event, read from front to back.
+     * Integers are stored little endian unless read with 
+     * {@link #readBigEndian(int)}.
+     */
+    private static class BinlogBuffer {
+        
+        private final byte[] data;
+        private int offset;
+        private final int end;
+        
+        BinlogBuffer(byte[] data, int offset, int end){
+            
+            this.data = data;
+            this.offset = offset;
+            this.end = end;
+        }
+        
+        int getOffset(){
+            
+            return offset;
+        }
+        
+        int remaining(){
+            
+            return end - offset;
+        }
+        
+        void skip(int length){
+            
+            offset += length;
+        }
+        
+        int readInt(int length){
+            
+            return (int)readLong(length);
+        }
+        
+        long readLong(int length){
+            
+            long value = 0;
+            for(int i = 0; i < length; i++){
+                
+                value |= (data[offset + i] & 0xffL) << (8 * i);
+            }
+            offset += length;
+            return value;
+        }
+        
+        long readBigEndian(int length){
+            
+            long value = 0;
+            for(int i = 0; i < length; i++){
+                
+                value = (value << 8) | (data[offset + i] & 0xffL);
+            }
+            offset += length;
+            return value;
+        }
+        
+        long readLengthEncoded(){
+            
+            int first = readInt(1);
+            switch(first){
+                
+                case 0xfc:
+                    return readLong(2);
+                    
+                case 0xfd:
+                    return readLong(3);
+                    
+                case 0xfe:
+                    return readLong(8);
+                    
+                default:
+                    return first;
+            }
+        }
+        
+        byte[] readBytes(int length){
+            
+            byte[] bytes = Arrays.copyOfRange(data, offset, offset + length);
+            offset += length;
+            return bytes;
+        }
+        
+        String readString(int length){
+            
+            int stringEnd = offset;
+            while(stringEnd < offset + length && data[stringEnd] != 0){
+                
+                stringEnd++;
+            }
+            String value = new String(data, offset, stringEnd - offset, 
+                                                    StandardCharsets.UTF_8);
+            offset += length;
+            return value;
+        }
+        
+        BitSet readBitmap(int bits){
+            
+            return BitSet.valueOf(readBytes((bits + 7) / 8));
+        }
+        
+        BinlogBuffer slice(int length){
+            
+            BinlogBuffer slice = new BinlogBuffer(data, offset, offset + length);
+            offset += length;
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the binary log of the server database on the client database 
+ * for a binlog sync, keeping the binlog position reached in the watermark 
+ * store.
+ * @author Arvind Sasikumar
+ */
+class BinlogReplayer {
+    
+    private static final long BINLOG_POLL_INTERVAL = 200;
+    private static final long BINLOG_SAVE_INTERVAL = 1000;
+    private static final long BINLOG_RETRY_INTERVAL = 5000;
+    
+    private final DBSynchronizer synchronizer;
+    
+    private final ConnectionPool serverPool;
+    private final ConnectionPool clientPool;
+    
+    private final DBMap dbMap;
+    
+    private final File binlogDirectory;
+    private final String binlogSchema;
+    private final BinlogPosition binlogStart;
+    private final BinlogFetcher binlogFetcher;
+    
+    private final Map<String, BinlogTable> binlogColumns;
+    
+    /**
+     * Creates a new binlog replayer.
+     * @param synchronizer the synchronizer the binlog is replayed for, which 
+     * holds the watermark store and tells when to stop
+     * @param serverPool connections to the server database
+     * @param clientPool connections to the client database
+     * @param dbMap database map
+     * @param binlogDirectory directory holding the binlog files
+     * @param binlogSchema name of the server database
+     * @param binlogStart position to start from when the watermark store 
+     * holds none
+     * @param binlogFetcher streams the binlog files into the directory, null 
+     * if they are copied there by other means
+     */
+    BinlogReplayer(DBSynchronizer synchronizer, ConnectionPool serverPool, 
+                ConnectionPool clientPool, DBMap dbMap, File binlogDirectory, 
+                String binlogSchema, BinlogPosition binlogStart, 
+                BinlogFetcher binlogFetcher){
+        
+        this.synchronizer = synchronizer;
+        this.serverPool = serverPool;
+        this.clientPool = clientPool;
+        this.dbMap = dbMap;
+        this.binlogDirectory = binlogDirectory;
+        this.binlogSchema = binlogSchema;
+        this.binlogStart = binlogStart;
+        this.binlogFetcher = binlogFetcher;
+        
+        binlogColumns = new HashMap<>();
+    }
+    
+    /**
+     * Replays the binary log until the synchronization is stopped.
+     * Whenever replaying fails, e.g. because the client connection was lost, 
+     * it is resumed from the last committed binlog position after a pause.
+     */
+    void binlogSync(){
+        
+        System.out.println("Binlog sync initiated...");
+        
+        WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        if(watermarkStore.getBinlogPosition() == null && binlogStart == null){
+            
+            System.out.println("No binlog position to start from.");
+            return;
+        }
+        
+        while(synchronizer.isRunning() && 
+                                    !Thread.currentThread().isInterrupted()){
+            
+            try{
+                
+                replayBinlog();
+            }
+            
+            catch(Exception e){
+                
+                e.printStackTrace();
+                System.out.println("Binlog sync failed, resuming in " + 
+                                (BINLOG_RETRY_INTERVAL / 1000) + " seconds...");
+                
+                try{
+                    
+                    Thread.sleep(BINLOG_RETRY_INTERVAL);
+                }
+                
+                catch(InterruptedException ie){
+                    
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        
+        System.out.println("Binlog sync stopped at " + 
+                                        watermarkStore.getBinlogPosition());
+    }
+    
+    /**
+     * Replays the binary log from the last committed binlog position, 
+     * committing on the client database at the end of every server 
+     * transaction.
+     * @throws IOException if the binlog could not be read
+     * @throws SQLException if the changes could not be applied
+     */
+    private void replayBinlog() throws IOException, SQLException{
+        
+        WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        BinlogPosition start = watermarkStore.getBinlogPosition();
+        if(start == null){
+            
+            start = binlogStart;
+        }
+        System.out.println("Replaying binlog from " + start + "...");
+        
+        Connection clientConnection = clientPool.borrow();
+        BinlogApplier binlogApplier = null;
+        BinlogReader binlogReader = null;
+        
+        try{
+            
+            if(binlogFetcher != null){
+                
+                binlogFetcher.start(start.getFileName());
+            }
+            
+            final BinlogApplier applier = new BinlogApplier(clientConnection, 
+                                                        dbMap, binlogSchema);
+            binlogApplier = applier;
+            binlogReader = new BinlogReader(binlogDirectory, start, 
+                                        new BinlogReader.ColumnResolver() {
+                @Override
+                public void resolve(BinlogTable table) throws IOException {
+                    resolveColumns(table, applier);
+                }
+            });
+            
+            long lastSave = System.nanoTime();
+            long transactions = 0;
+            
+            while(synchronizer.isRunning()){
+                
+                BinlogEvent event = binlogReader.next();
+                if(event == null){
+                    
+                    if(binlogFetcher != null){
+                        
+                        binlogFetcher.check();
+                    }
+                    Thread.sleep(BINLOG_POLL_INTERVAL);
+                    continue;
+                }
+                
+                switch(event.getKind()){
+                    
+                    case COMMIT:
+                        applier.commit();
+                        transactions++;
+                        watermarkStore.putBinlogPosition(event.getPosition());
+                        break;
+                        
+                    case DDL:
+                        applier.commit();
+                        binlogColumns.clear();
+                        watermarkStore.putBinlogPosition(event.getPosition());
+                        System.out.println("Schema change in binlog: " + 
+                                                            event.getQuery());
+                        break;
+                        
+                    default:
+                        applier.apply(event);
+                        break;
+                }
+                
+                if(System.nanoTime() - lastSave > BINLOG_SAVE_INTERVAL * 1000000){
+                    
+                    watermarkStore.save();
+                    lastSave = System.nanoTime();
+                    System.out.println("Replayed " + transactions + 
+                            " transactions (" + applier.getAppliedRows() + 
+                            " rows) up to " + watermarkStore.getBinlogPosition());
+                }
+            }
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+        }
+        
+        finally{
+            
+            if(binlogApplier != null){
+                
+                binlogApplier.rollback();
+                binlogApplier.close();
+            }
+            if(binlogReader != null){
+                
+                binlogReader.close();
+            }
+            if(binlogFetcher != null){
+                
+                binlogFetcher.stop();
+            }
+            clientPool.release(clientConnection);
+            watermarkStore.save();
+        }
+    }
+    
+    /**
+     * Marks the tables of the binary log that are not synchronized, and looks 
+     * up the column names of the others in the server database when the 
+     * binlog does not carry them.
+     * The server database describes the tables as they are now, so replaying 
+     * from before a change to the layout of a table is not supported.
+     * @param table the table to resolve
+     * @param applier the applier that tells whether a table is synchronized
+     * @throws IOException if the columns could not be looked up
+     */
+    private void resolveColumns(BinlogTable table, BinlogApplier applier) 
+                                                            throws IOException{
+        
+        if(applier.getTableMap(table) == null){
+            
+            table.setIgnored(true);
+            return;
+        }
+        
+        if(table.getColumnNames() != null){
+            
+            return;
+        }
+        
+        BinlogTable known = binlogColumns.get(table.toString());
+        if(known == null || known.getColumnCount() != table.getColumnCount()){
+            
+            List<String> columnNames = new ArrayList<>();
+            List<Boolean> unsigned = new ArrayList<>();
+            
+            try{
+                
+                Connection serverConnection = serverPool.borrow();
+                try{
+                    
+                    PreparedStatement columnStatement = 
+                            InformationSchema.prepareTableQuery(serverConnection, 
+                                "column_name, column_type", "columns", 
+                                table.getSchema() + "." + table.getName(), 
+                                " order by ordinal_position");
+                    ResultSet rs = columnStatement.executeQuery();
+                    while(rs.next()){
+                        
+                        columnNames.add(rs.getString(1));
+                        unsigned.add(rs.getString(2).toLowerCase().contains("unsigned"));
+                    }
+                    rs.close();
+                    columnStatement.close();
+                }
+                
+                finally{
+                    
+                    serverPool.release(serverConnection);
+                }
+            }
+            
+            catch(SQLException e){
+                
+                throw new IOException("Could not look up the columns of " + table, e);
+            }
+            
+            if(columnNames.size() != table.getColumnCount()){
+                
+                throw new IOException("The columns of " + table + 
+                        " in the server database do not match the binlog");
+            }
+            
+            boolean[] unsignedColumns = new boolean[unsigned.size()];
+            for(int i = 0; i < unsignedColumns.length; i++){
+                
+                unsignedColumns[i] = unsigned.get(i);
+            }
+            table.setColumns(columnNames.toArray(new String[0]), unsignedColumns);
+            binlogColumns.put(table.toString(), table);
+            return;
+        }
+        
+        boolean[] unsignedColumns = new boolean[known.getColumnCount()];
+        for(int i = 0; i < unsignedColumns.length; i++){
+            
+            unsignedColumns[i] = known.isUnsigned(i);
+        }
+        table.setColumns(known.getColumnNames(), unsignedColumns);
+    }
+    
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+/**
+ * Layout of a table as described by a table map event of the binary log.
+ * Binlog events only carry the types of the columns; their names, and 
+ * whether integer columns are unsigned, come from the optional metadata of 
+ * the event when the server logs it (binlog_row_metadata=FULL), and are 
+ * looked up in the server database otherwise.
+ * @author Arvind Sasikumar
+ */
+class BinlogTable {
+    
+    private final String schema;
+    private final String name;
+    
+    private final int[] types;
+    private final int[] metadata;
+    
+    private String[] columnNames;
+    private boolean[] unsigned;
+    
+    private boolean ignored;
+    
+    BinlogTable(String schema, String name, int[] types, int[] metadata){
+        
+        this.schema = schema;
+        this.name = name;
+        this.types = types;
+        this.metadata = metadata;
+        this.unsigned = new boolean[types.length];
+    }
+    
+    String getSchema(){
+        
+        return schema;
+    }
+    
+    String getName(){
+        
+        return name;
+    }
+    
+    int getColumnCount(){
+        
+        return types.length;
+    }
+    
+    int getType(int column){
+        
+        return types[column];
+    }
+    
+    int getMetadata(int column){
+        
+        return metadata[column];
+    }
+    
+    /**
+     * Gets the names of the columns.
+     * @return the column names in table order, null if not known yet
+     */
+    String[] getColumnNames(){
+        
+        return columnNames;
+    }
+    
+    boolean isUnsigned(int column){
+        
+        return unsigned[column];
+    }
+    
+    /**
+     * Sets the names of the columns and the integer columns that are 
+     * unsigned.
+     * @param columnNames the column names in table order
+     * @param unsigned for each column, whether it is unsigned
+     */
+    void setColumns(String[] columnNames, boolean[] unsigned){
+        
+        this.columnNames = columnNames;
+        this.unsigned = unsigned;
+    }
+    
+    /**
+     * Gets whether the rows of this table are of no interest, in which case 
+     * they are skipped without being decoded.
+     * @return true if the rows of this table are skipped
+     */
+    boolean isIgnored(){
+        
+        return ignored;
+    }
+    
+    void setIgnored(boolean ignored){
+        
+        this.ignored = ignored;
+    }
+    
+    @Override
+    public String toString(){
+        
+        return schema + "." + name;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Captures the changes made to the source tables through triggers that log 
+ * the key of every inserted, updated and deleted record into a changelog 
+ * table in the server database.
+ * Every record of the changelog holds an increasing sequence number, the 
+ * source table, the key of the record and the operation: 'I' for insert, 
+ * 'U' for update and 'D' for delete. An update that changes the key is 
+ * logged as a delete of the old key followed by an update of the new one. 
+ * Only tables with a key attribute can be captured, as the changed records 
+ * are fetched again by their key.
+ * @author Arvind Sasikumar
+ */
+class ChangelogCapture {
+    
+    static final String DEFAULT_TABLE = "dbsync_changelog";
+    
+    private static final String[][] TRIGGERS = {
+        {"ins", "insert"}, {"upd", "update"}, {"del", "delete"}
+    };
+    
+    private final String changelogTable;
+    
+    /**
+     * Creates a new capture.
+     * @param changelogTable name of the changelog table in the server 
+     * database
+     */
+    ChangelogCapture(String changelogTable){
+        
+        this.changelogTable = changelogTable;
+    }
+    
+    String getChangelogTable(){
+        
+        return changelogTable;
+    }
+    
+    /**
+     * Creates the changelog table and the triggers of every table of the 
+     * database map, unless they exist already.
+     * Existing triggers are left alone rather than replaced, so that no 
+     * change is missed while installing again. The server database user 
+     * needs the CREATE and TRIGGER privileges.
+     * @param serverConnection connection to the server database
+     * @param dbMap the tables to capture
+     * @throws SQLException if a table has no key attribute, or the table or 
+     * the triggers could not be created
+     */
+    void install(Connection serverConnection, DBMap dbMap) throws SQLException{
+        
+        Statement serverStatement = serverConnection.createStatement();
+        try{
+            
+            serverStatement.executeUpdate("create table if not exists " + 
+                    changelogTable + " (" + 
+                    "seq bigint unsigned not null auto_increment primary key, " + 
+                    "table_name varchar(128) not null, " + 
+                    "pk varchar(255) not null, " + 
+                    "op char(1) not null)");
+            
+            Set<String> existing = new HashSet<>();
+            ResultSet rs = serverStatement.executeQuery("select trigger_name " + 
+                        "from information_schema.triggers where trigger_schema = database()");
+            while(rs.next()){
+                
+                existing.add(rs.getString(1).toLowerCase());
+            }
+            rs.close();
+            
+            for(TableMap tableMap : dbMap.getTableMap()){
+                
+                if(tableMap.getSourceKeyAttribute() == null){
+                    
+                    throw new SQLException("Changes to " + tableMap.getSourceTable() + 
+                            " cannot be captured, it has no key attribute");
+                }
+                
+                for(String[] trigger : TRIGGERS){
+                    
+                    String triggerName = getTriggerName(tableMap, trigger[0]);
+                    if(existing.contains(triggerName.toLowerCase())){
+                        
+                        continue;
+                    }
+                    
+                    serverStatement.executeUpdate("create trigger " + triggerName + 
+                            " after " + trigger[1] + " on " + 
+                            tableMap.getSourceTable() + " for each row " + 
+                            generateTriggerBody(tableMap, trigger[1]));
+                    System.out.println("Created trigger " + triggerName);
+                }
+            }
+        }
+        
+        finally{
+            
+            serverStatement.close();
+        }
+    }
+    
+    /**
+     * Drops the triggers of every table of the database map and the 
+     * changelog table.
+     * @param serverConnection connection to the server database
+     * @param dbMap the tables that were captured
+     * @throws SQLException if the triggers or the table could not be dropped
+     */
+    void remove(Connection serverConnection, DBMap dbMap) throws SQLException{
+        
+        Statement serverStatement = serverConnection.createStatement();
+        try{
+            
+            for(TableMap tableMap : dbMap.getTableMap()){
+                
+                for(String[] trigger : TRIGGERS){
+                    
+                    serverStatement.executeUpdate("drop trigger if exists " + 
+                                        getTriggerName(tableMap, trigger[0]));
+                }
+            }
+            serverStatement.executeUpdate("drop table if exists " + changelogTable);
+        }
+        
+        finally{
+            
+            serverStatement.close();
+        }
+    }
+    
+    private String getTriggerName(TableMap tableMap, String suffix){
+        
+        return changelogTable + "_" + 
+                tableMap.getSourceTable().replace('.', '_') + "_" + suffix;
+    }
+    
+    private String generateTriggerBody(TableMap tableMap, String operation){
+        
+        String keyAttribute = tableMap.getSourceKeyAttribute();
+        
+        if(operation.equals("insert")){
+            
+            return generateLogStatement(tableMap, "new." + keyAttribute, 'I');
+        }
+        
+        if(operation.equals("delete")){
+            
+            return generateLogStatement(tableMap, "old." + keyAttribute, 'D');
+        }
+        
+        return "begin if not (old." + keyAttribute + " <=> new." + keyAttribute + 
+                ") then " + generateLogStatement(tableMap, "old." + keyAttribute, 'D') + 
+                "; end if; " + 
+                generateLogStatement(tableMap, "new." + keyAttribute, 'U') + "; end";
+    }
+    
+    private String generateLogStatement(TableMap tableMap, String key, char op){
+        
+        return "insert into " + changelogTable + " (table_name, pk, op) values ('" + 
+                    tableMap.getSourceTable() + "', " + key + ", '" + op + "')";
+    }
+    
+    /**
+     * Reads the changelog records following a sequence number, in sequence 
+     * order.
+     * @param serverConnection connection to the server database
+     * @param afterSequence sequence number of the last applied record
+     * @param limit maximum number of records to read
+     * @return the records read, empty if there are none
+     * @throws SQLException if the changelog could not be read
+     */
+    List<Change> read(Connection serverConnection, long afterSequence, int limit) 
+                                                        throws SQLException{
+        
+        List<Change> changes = new ArrayList<>();
+        
+        PreparedStatement readStatement = serverConnection.prepareStatement(
+                "select seq, table_name, pk, op from " + changelogTable + 
+                " where seq > ? order by seq limit " + limit);
+        try{
+            
+            readStatement.setLong(1, afterSequence);
+            ResultSet rs = readStatement.executeQuery();
+            while(rs.next()){
+                
+                changes.add(new Change(rs.getLong(1), rs.getString(2), 
+                                        rs.getString(3), rs.getString(4).charAt(0)));
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            readStatement.close();
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * Reads the changelog records up to a sequence number, in sequence order.
+     * Applied records are pruned, so these are records committed after 
+     * records with higher sequence numbers had already been applied, or 
+     * applied records whose pruning was cut short.
+     * @param serverConnection connection to the server database
+     * @param upToSequence sequence number of the last applied record
+     * @param limit maximum number of records to read
+     * @return the records read, empty if there are none
+     * @throws SQLException if the changelog could not be read
+     */
+    List<Change> readLate(Connection serverConnection, long upToSequence, 
+                                            int limit) throws SQLException{
+        
+        List<Change> changes = new ArrayList<>();
+        
+        PreparedStatement readStatement = serverConnection.prepareStatement(
+                "select seq, table_name, pk, op from " + changelogTable + 
+                " where seq <= ? order by seq limit " + limit);
+        try{
+            
+            readStatement.setLong(1, upToSequence);
+            ResultSet rs = readStatement.executeQuery();
+            while(rs.next()){
+                
+                changes.add(new Change(rs.getLong(1), rs.getString(2), 
+                                        rs.getString(3), rs.getString(4).charAt(0)));
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            readStatement.close();
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * Deletes the changelog records in a range of sequence numbers, a 
+     * limited number of records at a time so that the triggers writing to 
+     * the changelog are not blocked for long.
+     * Only pass ranges in which every record has been read and applied: a 
+     * missing sequence number may still be committed later.
+     * @param serverConnection connection to the server database
+     * @param fromSequence sequence number of the first record to delete
+     * @param toSequence sequence number of the last record to delete
+     * @param batchSize maximum number of records deleted per statement
+     * @return number of records deleted
+     * @throws SQLException if the records could not be deleted
+     */
+    long prune(Connection serverConnection, long fromSequence, long toSequence, 
+                                        int batchSize) throws SQLException{
+        
+        long pruned = 0;
+        
+        PreparedStatement pruneStatement = serverConnection.prepareStatement(
+                "delete from " + changelogTable + 
+                " where seq between ? and ? order by seq limit " + batchSize);
+        try{
+            
+            pruneStatement.setLong(1, fromSequence);
+            pruneStatement.setLong(2, toSequence);
+            int deleted;
+            do{
+                
+                deleted = pruneStatement.executeUpdate();
+                pruned += deleted;
+            }
+            while(deleted == batchSize);
+        }
+        
+        finally{
+            
+            pruneStatement.close();
+        }
+        
+        return pruned;
+    }
+    
+    /**
+     * A record of the changelog.
+     */
+    static class Change {
+        
+        private final long sequence;
+        private final String table;
+        private final String key;
+        private final char op;
+        
+        Change(long sequence, String table, String key, char op){
+            
+            this.sequence = sequence;
+            this.table = table;
+            this.key = key;
+            this.op = op;
+        }
+        
+        long getSequence(){
+            
+            return sequence;
+        }
+        
+        String getTable(){
+            
+            return table;
+        }
+        
+        String getKey(){
+            
+            return key;
+        }
+        
+        boolean isDelete(){
+            
+            return op == 'D';
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the changelog filled by the triggers on the server database for a 
+ * changelog sync, keeping the sequence number applied in the watermark 
+ * store.
+ * @author Arvind Sasikumar
+ */
+class ChangelogTailer {
+    
+    private static final int CHANGELOG_READ_LIMIT = 10000;
+    
+    private final DBSynchronizer synchronizer;
+    
+    private final DBMap dbMap;
+    
+    private final ScheduledExecutorService exec;
+    
+    private final ChangelogCapture changelogCapture;
+    private final long changelogInterval;
+    private final int changelogPruneSize;
+    private final long changelogGapTimeout;
+    
+    private long changelogGapSequence = -1;
+    private long changelogGapSince;
+    
+    /**
+     * Creates a new changelog tailer.
+     * @param synchronizer the synchronizer the changelog is tailed for, 
+     * which applies the changes and tells when to stop
+     * @param dbMap database map
+     * @param exec executor the changelog is read on
+     * @param changelogCapture the changelog and its triggers
+     * @param changelogInterval time in milliseconds between two reads of the 
+     * changelog
+     * @param changelogPruneSize maximum number of applied changelog records 
+     * deleted per statement
+     * @param changelogGapTimeout time in milliseconds after which a missing 
+     * changelog sequence number is skipped
+     */
+    ChangelogTailer(DBSynchronizer synchronizer, DBMap dbMap, 
+                ScheduledExecutorService exec, ChangelogCapture changelogCapture, 
+                long changelogInterval, int changelogPruneSize, 
+                long changelogGapTimeout){
+        
+        this.synchronizer = synchronizer;
+        this.dbMap = dbMap;
+        this.exec = exec;
+        this.changelogCapture = changelogCapture;
+        this.changelogInterval = changelogInterval;
+        this.changelogPruneSize = changelogPruneSize;
+        this.changelogGapTimeout = changelogGapTimeout;
+    }
+    
+    /**
+     * Installs the changelog triggers, unless they exist already, and reads 
+     * the changelog periodically until the synchronization is stopped.
+     */
+    void changelogSync(){
+        
+        System.out.println("Changelog sync initiated...");
+        
+        try{
+            
+            synchronizer.runOnPair(new DBSynchronizer.PairTask<Void>() {
+                @Override
+                public Void run(Connection serverConnection, 
+                        Connection clientConnection) throws SQLException {
+                    changelogCapture.install(serverConnection, dbMap);
+                    return null;
+                }
+            });
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+            return;
+        }
+        
+        exec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    
+                    synchronizer.runOnPair(new DBSynchronizer.PairTask<Void>() {
+                        @Override
+                        public Void run(Connection serverConnection, 
+                                Connection clientConnection) throws SQLException {
+                            applyChangelog(serverConnection, clientConnection);
+                            return null;
+                        }
+                    });
+                }
+                
+                catch(Exception e){
+                    
+                    e.printStackTrace();
+                }
+            }
+        }, 0, changelogInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Applies the changelog records following the last applied one, along 
+     * with any records committed late below it.
+     * The records are reduced to the set of touched keys per table; every 
+     * touched record is deleted from the destination table and, unless it 
+     * was deleted last, fetched again by its key from the source table and 
+     * inserted, all in one client transaction. This is safe to repeat, so 
+     * the sequence number of the last record is only saved once the 
+     * transaction has been committed, and the applied records are pruned 
+     * from the changelog after that. Only runs of consecutive sequence 
+     * numbers are pruned, so a record that commits into a skipped gap stays 
+     * in the changelog and is found by the next read of late records.
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @throws SQLException if the changes could not be applied
+     */
+    private void applyChangelog(Connection serverConnection, 
+                            Connection clientConnection) throws SQLException{
+        
+        if(!synchronizer.isRunning()){
+            
+            return;
+        }
+        
+        WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        long appliedSequence = watermarkStore.getChangelogSequence();
+        List<ChangelogCapture.Change> lateChanges = appliedSequence < 0 ? 
+                new ArrayList<ChangelogCapture.Change>() : 
+                changelogCapture.readLate(serverConnection, appliedSequence, 
+                                                        CHANGELOG_READ_LIMIT);
+        List<ChangelogCapture.Change> changes = changelogCapture.read(
+                serverConnection, Math.max(appliedSequence, 0), CHANGELOG_READ_LIMIT);
+        changes = holdBackUncommitted(changes, appliedSequence);
+        if(changes.isEmpty() && lateChanges.isEmpty()){
+            
+            return;
+        }
+        
+        if(!lateChanges.isEmpty()){
+            
+            System.out.println("Warning: applying " + lateChanges.size() + 
+                    " changelog records at or below applied sequence " + 
+                    appliedSequence + ", committed late or not pruned yet");
+            List<ChangelogCapture.Change> allChanges = new ArrayList<>(lateChanges);
+            allChanges.addAll(changes);
+            changes = allChanges;
+        }
+        
+        Map<String, Map<String, Boolean>> touchedKeys = new LinkedHashMap<>();
+        for(ChangelogCapture.Change change : changes){
+            
+            Map<String, Boolean> keys = touchedKeys.get(change.getTable());
+            if(keys == null){
+                
+                keys = new LinkedHashMap<>();
+                touchedKeys.put(change.getTable(), keys);
+            }
+            keys.put(change.getKey(), change.isDelete());
+        }
+        
+        long startTime = System.nanoTime();
+        long rows = 0;
+        
+        boolean autoCommit = clientConnection.getAutoCommit();
+        clientConnection.setAutoCommit(false);
+        try{
+            
+            for(Map.Entry<String, Map<String, Boolean>> entry : touchedKeys.entrySet()){
+                
+                TableMap tableMap = getSourceTableMap(entry.getKey());
+                if(tableMap != null){
+                    
+                    rows += synchronizer.applyChanges(tableMap, entry.getValue(), 
+                                            serverConnection, clientConnection);
+                }
+            }
+            clientConnection.commit();
+        }
+        
+        catch(SQLException e){
+            
+            clientConnection.rollback();
+            throw e;
+        }
+        
+        catch(RuntimeException e){
+            
+            clientConnection.rollback();
+            throw e;
+        }
+        
+        finally{
+            
+            clientConnection.setAutoCommit(autoCommit);
+        }
+        
+        long lastSequence = Math.max(appliedSequence, 
+                            changes.get(changes.size() - 1).getSequence());
+        watermarkStore.putChangelogSequence(lastSequence);
+        watermarkStore.save();
+        
+        System.out.println("Applied " + changes.size() + " changes (" + rows + 
+                " records) up to sequence " + lastSequence + " in " + 
+                String.format("%.2f", (System.nanoTime() - startTime) / 1e9) + 
+                " seconds");
+        
+        int runStart = 0;
+        for(int i = 1; i <= changes.size(); i++){
+            
+            if(i == changes.size() || changes.get(i).getSequence() != 
+                                    changes.get(i - 1).getSequence() + 1){
+                
+                changelogCapture.prune(serverConnection, 
+                            changes.get(runStart).getSequence(), 
+                            changes.get(i - 1).getSequence(), changelogPruneSize);
+                runStart = i;
+            }
+        }
+    }
+    
+    /**
+     * Cuts the changelog records read off at the first missing sequence 
+     * number.
+     * Sequence numbers are taken when a change is made but become visible 
+     * only when its transaction commits, so a missing number usually belongs 
+     * to a transaction that is still running. It may also belong to a 
+     * transaction that was rolled back, so a number that is still missing 
+     * after the changelog gap timeout is skipped. A transaction that runs 
+     * longer than that is not lost: its records stay in the changelog, as 
+     * only consecutive sequence numbers are pruned, and are applied once 
+     * they show up below the applied sequence number.
+     * @param changes the records read, in sequence order
+     * @param appliedSequence sequence number of the last applied record, -1 
+     * if none has been applied yet
+     * @return the records that can be applied
+     */
+    private List<ChangelogCapture.Change> holdBackUncommitted(
+                List<ChangelogCapture.Change> changes, long appliedSequence){
+        
+        long expected = appliedSequence + 1;
+        for(int i = 0; i < changes.size(); i++){
+            
+            long sequence = changes.get(i).getSequence();
+            if(appliedSequence >= 0 && sequence != expected){
+                
+                if(changelogGapSequence != expected){
+                    
+                    changelogGapSequence = expected;
+                    changelogGapSince = System.nanoTime();
+                }
+                long missing = System.nanoTime() - changelogGapSince;
+                if(missing < TimeUnit.MILLISECONDS.toNanos(changelogGapTimeout)){
+                    
+                    return changes.subList(0, i);
+                }
+                System.out.println("Warning: skipping changelog sequence numbers " + 
+                        expected + " to " + (sequence - 1) + ", missing for " + 
+                        TimeUnit.NANOSECONDS.toMillis(missing) + " ms; they " + 
+                        "are applied if their transaction commits later");
+            }
+            expected = sequence + 1;
+            appliedSequence = sequence;
+        }
+        
+        return changes;
+    }
+    
+    private TableMap getSourceTableMap(String sourceTable){
+        
+        for(TableMap tableMap : dbMap.getTableMap()){
+            
+            if(tableMap.getSourceTable().equalsIgnoreCase(sourceTable)){
+                
+                return tableMap;
+            }
+        }
+        
+        return null;
+    }
+    
+}
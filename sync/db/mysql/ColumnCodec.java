@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+
+/**
+ * Defines how the values of a column are read from the server database, held 
+ * in a {@link sync.db.mysql.RowBatch} and written to the client database.
+ * Integers are held as longs and doubles as doubles, so they are read and 
+ * bound without creating an object per value. Decimals, dates and binary 
+ * values are held as the objects the driver returns for them, and text as 
+ * strings. Several attribute types share a codec, for e.g. INT and BIGINT 
+ * are both held as longs.
+ * @author Arvind Sasikumar
+ */
+enum ColumnCodec {
+    
+    TEXT, NUMBER, LONG, DECIMAL, DOUBLE, DATETIME, DATE, BINARY, AUTO;
+    
+    /**
+     * Gets the codec for an attribute type.
+     * @param type the attribute type
+     * @return the codec, {@link #AUTO} if it is to be picked from the result 
+     * set metadata
+     */
+    static ColumnCodec forType(AttributeType type){
+        
+        switch(type){
+            
+            case NUMERICAL:
+                return NUMBER;
+            case INT:
+            case BIGINT:
+                return LONG;
+            case DECIMAL:
+                return DECIMAL;
+            case DOUBLE:
+                return DOUBLE;
+            case DATETIME:
+            case TIMESTAMP:
+                return DATETIME;
+            case DATE:
+                return DATE;
+            case BINARY:
+                return BINARY;
+            case AUTO:
+                return AUTO;
+            default:
+                return TEXT;
+        }
+    }
+    
+    /**
+     * Gets the codecs for the columns fetched for a table, the mapped 
+     * attributes first, followed by any columns used for bookkeeping.
+     * @param attributeMap the mapped attributes
+     * @param bookkeeping codecs of the bookkeeping columns, in order
+     * @return the codecs
+     */
+    static ColumnCodec[] forColumns(ArrayList<AttributeMap> attributeMap, 
+                                    ColumnCodec... bookkeeping){
+        
+        int attributeCount = attributeMap.size();
+        ColumnCodec[] codecs = new ColumnCodec[attributeCount + bookkeeping.length];
+        for(int i = 0; i < codecs.length; i++){
+            
+            codecs[i] = i < attributeCount ? 
+                            forType(attributeMap.get(i).getType()) : 
+                            bookkeeping[i - attributeCount];
+        }
+        return codecs;
+    }
+    
+    /**
+     * Picks the codec for a column from the result set metadata.
+     * Unsigned bigints are held as decimals, as they do not fit in a long, 
+     * single bits as numbers, wider bits as binary values, and years, which 
+     * the driver reports as dates, as text. Single bits include TINYINT(1) 
+     * and BOOLEAN columns, which Connector/J reports as BIT by default 
+     * (tinyInt1isBit=true); read as bytes, they would be the text "1".
+     * @param metaData metadata of the result set
+     * @param column index of the column, starting at 1
+     * @return the codec
+     * @throws SQLException if the metadata could not be read
+     */
+    static ColumnCodec forColumn(ResultSetMetaData metaData, int column) 
+                                                        throws SQLException{
+        
+        String typeName = metaData.getColumnTypeName(column);
+        if(typeName != null){
+            
+            typeName = typeName.toUpperCase();
+            if(typeName.startsWith("JSON") || typeName.startsWith("YEAR")){
+                
+                return TEXT;
+            }
+        }
+        
+        switch(metaData.getColumnType(column)){
+            
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return LONG;
+            case Types.BIGINT:
+                return metaData.isSigned(column) ? LONG : DECIMAL;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return DECIMAL;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.TIMESTAMP:
+                return DATETIME;
+            case Types.DATE:
+                return DATE;
+            case Types.BOOLEAN:
+                return LONG;
+            case Types.BIT:
+                return metaData.getPrecision(column) <= 1 ? LONG : BINARY;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return BINARY;
+            default:
+                return TEXT;
+        }
+    }
+}
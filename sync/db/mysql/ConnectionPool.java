@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of connections to one database.
+ * Connections are opened on demand, up to the size of the pool, and are 
+ * checked before being handed out; a connection that was dropped by the 
+ * database, e.g. after its wait_timeout, is replaced by a new one. Idle 
+ * connections are pinged periodically to keep them from timing out. When a 
+ * new connection cannot be opened, it is retried with exponential backoff.
+ * @author Arvind Sasikumar
+ */
+class ConnectionPool {
+    
+    private static final int VALIDATION_TIMEOUT = 5;
+    
+    private static final long INITIAL_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 30 * 1000;
+    
+    private final String name;
+    private final String connectionString;
+    private final String username;
+    private final String password;
+    private final String sessionSetup;
+    
+    private final int size;
+    private final int reconnectAttempts;
+    
+    private final LinkedBlockingDeque<Connection> idleConnections;
+    private final Semaphore permits;
+    
+    private final ScheduledExecutorService keepalive;
+    
+    private volatile boolean isClosed;
+    
+    /**
+     * Creates a new pool; no connection is opened until one is borrowed.
+     * @param name name of the database, used in progress messages
+     * @param connectionString JDBC connection string of the database
+     * @param username username for the database
+     * @param password password for the database
+     * @param size maximum number of connections open at the same time
+     * @param keepaliveInterval interval in seconds at which idle connections 
+     * are pinged, 0 to not ping them
+     * @param reconnectAttempts number of attempts made to open a connection 
+     * before giving up
+     * @param sessionSetup statement run on every new connection before it is 
+     * handed out, null for none
+     */
+    ConnectionPool(String name, String connectionString, String username, 
+                    String password, int size, int keepaliveInterval, 
+                    int reconnectAttempts, String sessionSetup){
+        
+        this.name = name;
+        this.connectionString = connectionString;
+        this.username = username;
+        this.password = password;
+        this.sessionSetup = sessionSetup;
+        this.size = size;
+        this.reconnectAttempts = Math.max(reconnectAttempts, 1);
+        
+        idleConnections = new LinkedBlockingDeque<>();
+        permits = new Semaphore(size, true);
+        
+        if(keepaliveInterval > 0){
+            
+            keepalive = Executors.newSingleThreadScheduledExecutor(
+                                                        new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ConnectionPool-keepalive");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            keepalive.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    pingIdleConnections();
+                }
+            }, keepaliveInterval, keepaliveInterval, TimeUnit.SECONDS);
+        }
+        else{
+            
+            keepalive = null;
+        }
+    }
+    
+    /**
+     * Gets the maximum number of connections open at the same time.
+     * @return size of the pool
+     */
+    int getSize(){
+        
+        return size;
+    }
+    
+    /**
+     * Borrows a working connection, waiting for one to be returned if all 
+     * of them are in use.
+     * Every borrowed connection must be handed back through 
+     * {@link #release(java.sql.Connection)}.
+     * @return a connection with autocommit turned on
+     * @throws SQLException if the pool is closed or no connection could be 
+     * opened
+     */
+    Connection borrow() throws SQLException{
+        
+        if(isClosed){
+            
+            throw new SQLException("Connection pool for " + name + " is closed");
+        }
+        
+        try{
+            
+            permits.acquire();
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " 
+                                                                    + name, e);
+        }
+        
+        try{
+            
+            Connection connection;
+            while((connection = idleConnections.pollFirst()) != null){
+                
+                if(isValid(connection)){
+                    
+                    return connection;
+                }
+                
+                System.out.println("Dropping broken connection to " + name + "...");
+                closeQuietly(connection);
+            }
+            
+            return open();
+        }
+        
+        catch(SQLException | RuntimeException e){
+            
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Hands a borrowed connection back to the pool.
+     * A connection left inside a transaction is rolled back first; one that 
+     * is closed or fails to roll back is dropped.
+     * @param connection the connection to return
+     */
+    void release(Connection connection){
+        
+        try{
+            
+            if(isClosed || connection.isClosed()){
+                
+                closeQuietly(connection);
+                return;
+            }
+            
+            if(!connection.getAutoCommit()){
+                
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            
+            idleConnections.offerFirst(connection);
+        }
+        
+        catch(SQLException e){
+            
+            closeQuietly(connection);
+        }
+        
+        finally{
+            
+            permits.release();
+        }
+    }
+    
+    /**
+     * Closes all idle connections and stops the keepalive.
+     * Connections still borrowed are closed as they are released.
+     */
+    void close(){
+        
+        isClosed = true;
+        if(keepalive != null){
+            
+            keepalive.shutdownNow();
+        }
+        
+        Connection connection;
+        while((connection = idleConnections.pollFirst()) != null){
+            
+            closeQuietly(connection);
+        }
+    }
+    
+    /**
+     * Opens a new connection, retrying with exponential backoff.
+     * @return a new connection
+     * @throws SQLException if the last attempt failed as well
+     */
+    private Connection open() throws SQLException{
+        
+        long backoff = INITIAL_BACKOFF;
+        
+        for(int attempt = 1; ; attempt++){
+            
+            try{
+                
+                Connection connection = DriverManager.getConnection(
+                                        connectionString, username, password);
+                if(sessionSetup != null){
+                    
+                    setUpSession(connection);
+                }
+                return connection;
+            }
+            
+            catch(SQLException e){
+                
+                if(isClosed || attempt >= reconnectAttempts){
+                    
+                    throw e;
+                }
+                
+                System.out.println("Could not connect to " + name + " (" + 
+                            e.getMessage() + "), retrying in " + backoff + " ms...");
+                
+                try{
+                    
+                    Thread.sleep(backoff);
+                }
+                
+                catch(InterruptedException ie){
+                    
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        }
+    }
+    
+    private void setUpSession(Connection connection) throws SQLException{
+        
+        try{
+            
+            Statement statement = connection.createStatement();
+            try{
+                
+                statement.execute(sessionSetup);
+            }
+            
+            finally{
+                
+                statement.close();
+            }
+        }
+        
+        catch(SQLException e){
+            
+            closeQuietly(connection);
+            throw e;
+        }
+    }
+    
+    /**
+     * Pings every idle connection once, dropping the ones that no longer 
+     * respond.
+     * Connections are taken out of the pool while being pinged, so that they 
+     * are never handed out at the same time.
+     */
+    private void pingIdleConnections(){
+        
+        int idle = idleConnections.size();
+        for(int i = 0; i < idle && !isClosed; i++){
+            
+            if(!permits.tryAcquire()){
+                
+                return;
+            }
+            
+            try{
+                
+                Connection connection = idleConnections.pollLast();
+                if(connection == null){
+                    
+                    return;
+                }
+                
+                if(isValid(connection)){
+                    
+                    idleConnections.offerFirst(connection);
+                }
+                else{
+                    
+                    System.out.println("Dropping broken connection to " + name + "...");
+                    closeQuietly(connection);
+                }
+            }
+            
+            finally{
+                
+                permits.release();
+            }
+        }
+    }
+    
+    private static boolean isValid(Connection connection){
+        
+        try{
+            
+            return connection.isValid(VALIDATION_TIMEOUT);
+        }
+        
+        catch(SQLException e){
+            
+            return false;
+        }
+    }
+    
+    private static void closeQuietly(Connection connection){
+        
+        try{
+            
+            connection.close();
+        }
+        
+        catch(SQLException e){
+            
+            e.printStackTrace();
+        }
+    }
+}
@@ -226,8 +226,56 @@ public class DBMap {
                 else{
                     throw new InvalidDBMapFileException();
                 }
+                String sourceKeyAttribute = null, destinationKeyAttribute = null;
+                if(scanner.hasNext("<sourcekey>")){
+                    scanner.next();
+                    if(scanner.hasNext()){
+                        read = scanner.next();
+                        sourceKeyAttribute = read;
+                    }
+                    else{
+                        throw new InvalidDBMapFileException();
+                    }
+                    if(scanner.hasNext()){
+                        read = scanner.next();
+                        if(!read.equals("</sourcekey>")){
+                            throw new InvalidDBMapFileException();
+                        }
+                    }
+                    else{
+                        throw new InvalidDBMapFileException();
+                    }
+                    if(scanner.hasNext()){
+                        read = scanner.next();
+                        if(read.equals("<destkey>")){
+                            if(scanner.hasNext()){
+                                read = scanner.next();
+                                destinationKeyAttribute = read;
+                            }
+                            else{
+                                throw new InvalidDBMapFileException();
+                            }
+                            if(scanner.hasNext()){
+                                read = scanner.next();
+                                if(!read.equals("</destkey>")){
+                                    throw new InvalidDBMapFileException();
+                                }
+                            }
+                            else{
+                                throw new InvalidDBMapFileException();
+                            }
+                        }
+                        else{
+                            throw new InvalidDBMapFileException();
+                        }
+                    }
+                    else{
+                        throw new InvalidDBMapFileException();
+                    }
+                }
                 TableMap tableMap = new TableMap(sourceTable, destinationTable, 
-                        sourceTimestampAttribute, destinationTimestampAttribute);
+                        sourceTimestampAttribute, destinationTimestampAttribute, 
+                        sourceKeyAttribute, destinationKeyAttribute);
                 while(scanner.hasNext()){
                     read = scanner.next();
                     if(read.equals("</tablemap>")){
@@ -296,13 +344,8 @@ public class DBMap {
                             if(read.equals("<type>")){
                                 if(scanner.hasNext()){
                                     read = scanner.next();
-                                    if(read.equals("NUMERICAL")){
-                                        attributeType = AttributeType.NUMERICAL;
-                                    }
-                                    else if(read.equals("STRING")){
-                                        attributeType = AttributeType.STRING;
-                                    }
-                                    else{
+                                    attributeType = AttributeType.fromName(read);
+                                    if(attributeType == null){
                                         throw new InvalidDBMapFileException();
                                     }
                                 }
@@ -24,7 +24,10 @@
 
 package sync.db.mysql;
 
+import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An object of this class serves as the agent for the synchronization process.
@@ -79,11 +82,55 @@ public class DBSyncAgent {
     
     private int syncInterval;
     
-    private Connection serverConnection;
-    private Connection clientConnection;
+    private final int maxSyncInterval;
     
-    private Statement serverStatement;
-    private Statement clientStatement;
+    private final ProbeType probeType;
+    
+    private final boolean upsert;
+    private final int replayWindow;
+    
+    private final int repairChunkSize;
+    
+    private final long bulkLoadThreshold;
+    
+    private final boolean estimateBacklog;
+    
+    private final ApplyType applyType;
+    private final int batchSize;
+    
+    private final int commitSize;
+    private final long commitInterval;
+    
+    private final int fetchSize;
+    
+    private final int pageSize;
+    
+    private final int pipelineDepth;
+    
+    private long maxStatementSize;
+    
+    private final int parallelism;
+    
+    private final int sliceCount;
+    
+    private final int keepaliveInterval;
+    private final int reconnectAttempts;
+    
+    private final WatermarkStore watermarkStore;
+    
+    private final MetricsRegistry metrics;
+    
+    private final String binlogDirectory;
+    private BinlogPosition binlogStart;
+    private final String mysqlbinlogCommand;
+    
+    private final ChangelogCapture changelogCapture;
+    private final int changelogInterval;
+    private final int changelogPruneSize;
+    private final int changelogGapTimeout;
+    
+    private ConnectionPool serverPool;
+    private ConnectionPool clientPool;
     
     private DBSynchronizer dbSynchronizer;
     
@@ -114,6 +161,49 @@ public class DBSyncAgent {
         
         private int syncInterval;
         
+        private int maxSyncInterval = 60;
+        
+        private ProbeType probeType = ProbeType.NONE;
+        
+        private boolean upsert;
+        private int replayWindow;
+        
+        private int repairChunkSize = 10000;
+        
+        private long bulkLoadThreshold;
+        
+        private boolean estimateBacklog = true;
+        
+        private ApplyType applyType = ApplyType.STATEMENT;
+        private int batchSize = 1000;
+        
+        private int commitSize;
+        private long commitInterval;
+        
+        private int fetchSize;
+        
+        private int pageSize;
+        
+        private int pipelineDepth;
+        
+        private int parallelism = 1;
+        
+        private int sliceCount;
+        
+        private int keepaliveInterval = 60;
+        private int reconnectAttempts = 10;
+        
+        private String watermarkFile;
+        
+        private String binlogDirectory;
+        private BinlogPosition binlogStart;
+        private String mysqlbinlogCommand;
+        
+        private String changelogTable = ChangelogCapture.DEFAULT_TABLE;
+        private int changelogInterval = 500;
+        private int changelogPruneSize = 1000;
+        private int changelogGapTimeout = 1000;
+        
         /**
          * Set the address of the server database.
          * @param serverDatabaseAddress address of the server database, 
@@ -282,6 +372,449 @@ public class DBSyncAgent {
             return this;
         }
         
+        /**
+         * Set the longest time a live sync leaves a table alone.
+         * A table that has no new records is synchronized less and less 
+         * often, waiting twice as long after every attempt that finds 
+         * nothing, up to this interval; it returns to the synchronization 
+         * interval as soon as it has new records again. Specified in 
+         * seconds, defaults to 60.
+         * @param maxSyncInterval maximum interval in seconds
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setMaxSyncInterval(int maxSyncInterval){
+            
+            this.maxSyncInterval = maxSyncInterval;
+            return this;
+        }
+        
+        /**
+         * Set whether fetched records that already exist in the client 
+         * database are updated rather than failing with a duplicate key 
+         * error.
+         * Records are then applied with "insert ... on duplicate key update", 
+         * which overwrites every mapped attribute except the key attribute 
+         * of the table map; the destination table needs a primary or unique 
+         * key for records to be recognized. Applying a record twice does no 
+         * harm, so updated records are picked up and a synchronization can 
+         * start from an earlier watermark, see 
+         * {@link #setReplayWindow(int)}. Defaults to false.
+         * @param upsert true to update existing records
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setUpsert(boolean upsert){
+            
+            this.upsert = upsert;
+            return this;
+        }
+        
+        /**
+         * Set how far before its watermark every synchronization of a table 
+         * starts when upsert is on.
+         * This picks up records that were committed late with a timestamp 
+         * that had already been passed, e.g. by long running transactions. 
+         * Defaults to 0.
+         * @param replayWindow time in seconds
+         * @return Builder object as per the Builder pattern
+         * @see #setUpsert(boolean)
+         */
+        public Builder setReplayWindow(int replayWindow){
+            
+            this.replayWindow = replayWindow;
+            return this;
+        }
+        
+        /**
+         * Set the backlog from which a table is applied with 
+         * {@link sync.db.mysql.ApplyType#LOAD_DATA} instead of the apply type 
+         * set, e.g. for the initial synchronization and after long pauses. 
+         * The records are streamed into "LOAD DATA LOCAL INFILE" without a 
+         * temporary file; add "allowLoadLocalInfile=true" to the client 
+         * connection options. Note that records that already exist in the 
+         * client database are then skipped without an error, as LOCAL loads 
+         * ignore duplicate keys, whereas plain inserts fail on them with 
+         * every other apply type; set {@link #setUpsert(boolean)} to replace 
+         * them instead. The backlog is as estimated per 
+         * {@link #setEstimateBacklog(boolean)}. Defaults to 0, i.e. never.
+         * @param bulkLoadThreshold number of records still to be synchronized
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setBulkLoadThreshold(long bulkLoadThreshold){
+            
+            this.bulkLoadThreshold = bulkLoadThreshold;
+            return this;
+        }
+        
+        /**
+         * Set whether the backlog of a table is estimated before it is 
+         * fetched.
+         * The estimate comes from "EXPLAIN" on the query fetching the 
+         * backlog, or from the row count in information_schema.tables on the 
+         * first synchronization, so no records are read for it. It decides 
+         * {@link #setBulkLoadThreshold(long)} and {@link #setSliceCount(int)}, 
+         * and the records left and time left reported by 
+         * {@link sync.db.mysql.DBSyncAgent#getStatus()}. Turn it off when 
+         * even that is too costly, e.g. for views over large joins. Defaults 
+         * to true.
+         * @param estimateBacklog whether to estimate the backlog
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setEstimateBacklog(boolean estimateBacklog){
+            
+            this.estimateBacklog = estimateBacklog;
+            return this;
+        }
+        
+        /**
+         * Set the number of records per chunk compared by 
+         * {@link DBSyncAgent#repair()}. Chunks that differ are split further. 
+         * Defaults to 10000.
+         * @param repairChunkSize number of records per chunk
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setRepairChunkSize(int repairChunkSize){
+            
+            this.repairChunkSize = repairChunkSize;
+            return this;
+        }
+        
+        /**
+         * Set the way in which a table is checked for new records before it 
+         * is synchronized; tables without new records are skipped. 
+         * {@link sync.db.mysql.ProbeType#TIMESTAMP_INDEX} needs an index on 
+         * the timestamp attribute. With 
+         * {@link sync.db.mysql.ProbeType#UPDATE_TIME} on MySQL 8, add 
+         * "sessionVariables=information_schema_stats_expiry=0" to the server 
+         * connection options, as UPDATE_TIME is cached for a day otherwise. 
+         * Defaults to {@link sync.db.mysql.ProbeType#NONE}.
+         * @param probeType the probe type to use
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setProbeType(ProbeType probeType){
+            
+            this.probeType = probeType;
+            return this;
+        }
+        
+        /**
+         * Set the way in which fetched records are applied to the client 
+         * database.
+         * Defaults to {@link sync.db.mysql.ApplyType#STATEMENT}.
+         * @param applyType the apply type to use
+         * @return Builder object as per the Builder pattern
+         * @see sync.db.mysql.ApplyType
+         */
+        public Builder setApplyType(ApplyType applyType){
+            
+            this.applyType = applyType;
+            return this;
+        }
+        
+        /**
+         * Set the batch size used while applying records.
+         * This specifies the maximum number of records sent to the client 
+         * database in one batch when the apply type is 
+         * {@link sync.db.mysql.ApplyType#BATCH} or 
+         * {@link sync.db.mysql.ApplyType#MULTI_ROW}, as well as the number of 
+         * records fetched from the server database in one batch. Defaults to 
+         * 1000.
+         * @param batchSize maximum number of records in one batch
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setBatchSize(int batchSize){
+            
+            this.batchSize = batchSize;
+            return this;
+        }
+        
+        /**
+         * Set the number of records committed in one transaction.
+         * When set, autocommit is turned off on the client connection and 
+         * the fetched records of each table are committed in chunks of this 
+         * many records, instead of each record being its own transaction. A 
+         * failure rolls back only the current chunk. Not set by default.
+         * @param commitSize number of records in one transaction
+         * @return Builder object as per the Builder pattern
+         * @see #setCommitInterval(long)
+         */
+        public Builder setCommitSize(int commitSize){
+            
+            this.commitSize = commitSize;
+            return this;
+        }
+        
+        /**
+         * Set the maximum time a transaction is kept open while applying 
+         * records.
+         * When set, autocommit is turned off on the client connection and 
+         * the current chunk is committed once it has been open this long, 
+         * even if it has not reached the commit size. Specified in 
+         * milliseconds. Not set by default.
+         * @param commitInterval maximum transaction time in milliseconds
+         * @return Builder object as per the Builder pattern
+         * @see #setCommitSize(int)
+         */
+        public Builder setCommitInterval(long commitInterval){
+            
+            this.commitInterval = commitInterval;
+            return this;
+        }
+        
+        /**
+         * Set the fetch size used while fetching records from the server 
+         * database.
+         * By default, Connector/J reads the entire result of a fetch into 
+         * memory before the first record is applied, which can exhaust the 
+         * heap when a large backlog has built up. Set this to 
+         * {@link Integer#MIN_VALUE} to stream the records row by row, or to 
+         * a positive value together with "useCursorFetch=true" in the server 
+         * connection options to fetch that many records at a time through a 
+         * server side cursor. Either way, memory use stays flat regardless 
+         * of the backlog size.
+         * @param fetchSize {@link Integer#MIN_VALUE} for row by row 
+         * streaming, a positive value for cursor fetch, or 0 for the driver 
+         * default
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setFetchSize(int fetchSize){
+            
+            this.fetchSize = fetchSize;
+            return this;
+        }
+        
+        /**
+         * Set the number of records fetched per page.
+         * When set, every table map with a key attribute is synchronized in 
+         * ordered pages of this many records, each page continuing right 
+         * after the (timestamp, key) position of the last record of the 
+         * previous page and each page committed before the next one is 
+         * fetched. This bounds the duration of every query on the server 
+         * database and keeps the progress made when a sync fails midway. 
+         * Table maps without a key attribute are fetched with a single 
+         * query as before. Not set by default.
+         * @param pageSize number of records per page
+         * @return Builder object as per the Builder pattern
+         * @see sync.db.mysql.TableMap#TableMap(String, String, String, String, String, String)
+         */
+        public Builder setPageSize(int pageSize){
+            
+            this.pageSize = pageSize;
+            return this;
+        }
+        
+        /**
+         * Set the number of batches of records fetched ahead while applying.
+         * When set, records are fetched from the server database on a 
+         * separate reader thread, in batches of the batch size, and queued 
+         * for the thread applying them, so that reads from the server 
+         * overlap with writes to the client. The reader waits once this many 
+         * batches are queued, which keeps memory use bounded. Not set by 
+         * default, in which case fetching and applying alternate on a single 
+         * thread.
+         * @param pipelineDepth maximum number of batches queued
+         * @return Builder object as per the Builder pattern
+         * @see #setBatchSize(int)
+         */
+        public Builder setPipelineDepth(int pipelineDepth){
+            
+            this.pipelineDepth = pipelineDepth;
+            return this;
+        }
+        
+        /**
+         * Set the number of tables synchronized at the same time.
+         * Each table being synchronized gets a connection pair of its own, 
+         * so up to this many connections are kept open to both the server 
+         * and the client databases. After every 
+         * synchronization cycle, the time taken by each table is printed. 
+         * Defaults to 1, i.e. tables are synchronized one after the other.
+         * @param parallelism number of tables synchronized at the same time
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setParallelism(int parallelism){
+            
+            this.parallelism = parallelism;
+            return this;
+        }
+        
+        /**
+         * Set the number of slices a table with a large backlog is split 
+         * into.
+         * The timestamps of the backlog are cut into this many ranges, which 
+         * are fetched and applied at the same time on the connection pairs 
+         * opened as per {@link #setParallelism(int)}. Slices share those 
+         * pairs with the tables synchronized in parallel; a slice no pair is 
+         * free for is run on the pair of its own table after the others. 
+         * A table is only split when its estimated backlog holds at least 
+         * this many batches, see {@link #setEstimateBacklog(boolean)}, and 
+         * only with {@link #setUpsert(boolean)} or 
+         * {@link sync.db.mysql.ApplyType#LOAD_DATA}: the slices above a 
+         * failed one are applied again by the next synchronization. Defaults 
+         * to 0, i.e. tables are not split.
+         * @param sliceCount number of slices per table
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setSliceCount(int sliceCount){
+            
+            this.sliceCount = sliceCount;
+            return this;
+        }
+        
+        /**
+         * Set the interval at which idle connections are pinged.
+         * This keeps connections from being dropped by the wait_timeout of 
+         * the databases between two synchronization attempts of a live sync. 
+         * Defaults to 60 seconds.
+         * @param keepaliveInterval keepalive interval in seconds, 0 to not 
+         * ping idle connections
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setKeepaliveInterval(int keepaliveInterval){
+            
+            this.keepaliveInterval = keepaliveInterval;
+            return this;
+        }
+        
+        /**
+         * Set the number of attempts made to open a connection.
+         * Connections that were dropped are reopened when they are next 
+         * needed; failed attempts are retried after a wait that doubles with 
+         * every attempt, from half a second up to 30 seconds. Defaults to 10.
+         * @param reconnectAttempts number of attempts made to open a 
+         * connection before giving up
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setReconnectAttempts(int reconnectAttempts){
+            
+            this.reconnectAttempts = reconnectAttempts;
+            return this;
+        }
+        
+        /**
+         * Set the file the position of the last synchronized record of every 
+         * table is kept in.
+         * Positions are always kept in memory between synchronization 
+         * attempts, so the latest record of a destination table is only 
+         * looked up once. With a file, they also survive a restart; tables 
+         * committed in pages or chunks, see {@link #setPageSize(int)} and 
+         * {@link #setCommitSize(int)}, save their position with every 
+         * commit, so a crash in the middle of a table does not apply 
+         * committed records again. Delete 
+         * the file after emptying the destination tables. Defaults to none.
+         * @param watermarkFile path of the file, e.g. "dbsync.watermarks"
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setWatermarkFile(String watermarkFile){
+            
+            this.watermarkFile = watermarkFile;
+            return this;
+        }
+        
+        /**
+         * Set the directory the binlog files of the server database are read 
+         * from by {@link DBSyncAgent#binlogSync()}.
+         * The server must log rows (binlog_format=ROW). Either copy the 
+         * binlog files into this directory, or set 
+         * {@link #setMysqlbinlogCommand(java.lang.String)} to have them 
+         * streamed into it from the server.
+         * @param binlogDirectory path of the directory
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setBinlogDirectory(String binlogDirectory){
+            
+            this.binlogDirectory = binlogDirectory;
+            return this;
+        }
+        
+        /**
+         * Set the binlog position to start replaying from, when no position 
+         * has been saved in the watermark file yet.
+         * When not set, the current position of the server database is taken 
+         * on {@link DBSyncAgent#connect()}, so that a {@link DBSyncAgent#sync()} 
+         * that follows is caught up with by the binlog sync.
+         * @param fileName name of the binlog file, e.g. "mysql-bin.000003"
+         * @param position byte offset of the first event to replay, 4 for the 
+         * start of the file
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setBinlogPosition(String fileName, long position){
+            
+            this.binlogStart = new BinlogPosition(fileName, position);
+            return this;
+        }
+        
+        /**
+         * Set the mysqlbinlog executable used to stream the binlog files from 
+         * the server database into the binlog directory over a replication 
+         * connection.
+         * The server database user needs the REPLICATION SLAVE privilege. 
+         * Defaults to none, i.e. the binlog files are only read from the 
+         * binlog directory.
+         * @param mysqlbinlogCommand path of mysqlbinlog, e.g. "mysqlbinlog"
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setMysqlbinlogCommand(String mysqlbinlogCommand){
+            
+            this.mysqlbinlogCommand = mysqlbinlogCommand;
+            return this;
+        }
+        
+        /**
+         * Set the name of the changelog table that the triggers installed by 
+         * {@link DBSyncAgent#installChangelog()} log changes into. 
+         * Defaults to "dbsync_changelog".
+         * @param changelogTable name of the table in the server database
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setChangelogTable(String changelogTable){
+            
+            this.changelogTable = changelogTable;
+            return this;
+        }
+        
+        /**
+         * Set the time between two reads of the changelog during a 
+         * {@link DBSyncAgent#changelogSync()}. Defaults to 500 milliseconds.
+         * @param changelogInterval time in milliseconds
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setChangelogInterval(int changelogInterval){
+            
+            this.changelogInterval = changelogInterval;
+            return this;
+        }
+        
+        /**
+         * Set the number of applied changelog records deleted per statement 
+         * when the changelog is pruned. Defaults to 1000.
+         * @param changelogPruneSize number of records
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setChangelogPruneSize(int changelogPruneSize){
+            
+            this.changelogPruneSize = changelogPruneSize;
+            return this;
+        }
+        
+        /**
+         * Set how long a changelog sync waits for a missing sequence number 
+         * before applying the records after it.
+         * A number is missing while the transaction that logged it is still 
+         * running, or for good if that transaction was rolled back. Records 
+         * of a transaction that commits after its numbers were skipped are 
+         * still applied, on a later read, and a warning is printed for every 
+         * skipped range. A longer timeout saves that out of order work for 
+         * long transactions, at the cost of stalling the changelog sync for 
+         * that long after every rollback. Defaults to 1000 milliseconds.
+         * @param changelogGapTimeout time in milliseconds
+         * @return Builder object as per the Builder pattern
+         */
+        public Builder setChangelogGapTimeout(int changelogGapTimeout){
+            
+            this.changelogGapTimeout = changelogGapTimeout;
+            return this;
+        }
+        
         /**
          * Build the DBSyncAgent object using the Builder pattern after all 
          * properties have been set using the Builder class.
@@ -321,6 +854,48 @@ public class DBSyncAgent {
         dbMap = builder.dbMap;
         
         syncInterval = builder.syncInterval;
+        maxSyncInterval = builder.maxSyncInterval;
+        probeType = builder.probeType;
+        
+        upsert = builder.upsert;
+        replayWindow = builder.replayWindow;
+        
+        repairChunkSize = builder.repairChunkSize;
+        
+        bulkLoadThreshold = builder.bulkLoadThreshold;
+        
+        estimateBacklog = builder.estimateBacklog;
+        
+        applyType = builder.applyType;
+        batchSize = builder.batchSize;
+        
+        commitSize = builder.commitSize;
+        commitInterval = builder.commitInterval;
+        
+        fetchSize = builder.fetchSize;
+        
+        pageSize = builder.pageSize;
+        
+        pipelineDepth = builder.pipelineDepth;
+        
+        parallelism = Math.max(builder.parallelism, 1);
+        
+        sliceCount = builder.sliceCount;
+        
+        keepaliveInterval = builder.keepaliveInterval;
+        reconnectAttempts = builder.reconnectAttempts;
+        
+        watermarkStore = new WatermarkStore(builder.watermarkFile);
+        metrics = new MetricsRegistry(watermarkStore, true);
+        
+        binlogDirectory = builder.binlogDirectory;
+        binlogStart = builder.binlogStart;
+        mysqlbinlogCommand = builder.mysqlbinlogCommand;
+        
+        changelogCapture = new ChangelogCapture(builder.changelogTable);
+        changelogInterval = Math.max(builder.changelogInterval, 1);
+        changelogPruneSize = Math.max(builder.changelogPruneSize, 1);
+        changelogGapTimeout = Math.max(builder.changelogGapTimeout, 0);
     }
     
     /**
@@ -336,6 +911,9 @@ public class DBSyncAgent {
     
     /**
      * Connects to the client and server databases as per the set properties.
+     * Up to as many connections as set by {@link Builder#setParallelism(int)} 
+     * are pooled for each database, and broken connections are reopened 
+     * when they are next needed.
      */
     public void connect(){
         
@@ -344,19 +922,31 @@ public class DBSyncAgent {
             System.out.println("\nAttempting connection...");
             Class.forName("com.mysql.jdbc.Driver");
             
-            String connectionString = "jdbc:mysql://" + serverDatabaseAddress + ":" +
+            String serverConnectionString = "jdbc:mysql://" + serverDatabaseAddress + ":" +
                                       serverDatabasePort + "/" + serverDatabaseName +
                                       serverDatabaseConnectionOptions;
-            serverConnection = DriverManager.getConnection(connectionString,
-                                serverDatabaseUsername,serverDatabasePassword);
-            serverStatement = serverConnection.createStatement();
+            serverPool = new ConnectionPool("server database", 
+                                serverConnectionString, serverDatabaseUsername, 
+                                serverDatabasePassword, parallelism, 
+                                keepaliveInterval, reconnectAttempts, null);
             
-            connectionString = "jdbc:mysql://" + clientDatabaseAddress + ":" +
+            String clientConnectionString = "jdbc:mysql://" + clientDatabaseAddress + ":" +
                                clientDatabasePort + "/" + clientDatabaseName +
                                clientDatabaseConnectionOptions;
-            clientConnection = DriverManager.getConnection(connectionString,
-                                clientDatabaseUsername,clientDatabasePassword);
-            clientStatement = clientConnection.createStatement();
+            clientPool = new ConnectionPool("client database", 
+                                clientConnectionString, clientDatabaseUsername, 
+                                clientDatabasePassword, parallelism, 
+                                keepaliveInterval, reconnectAttempts, 
+                                RowApplier.SESSION_SQL_MODE);
+            
+            serverPool.release(serverPool.borrow());
+            maxStatementSize = getMaxStatementSize();
+            
+            if(binlogDirectory != null && binlogStart == null && 
+                                    watermarkStore.getBinlogPosition() == null){
+                
+                binlogStart = getCurrentBinlogPosition();
+            }
             System.out.println("Connection successful!");
         }
         
@@ -366,6 +956,125 @@ public class DBSyncAgent {
         }         
     }
     
+    /**
+     * Gets the maximum size of a single statement that the client database 
+     * accepts, leaving some room for the packet header.
+     * This is read once from the max_allowed_packet setting of the client 
+     * database.
+     * @return maximum statement size in bytes
+     * @throws SQLException if max_allowed_packet could not be read
+     */
+    private long getMaxStatementSize() throws SQLException{
+        
+        long maxAllowedPacket = 4 * 1024 * 1024;
+        
+        Connection clientConnection = clientPool.borrow();
+        try{
+            
+            Statement clientStatement = clientConnection.createStatement();
+            ResultSet rs = clientStatement.executeQuery(
+                                            "select @@max_allowed_packet");
+            while(rs.next()){
+                
+                maxAllowedPacket = rs.getLong(1);
+            }
+            rs.close();
+            clientStatement.close();
+        }
+        
+        finally{
+            
+            clientPool.release(clientConnection);
+        }
+        
+        System.out.println("Client max_allowed_packet: " + maxAllowedPacket);
+        
+        return maxAllowedPacket - 1024;
+    }
+    
+    /**
+     * Gets the current position of the binary log of the server database.
+     * @return position of the next event the server database will log
+     * @throws SQLException if binary logging is off or the position could 
+     * not be read
+     */
+    private BinlogPosition getCurrentBinlogPosition() throws SQLException{
+        
+        Connection serverConnection = serverPool.borrow();
+        try{
+            
+            Statement serverStatement = serverConnection.createStatement();
+            ResultSet rs;
+            try{
+                
+                rs = serverStatement.executeQuery("show master status");
+            }
+            
+            catch(SQLException e){
+                
+                rs = serverStatement.executeQuery("show binary log status");
+            }
+            
+            BinlogPosition position = null;
+            while(rs.next()){
+                
+                position = new BinlogPosition(rs.getString(1), rs.getLong(2));
+            }
+            rs.close();
+            serverStatement.close();
+            
+            if(position == null){
+                
+                throw new SQLException("Binary logging is not enabled on the server database");
+            }
+            
+            System.out.println("Binlog position: " + position);
+            return position;
+        }
+        
+        finally{
+            
+            serverPool.release(serverConnection);
+        }
+    }
+    
+    /**
+     * Hands the synchronization specific properties over to a new 
+     * synchronizer.
+     * @param dbSynchronizer the synchronizer to configure
+     */
+    private void configure(DBSynchronizer dbSynchronizer){
+        
+        dbSynchronizer.setApplyType(applyType, batchSize);
+        dbSynchronizer.setMaxStatementSize(maxStatementSize);
+        dbSynchronizer.setCommitChunk(commitSize, commitInterval);
+        dbSynchronizer.setFetchSize(fetchSize);
+        dbSynchronizer.setPageSize(pageSize);
+        dbSynchronizer.setPipelineDepth(pipelineDepth);
+        dbSynchronizer.setSliceCount(sliceCount);
+        dbSynchronizer.setMaxSyncInterval(maxSyncInterval);
+        dbSynchronizer.setProbeType(probeType);
+        dbSynchronizer.setUpsert(upsert, replayWindow * 1000L);
+        dbSynchronizer.setRepairChunkSize(repairChunkSize);
+        dbSynchronizer.setBulkLoadThreshold(bulkLoadThreshold);
+        dbSynchronizer.setEstimateBacklog(estimateBacklog);
+        dbSynchronizer.setWatermarkStore(watermarkStore);
+        dbSynchronizer.setMetrics(metrics);
+        
+        if(binlogDirectory != null){
+            
+            BinlogFetcher binlogFetcher = mysqlbinlogCommand == null ? null 
+                        : new BinlogFetcher(mysqlbinlogCommand, serverDatabaseAddress, 
+                                serverDatabasePort, serverDatabaseUsername, 
+                                serverDatabasePassword, new File(binlogDirectory));
+            dbSynchronizer.setBinlogSource(new File(binlogDirectory), 
+                            serverDatabaseName, binlogStart, binlogFetcher);
+        }
+        
+        dbSynchronizer.setChangelog(changelogCapture, changelogInterval, 
+                                    changelogPruneSize, changelogGapTimeout);
+    }
+    
     /**
      * Performs initial synchronization between the client and the server 
      * databases.
@@ -374,7 +1083,34 @@ public class DBSyncAgent {
      */
     public void sync(){
         
-        dbSynchronizer = new DBSynchronizer(serverStatement, clientStatement, dbMap);
+        dbSynchronizer = new DBSynchronizer(serverPool, clientPool, dbMap);
+        configure(dbSynchronizer);
+        dbSynchronizerThread = new Thread(dbSynchronizer);
+        dbSynchronizerThread.start();
+    }
+    
+    /**
+     * Copies the server database into empty destination tables in bulk and 
+     * then synchronizes them periodically, as {@link #liveSync()} does, from 
+     * where the copy ended.
+     * For every destination table that is empty, the non-unique secondary 
+     * indexes are dropped and unique and foreign key checks are turned off 
+     * for the session while the records are copied, using 
+     * {@link sync.db.mysql.ApplyType#LOAD_DATA} if 
+     * {@link Builder#setBulkLoadThreshold(long)} is set and 
+     * {@link sync.db.mysql.ApplyType#MULTI_ROW} otherwise. The indexes are 
+     * then added back in one pass per table. With a watermark file, the 
+     * dropped indexes are saved in it until they are back, so that after a 
+     * crash the snapshot of the table is continued, or, with any other kind 
+     * of synchronization, the indexes are added back on start. Tables that 
+     * are not empty are synchronized as usual. Call this instead of 
+     * {@link #sync()} followed by {@link #liveSync()}.
+     */
+    public void snapshot(){
+        
+        dbSynchronizer = new DBSynchronizer(serverPool, clientPool, dbMap, 
+                                            SyncType.SNAPSHOT, syncInterval);
+        configure(dbSynchronizer);
         dbSynchronizerThread = new Thread(dbSynchronizer);
         dbSynchronizerThread.start();
     }
@@ -382,16 +1118,142 @@ public class DBSyncAgent {
     /**
      * Synchronizes the client and the server databases periodically.
      * This synchronization is done periodically as specified using 
-     * {@link #setSyncInterval(int)} or initialized using the Builder pattern.
+     * {@link #setSyncInterval(int)} or initialized using the Builder pattern. 
+     * A new cycle only starts once the previous one has finished. Tables 
+     * that have fallen behind are synchronized again right away, and tables 
+     * without new records back off up to 
+     * {@link Builder#setMaxSyncInterval(int)}.
      */
     public void liveSync(){
         
-        dbSynchronizer = new DBSynchronizer(serverStatement, clientStatement, 
-                                                            dbMap, syncInterval);
+        dbSynchronizer = new DBSynchronizer(serverPool, clientPool, dbMap, 
+                                                                syncInterval);
+        configure(dbSynchronizer);
+        dbSynchronizerThread = new Thread(dbSynchronizer);
+        dbSynchronizerThread.start();
+    }
+    
+    /**
+     * Synchronizes the client database with the server database by replaying 
+     * the inserts, updates and deletes logged in the binary log of the server 
+     * database, from the directory set using 
+     * {@link Builder#setBinlogDirectory(java.lang.String)}.
+     * Unlike {@link #liveSync()}, this also picks up updates and deletes, and 
+     * does not scan the server tables. The position reached is saved in the 
+     * watermark file, so that a later binlog sync continues from there; 
+     * changes are replayed at least once and in a way that is safe to 
+     * repeat. Call {@link #stopSync()} to stop replaying.
+     */
+    public void binlogSync(){
+        
+        dbSynchronizer = new DBSynchronizer(serverPool, clientPool, dbMap, 
+                                                        SyncType.BINLOG, 0);
+        configure(dbSynchronizer);
+        dbSynchronizerThread = new Thread(dbSynchronizer);
+        dbSynchronizerThread.start();
+    }
+    
+    /**
+     * Creates the changelog table and the triggers that log every insert, 
+     * update and delete on the source tables into it, unless they exist 
+     * already.
+     * Every table of the database map needs a key attribute. Call this 
+     * before the {@link #sync()} that precedes a {@link #changelogSync()}, so 
+     * that no change made during the initial synchronization is missed.
+     */
+    public void installChangelog(){
+        
+        try{
+            
+            Connection serverConnection = serverPool.borrow();
+            try{
+                
+                changelogCapture.install(serverConnection, dbMap);
+                System.out.println("Changelog installed.");
+            }
+            
+            finally{
+                
+                serverPool.release(serverConnection);
+            }
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Drops the triggers and the changelog table created by 
+     * {@link #installChangelog()}.
+     * Call this once the changelog sync is no longer needed, as the 
+     * triggers keep logging changes otherwise.
+     */
+    public void removeChangelog(){
+        
+        try{
+            
+            Connection serverConnection = serverPool.borrow();
+            try{
+                
+                changelogCapture.remove(serverConnection, dbMap);
+                System.out.println("Changelog removed.");
+            }
+            
+            finally{
+                
+                serverPool.release(serverConnection);
+            }
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Synchronizes the client database with the server database by applying 
+     * the changes logged into the changelog table, read every 
+     * {@link Builder#setChangelogInterval(int)} milliseconds.
+     * This is meant for servers whose binary log cannot be read; like 
+     * {@link #binlogSync()}, it picks up updates and deletes. The triggers 
+     * are installed first if needed, see {@link #installChangelog()}. The 
+     * sequence number of the last applied change is saved in the watermark 
+     * file, and applied changes are pruned from the changelog. Call 
+     * {@link #stopSync()} to stop.
+     */
+    public void changelogSync(){
+        
+        dbSynchronizer = new DBSynchronizer(serverPool, clientPool, dbMap, 
+                                                    SyncType.CHANGELOG, 0);
+        configure(dbSynchronizer);
         dbSynchronizerThread = new Thread(dbSynchronizer);
         dbSynchronizerThread.start();
     }
     
+    /**
+     * Verifies the client database against the server database and repairs 
+     * the records that have drifted, e.g. because they were missed or edited 
+     * by hand, without reloading the tables.
+     * Both databases compute checksums of chunks of consecutive keys, see 
+     * {@link Builder#setRepairChunkSize(int)}; chunks that match are 
+     * skipped and chunks that differ are split until the records that differ 
+     * are found, which are then copied over again or deleted. Only tables 
+     * with a key attribute are verified, and the mapped attributes must have 
+     * the same types in both databases. Call this while no synchronization 
+     * is running; it returns once all tables have been verified.
+     * @return summary of the chunks scanned and the records repaired
+     */
+    public RepairReport repair(){
+        
+        DBSynchronizer repairer = new DBSynchronizer(serverPool, clientPool, 
+                                                                    dbMap);
+        configure(repairer);
+        return repairer.repair();
+    }
+    
     /**
      * Stops the synchronization process.
      * The current transaction will be finished before the stop takes places 
@@ -402,6 +1264,24 @@ public class DBSyncAgent {
         dbSynchronizer.stopSync();
     }
     
+    /**
+     * Gets the progress of every mapped table: the records applied, how far 
+     * the client database lags behind the server database and, for tables 
+     * being synchronized right now, the records and the time left.
+     * The same figures are exposed per table through JMX. Call this method 
+     * before {@link #disconnect()}.
+     * @return the progress of each table, in the order of the database map
+     */
+    public List<TableStatus> getStatus(){
+        
+        List<TableStatus> status = new ArrayList<>();
+        for(TableMap tableMap : dbMap.getTableMap()){
+            
+            status.add(metrics.get(tableMap).getStatus());
+        }
+        return status;
+    }
+    
     /**
      * Disconnects the existing client and server connections safely.
      * Call this method after calling {@link #stopSync()}.
@@ -411,11 +1291,9 @@ public class DBSyncAgent {
         try{
             
             System.out.println("\nDisconnecting...");
-            clientStatement.close();
-            serverStatement.close();
-            
-            clientConnection.close();
-            serverConnection.close();
+            clientPool.close();
+            serverPool.close();
+            metrics.close();
             System.out.println("Disconnected.");
         }
         
@@ -24,21 +24,40 @@
 
 package sync.db.mysql;
 
+import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
  * The private thread that does the actual work.
- * Only accessible from within DBSyncAgent.
+ * Only accessible from within DBSyncAgent, which owns the connection pools 
+ * it runs on.
  * @author Arvind Sasikumar
  */
-public class DBSynchronizer implements Runnable{
+class DBSynchronizer implements Runnable{
     
-    private final Statement serverStatement;
-    private final Statement clientStatement;
+    private static final long DEFAULT_MAX_STATEMENT_SIZE = 4 * 1024 * 1024 - 1024;
+    
+    private static final int CHANGELOG_KEY_CHUNK = 500;
+    
+    private final ConnectionPool serverPool;
+    private final ConnectionPool clientPool;
     
     private final DBMap dbMap;
     
@@ -46,44 +65,383 @@ public class DBSynchronizer implements Runnable{
     
     private final SyncType syncType;
     
+    private ApplyType applyType;
+    
+    private int batchSize;
+    
+    private long maxStatementSize;
+    
+    private int commitSize;
+    private long commitInterval;
+    
+    private int fetchSize;
+    
+    private int pageSize;
+    
+    private int pipelineDepth;
+    
+    private int sliceCount;
+    private TableSlicer tableSlicer;
+    
+    private int maxSyncInterval;
+    
+    private boolean upsert;
+    private long replayWindow;
+    
+    private boolean estimateBacklog = true;
+    
+    private int repairChunkSize = 10000;
+    
+    private long bulkLoadThreshold;
+    
+    private ProbeType probeType = ProbeType.NONE;
+    
+    private final Map<TableMap, Timestamp[]> probedUpdateTimes;
+    private final Map<TableMap, Timestamp> syncedUpdateTimes;
+    
+    private final Map<TableMap, TableSchedule> tableSchedules;
+    
+    private final Map<TableMap, SyncPlan> syncPlans;
+    
+    private final SnapshotLoader snapshotLoader;
+    
+    private WatermarkStore watermarkStore;
+    
+    private MetricsRegistry metrics;
+    
+    private BinlogReplayer binlogReplayer;
+    
+    private ChangelogTailer changelogTailer;
+    
     private volatile boolean isRunning;
+    
+    private volatile boolean snapshotting;
    
     private final ScheduledExecutorService exec;
     
-    public DBSynchronizer(Statement serverStatement, Statement clientStatement, 
-                                                                   DBMap dbMap){
+    private ExecutorService workers;
+    
+    /**
+     * Creates a synchronizer for a one-off synchronization.
+     * Every table borrows a server and a client connection from the pools 
+     * for as long as it is being synchronized; with pools of more than one 
+     * connection, that many tables are synchronized at the same time.
+     * @param serverPool connections to the server database
+     * @param clientPool connections to the client database
+     * @param dbMap database map
+     */
+    DBSynchronizer(ConnectionPool serverPool, ConnectionPool clientPool, 
+                                                                DBMap dbMap){
+        
+        this(serverPool, clientPool, dbMap, SyncType.SYNC, 0);
+    }
+    
+    /**
+     * Creates a synchronizer for a live synchronization.
+     * @param serverPool connections to the server database
+     * @param clientPool connections to the client database
+     * @param dbMap database map
+     * @param syncInterval synchronization interval in seconds
+     * @see #DBSynchronizer(sync.db.mysql.ConnectionPool, sync.db.mysql.ConnectionPool, sync.db.mysql.DBMap)
+     */
+    DBSynchronizer(ConnectionPool serverPool, ConnectionPool clientPool, 
+                                            DBMap dbMap, int syncInterval){
+        
+        this(serverPool, clientPool, dbMap, SyncType.LIVE_SYNC, syncInterval);
+    }
+    
+    /**
+     * Creates a synchronizer of any type. Besides a one-off or a live 
+     * synchronization, it replays the binary log or tails the changelog of 
+     * the server database, or takes a snapshot followed by a live 
+     * synchronization.
+     * For a binlog or a changelog sync, call 
+     * {@link #setBinlogSource(java.io.File, java.lang.String, sync.db.mysql.BinlogPosition, sync.db.mysql.BinlogFetcher)} 
+     * or {@link #setChangelog(sync.db.mysql.ChangelogCapture, long, int, long)} 
+     * before running it.
+     * @param serverPool connections to the server database
+     * @param clientPool connections to the client database
+     * @param dbMap database map
+     * @param syncType the type of synchronization
+     * @param syncInterval synchronization interval in seconds of a live 
+     * synchronization, or of the one following a snapshot; 0 for the other 
+     * types
+     */
+    DBSynchronizer(ConnectionPool serverPool, ConnectionPool clientPool, 
+                            DBMap dbMap, SyncType syncType, int syncInterval){
         
-        this.serverStatement = serverStatement;
-        this.clientStatement = clientStatement;
+        this.serverPool = serverPool;
+        this.clientPool = clientPool;
         this.dbMap = dbMap;
         
-        syncInterval = 0;
+        this.syncInterval = syncInterval;
+        
+        this.syncType = syncType;
         
-        syncType = SyncType.SYNC;
+        applyType = ApplyType.STATEMENT;
+        batchSize = 1;
+        maxStatementSize = DEFAULT_MAX_STATEMENT_SIZE;
         
         isRunning = true;
         
         exec = Executors.newSingleThreadScheduledExecutor();
+        
+        watermarkStore = new WatermarkStore(null);
+        metrics = new MetricsRegistry(watermarkStore, false);
+        
+        tableSchedules = new HashMap<>();
+        
+        probedUpdateTimes = new ConcurrentHashMap<>();
+        syncedUpdateTimes = new ConcurrentHashMap<>();
+        syncPlans = new ConcurrentHashMap<>();
+        
+        snapshotLoader = new SnapshotLoader(this, dbMap);
     }
     
-    public DBSynchronizer(Statement serverStatement, Statement clientStatement, 
-                                                DBMap dbMap, int syncInterval){
+    /**
+     * Sets the way in which fetched records are applied to the client database.
+     * @param applyType the apply type to use
+     * @param batchSize maximum number of records sent to the client database 
+     * in one batch, used by {@link sync.db.mysql.ApplyType#BATCH}
+     */
+    void setApplyType(ApplyType applyType, int batchSize){
         
-        this.serverStatement = serverStatement;
-        this.clientStatement = clientStatement;
-        this.dbMap = dbMap;
+        this.applyType = applyType;
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Sets the maximum size of a single statement sent to the client database.
+     * @param maxStatementSize maximum statement size in bytes, used by 
+     * {@link sync.db.mysql.ApplyType#MULTI_ROW}
+     */
+    void setMaxStatementSize(long maxStatementSize){
         
-        this.syncInterval = syncInterval;
+        this.maxStatementSize = maxStatementSize;
+    }
+    
+    /**
+     * Sets the size of the transactions used to apply records.
+     * When either value is positive, autocommit is turned off on the client 
+     * connection while a table is being applied and the records are 
+     * committed in chunks. Records fetched in pages are committed in the 
+     * order of the keyset, with their exact watermark. Records fetched 
+     * without pages are read in timestamp order and a due chunk is only 
+     * committed where the timestamp changes, so that every committed chunk 
+     * leaves the client in a state from which the next sync can resume; a 
+     * chunk therefore grows past commitSize while many records share a 
+     * timestamp.
+     * @param commitSize number of records after which a commit is issued, 
+     * 0 to not commit by size
+     * @param commitInterval time in milliseconds after which a commit is 
+     * issued, 0 to not commit by time
+     */
+    void setCommitChunk(int commitSize, long commitInterval){
         
-        syncType = SyncType.LIVE_SYNC;
+        this.commitSize = commitSize;
+        this.commitInterval = commitInterval;
+    }
+    
+    /**
+     * Sets the fetch size used while fetching records from the server 
+     * database.
+     * @param fetchSize {@link Integer#MIN_VALUE} to stream records row by 
+     * row, a positive value to fetch that many records at a time through a 
+     * server side cursor, or 0 for the driver default
+     */
+    void setFetchSize(int fetchSize){
         
-        isRunning = true;
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * Sets the number of records fetched per page for tables with a key 
+     * attribute.
+     * @param pageSize number of records per page, 0 to fetch all records of 
+     * a table with a single query
+     */
+    void setPageSize(int pageSize){
         
-        exec = Executors.newSingleThreadScheduledExecutor();
+        this.pageSize = pageSize;
+    }
+    
+    /**
+     * Sets the number of batches fetched ahead of the batch being applied.
+     * @param pipelineDepth maximum number of batches read ahead on a separate 
+     * thread, 0 to fetch and apply on the same thread
+     */
+    void setPipelineDepth(int pipelineDepth){
+        
+        this.pipelineDepth = pipelineDepth;
+    }
+    
+    /**
+     * Sets the number of slices a table with a large backlog is split into.
+     * Only tables whose records can be applied twice are split, i.e. with 
+     * upserts or with {@link sync.db.mysql.ApplyType#LOAD_DATA}, which skips 
+     * existing records, as a failed slice is fetched again along with the 
+     * slices above it.
+     * @param sliceCount number of slices fetched and applied at the same 
+     * time, 0 or 1 to not split tables
+     */
+    void setSliceCount(int sliceCount){
+        
+        this.sliceCount = sliceCount;
+        tableSlicer = new TableSlicer(this, sliceCount);
+    }
+    
+    /**
+     * Sets the longest time a live sync leaves a table that has no new 
+     * records alone.
+     * @param maxSyncInterval maximum interval in seconds, the synchronization 
+     * interval if smaller
+     */
+    void setMaxSyncInterval(int maxSyncInterval){
+        
+        this.maxSyncInterval = maxSyncInterval;
+    }
+    
+    /**
+     * Sets whether records that already exist in the client database are 
+     * updated, and how far back each synchronization then starts.
+     * @param upsert whether to apply records with "insert ... on duplicate 
+     * key update"
+     * @param replayWindow time in milliseconds before the watermark from 
+     * which records are fetched again, used with upsert only
+     */
+    void setUpsert(boolean upsert, long replayWindow){
+        
+        this.upsert = upsert;
+        this.replayWindow = replayWindow;
+    }
+    
+    /**
+     * Sets the backlog from which a table is applied with 
+     * {@link sync.db.mysql.ApplyType#LOAD_DATA}, whatever the apply type.
+     * @param bulkLoadThreshold number of records, 0 to never switch
+     */
+    void setBulkLoadThreshold(long bulkLoadThreshold){
+        
+        this.bulkLoadThreshold = bulkLoadThreshold;
+    }
+    
+    /**
+     * Sets whether the backlog of a table is estimated before it is 
+     * fetched.
+     * @param estimateBacklog whether to ask the server database for an 
+     * estimate, without which tables are neither bulk loaded by threshold 
+     * nor split into slices
+     */
+    void setEstimateBacklog(boolean estimateBacklog){
+        
+        this.estimateBacklog = estimateBacklog;
+    }
+    
+    /**
+     * Sets the number of records per chunk compared by a repair.
+     * @param repairChunkSize number of records of the source table per chunk
+     */
+    void setRepairChunkSize(int repairChunkSize){
+        
+        this.repairChunkSize = Math.max(repairChunkSize, 2);
+    }
+    
+    /**
+     * Sets the way in which tables are checked for new records before they 
+     * are synchronized.
+     * @param probeType the probe type to use
+     */
+    void setProbeType(ProbeType probeType){
+        
+        this.probeType = probeType;
+    }
+    
+    /**
+     * Sets the store the watermarks of the tables are kept in.
+     * @param watermarkStore the watermark store, shared by all synchronizers 
+     * of an agent
+     */
+    void setWatermarkStore(WatermarkStore watermarkStore){
+        
+        this.watermarkStore = watermarkStore;
+    }
+    
+    /**
+     * Sets the registry to record the metrics of every table in.
+     * @param metrics the registry
+     */
+    void setMetrics(MetricsRegistry metrics){
+        
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Sets where the binary log of the server database is read from.
+     * @param binlogDirectory directory holding the binlog files
+     * @param binlogSchema name of the server database
+     * @param binlogStart position to start from when the watermark store 
+     * holds none
+     * @param binlogFetcher streams the binlog files into the directory, null 
+     * if they are copied there by other means
+     */
+    void setBinlogSource(File binlogDirectory, String binlogSchema, 
+                    BinlogPosition binlogStart, BinlogFetcher binlogFetcher){
+        
+        binlogReplayer = new BinlogReplayer(this, serverPool, clientPool, dbMap, 
+                    binlogDirectory, binlogSchema, binlogStart, binlogFetcher);
+    }
+    
+    /**
+     * Sets the changelog tailed by a changelog sync.
+     * @param changelogCapture the changelog and its triggers
+     * @param changelogInterval time in milliseconds between two reads of the 
+     * changelog
+     * @param changelogPruneSize maximum number of applied changelog records 
+     * deleted per statement
+     * @param changelogGapTimeout time in milliseconds after which a missing 
+     * changelog sequence number is skipped
+     */
+    void setChangelog(ChangelogCapture changelogCapture, long changelogInterval, 
+                                int changelogPruneSize, long changelogGapTimeout){
+        
+        if(changelogCapture != null){
+            
+            changelogTailer = new ChangelogTailer(this, dbMap, exec, 
+                    changelogCapture, changelogInterval, changelogPruneSize, 
+                    changelogGapTimeout);
+        }
+    }
+    
+    /**
+     * Gets the store holding the watermarks of the tables.
+     * @return the watermark store
+     */
+    WatermarkStore getWatermarkStore(){
+        
+        return watermarkStore;
+    }
+    
+    /**
+     * Tells whether the synchronization is still running.
+     * @return false once the synchronization has been stopped
+     */
+    boolean isRunning(){
+        
+        return isRunning;
+    }
+    
+    private boolean isChunked(){
+        
+        return commitSize > 0 || commitInterval > 0;
     }
     
     public void run(){
         
+        if(syncType != SyncType.SNAPSHOT){
+            
+            snapshotLoader.rebuildPendingIndexes();
+        }
+        
         if(syncType == SyncType.SYNC){
             
             sync();
@@ -93,22 +451,54 @@ public class DBSynchronizer implements Runnable{
             
             liveSync();
         }
+        
+        else if(syncType == SyncType.BINLOG){
+            
+            if(binlogReplayer == null){
+                
+                System.out.println("No binlog directory to replay from.");
+                return;
+            }
+            binlogReplayer.binlogSync();
+        }
+        
+        else if(syncType == SyncType.CHANGELOG){
+            
+            if(changelogTailer == null){
+                
+                System.out.println("No changelog to tail.");
+                return;
+            }
+            changelogTailer.changelogSync();
+        }
+        
+        else if(syncType == SyncType.SNAPSHOT){
+            
+            snapshot();
+        }
     }
     
     /**
      * Gets the last synchronized timestamp value.
+     * This scans the destination table, and is only done when the table has 
+     * no stored watermark.
+     * @param clientConnection connection to the client database
      * @param destinationTable destination table name
      * @param destinationTimestampAttribute destination timestamp attribute name
-     * @return last synchronization timestamp, '0000-00-00 00:00:00' if first time
+     * @return last synchronization timestamp, the initial watermark if first time
+     * @throws SQLException if the timestamp could not be read
      */
-    private String getLastSyncTimestamp(String destinationTable, 
-                                        String destinationTimestampAttribute){
+    private Watermark getLastSyncTimestamp(Connection clientConnection, 
+                                        String destinationTable, 
+                                        String destinationTimestampAttribute) 
+                                                        throws SQLException{
         
         System.out.println("Fetching last sync point...");
         
-        String lastSyncTimestamp = "0000-00-00 00:00:00";
+        Watermark watermark = Watermark.INITIAL;
         
-        try {
+        Statement clientStatement = clientConnection.createStatement();
+        try{
             
             ResultSet rs = clientStatement.executeQuery("Select max(" + 
                                                 destinationTimestampAttribute + 
@@ -116,152 +506,1462 @@ public class DBSynchronizer implements Runnable{
             
             while(rs.next()){
                 
-                lastSyncTimestamp = rs.getString(1);
-            }
-            
-            if(lastSyncTimestamp == null){
-                
-                lastSyncTimestamp = "0000-00-00 00:00:00";
+                watermark = new Watermark(rs.getTimestamp(1), null);
             }
             
             rs.close();
         } 
         
-        catch (Exception e) {
+        finally{
             
-            e.printStackTrace();
+            clientStatement.close();
         }
         
-        System.out.println("Last sync point: " + lastSyncTimestamp);
+        System.out.println("Last sync point: " + watermark);
         
-        return lastSyncTimestamp;
+        return watermark;
     }
     
-    private String generateSelectQuery(String table, ArrayList<AttributeMap> attributeMap,
-                                      String timestampAttribute, String lastSyncTimestamp){
+    /**
+     * Gets the plan of a table, compiling it the first time the table is 
+     * synchronized.
+     * Plans are compiled from the settings in force at that time, which do 
+     * not change once the synchronization has started.
+     * @param tableMap the table to get the plan of
+     * @return the plan
+     */
+    SyncPlan getSyncPlan(TableMap tableMap){
         
-        StringBuilder selectQuery = new StringBuilder("select ");
-        for(int i = 0; i < attributeMap.size(); i++){
+        SyncPlan syncPlan = syncPlans.get(tableMap);
+        if(syncPlan == null){
             
-            selectQuery.append(attributeMap.get(i).getSourceAttribute());
-            if(i != attributeMap.size() - 1){
-                
-                selectQuery.append(", ");
-            }
+            syncPlan = new SyncPlan(tableMap, pageSize, isChunked());
+            syncPlans.put(tableMap, syncPlan);
         }
+        return syncPlan;
+    }
+    
+    /**
+     * Prepares the statement used to fetch records from the server database.
+     * With a fetch size of 0, the driver default applies and Connector/J 
+     * reads the entire result into memory. Otherwise the fetch size is set 
+     * on the forward only, read only statement, so that the driver either 
+     * streams the result row by row (fetch size of {@link Integer#MIN_VALUE}) 
+     * or, when "useCursorFetch=true" is set in the server connection options, 
+     * reads it through a server side cursor fetch size rows at a time.
+     * @param serverConnection connection to the server database
+     * @param query the query to prepare
+     * @return statement to fetch records with
+     * @throws SQLException if the statement could not be prepared
+     */
+    PreparedStatement prepareExtractStatement(Connection serverConnection, 
+                                            String query) throws SQLException{
         
-        selectQuery.append(" from ").append(table).append(" where ")
-                   .append(timestampAttribute).append(" > ")
-                   .append(" '").append(lastSyncTimestamp).append("'");
-        return selectQuery.toString();
+        PreparedStatement statement = serverConnection.prepareStatement(query, 
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if(fetchSize != 0){
+            
+            statement.setFetchSize(fetchSize);
+        }
+        return statement;
     }
     
-    private String generateUpdateQuery(ResultSet rs, String table, 
-                    ArrayList<AttributeMap> attributeMap) throws SQLException{
+    /**
+     * Gets the position of the last record applied to a table with a key 
+     * attribute.
+     * @param clientConnection connection to the client database
+     * @param tableMap the table to look up
+     * @return position of the last applied record, or the initial position 
+     * if the destination table is empty
+     * @throws SQLException if the position could not be read
+     */
+    private Watermark getLastSyncPoint(Connection clientConnection, 
+                                    TableMap tableMap) throws SQLException{
+        
+        System.out.println("Fetching last sync point...");
+        
+        Watermark watermark = Watermark.INITIAL;
         
-        StringBuilder updateQuery = new StringBuilder("insert into  ")
-                                                    .append(table).append("(");
+        String destinationTimestampAttribute = tableMap.getDestinationTimestampAttribute();
+        String destinationKeyAttribute = tableMap.getDestinationKeyAttribute();
         
-        for(int i = 0; i < attributeMap.size(); i++){
+        Statement clientStatement = clientConnection.createStatement();
+        try{
             
-            updateQuery.append(attributeMap.get(i).getDestinationAttribute());
-            if(i != attributeMap.size() - 1){
-                updateQuery.append(",");
+            ResultSet rs = clientStatement.executeQuery("select " + 
+                    destinationTimestampAttribute + ", " + destinationKeyAttribute + 
+                    " from " + tableMap.getDestinationTable() + " order by " + 
+                    destinationTimestampAttribute + " desc, " + 
+                    destinationKeyAttribute + " desc limit 1");
+            
+            while(rs.next()){
+                
+                watermark = new Watermark(rs.getTimestamp(1), rs.getString(2));
             }
+            
+            rs.close();
         }
         
-        updateQuery.append(") values (");
-        for(int i = 0; i < attributeMap.size(); i++){
+        finally{
             
-            if(attributeMap.get(i).getType() == AttributeType.STRING){
-                
-                updateQuery.append("'");
-            }
-            updateQuery.append(rs.getString(i+1));
-            if(attributeMap.get(i).getType() == AttributeType.STRING){
-                
-                updateQuery.append("'");
-            }
-            if(i != attributeMap.size() - 1){
-                updateQuery.append(",");
-            }
+            clientStatement.close();
         }
-        updateQuery.append(")");
-        return updateQuery.toString();
+        
+        System.out.println("Last sync point: " + watermark);
+        
+        return watermark;
+    }
+    
+    private void printApplyRate(long rows, long elapsedNanos){
+        
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long rate = elapsedSeconds > 0 ? (long)(rows / elapsedSeconds) : rows;
+        System.out.println("Inserted " + rows + " records in " + 
+                        String.format("%.2f", elapsedSeconds) + " seconds (" + 
+                                                    rate + " records/sec)");
     }
     
     private void sync(){
         
+        sync(dbMap.getTableMap());
+    }
+    
+    /**
+     * Runs one synchronization cycle over some of the tables.
+     * @param tableMaps the tables to synchronize
+     * @return time taken by each table
+     */
+    private List<TableTiming> sync(ArrayList<TableMap> tableMaps){
+        
         System.out.println("\nSync started...");
         
-        for(TableMap tableMap : dbMap.getTableMap()){
-            
-            String sourceTable = tableMap.getSourceTable();
-            String destinationTable = tableMap.getDestinationTable();
-            System.out.println("Synchronizing " + destinationTable + " with " 
-                                                        + sourceTable + "...");
-            ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
-            String sourceTimestampAttribute = tableMap.getSourceTimestampAttribute();
-            String destinationTimestampAttribute = tableMap.getDestinationTimestampAttribute();
-            
-            String lastSyncTimestamp = getLastSyncTimestamp(destinationTable, 
-                                                destinationTimestampAttribute);
-            String selectQuery = generateSelectQuery(sourceTable, attributeMap, 
-                                    sourceTimestampAttribute, lastSyncTimestamp);
-                    
-            ResultSet serverResultSet;
+        long startTime = System.nanoTime();
+        
+        List<TableTiming> skipped = new ArrayList<>();
+        if(probeType == ProbeType.BATCHED){
             
-            try{
+            ArrayList<TableMap> changed = probeInBatch(tableMaps);
+            for(TableMap tableMap : tableMaps){
                 
-                int totalRecords = 0;
-                serverResultSet = serverStatement.executeQuery("select count(*) from " + 
-                        sourceTable + " where " + sourceTimestampAttribute + " > '" + 
-                                                        lastSyncTimestamp + "'");
-                while(serverResultSet.next()){
+                if(!changed.contains(tableMap)){
                     
-                    totalRecords = serverResultSet.getInt(1);
-                    System.out.println("Fetching " + totalRecords + " records...");
+                    skipped.add(new TableTiming(tableMap, 0, 0, false));
                 }
+            }
+            tableMaps = changed;
+        }
+        
+        int parallelism = Math.min(serverPool.getSize(), tableMaps.size());
+        
+        List<TableTiming> timings;
+        if(parallelism > 1){
+            
+            timings = syncInParallel(tableMaps);
+        }
+        else{
+            
+            timings = new ArrayList<>();
+            for(TableMap tableMap : tableMaps){
                 
-                serverResultSet = serverStatement.executeQuery(selectQuery);
-                
-                System.out.println("Fetch complete!\nInserting records into local database...");
-                
-                while(serverResultSet.next() && isRunning){
+                if(!isRunning){
                     
-                        String updateQuery = generateUpdateQuery(serverResultSet, 
-                                                destinationTable, attributeMap);
-                        clientStatement.executeUpdate(updateQuery);
+                    break;
                 }
                 
-                serverResultSet.close();
-                System.out.println("Done!");
+                timings.add(syncTimed(tableMap));
             }
+        }
+        
+        printCycleSummary(timings, System.nanoTime() - startTime);
+        if(!skipped.isEmpty()){
             
-            catch(Exception e){
-                
-                e.printStackTrace();
-            }
+            System.out.println("Skipped " + skipped.size() + 
+                                        " tables without new records");
         }
         
         System.out.println("Synchronization complete!" + "\n");
+        
+        timings.addAll(skipped);
+        return timings;
     }
     
-    private void liveSync() {
+    /**
+     * Finds the tables that have records past their watermark, with one 
+     * query to each database for all tables.
+     * Tables without a stored watermark first have it looked up in the 
+     * client database. If the probe fails, all tables are taken to have 
+     * changed.
+     * @param tableMaps the tables to probe
+     * @return the tables with new records
+     */
+    private ArrayList<TableMap> probeInBatch(final ArrayList<TableMap> tableMaps){
         
-        System.out.println("Live sync initiated...");
-        exec.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                sync();
-            }
-        },syncInterval, syncInterval, TimeUnit.SECONDS);
+        try{
+            
+            return runOnPair(new PairTask<ArrayList<TableMap>>() {
+                @Override
+                public ArrayList<TableMap> run(Connection serverConnection, 
+                        Connection clientConnection) throws SQLException {
+                    loadWatermarks(clientConnection, tableMaps);
+                    return probeTables(serverConnection, tableMaps);
+                }
+            });
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+            return tableMaps;
+        }
     }
     
-    protected void stopSync(){
+    /**
+     * Looks up the watermarks of the tables that have none stored, with a 
+     * single union query to the client database, and stores them.
+     * @param clientConnection connection to the client database
+     * @param tableMaps the tables to look up
+     * @throws SQLException if the watermarks could not be read
+     */
+    private void loadWatermarks(Connection clientConnection, 
+                        ArrayList<TableMap> tableMaps) throws SQLException{
         
-        System.out.println("\n" + "Stopping sync...");
-        isRunning = false;
-        exec.shutdown();
+        List<TableMap> missing = new ArrayList<>();
+        for(TableMap tableMap : tableMaps){
+            
+            if(watermarkStore.get(tableMap) == null){
+                
+                missing.add(tableMap);
+            }
+        }
+        if(missing.isEmpty()){
+            
+            return;
+        }
+        
+        StringBuilder watermarkQuery = new StringBuilder();
+        for(int i = 0; i < missing.size(); i++){
+            
+            TableMap tableMap = missing.get(i);
+            String timestampAttribute = tableMap.getDestinationTimestampAttribute();
+            String keyAttribute = tableMap.getDestinationKeyAttribute();
+            
+            if(i > 0){
+                
+                watermarkQuery.append(" union all ");
+            }
+            
+            if(pageSize > 0 && tableMap.getSourceKeyAttribute() != null){
+                
+                watermarkQuery.append("(select ").append(i).append(", ")
+                        .append(timestampAttribute).append(", ").append(keyAttribute)
+                        .append(" from ").append(tableMap.getDestinationTable())
+                        .append(" order by ").append(timestampAttribute)
+                        .append(" desc, ").append(keyAttribute).append(" desc limit 1)");
+            }
+            else{
+                
+                watermarkQuery.append("(select ").append(i).append(", max(")
+                        .append(timestampAttribute).append("), null from ")
+                        .append(tableMap.getDestinationTable()).append(")");
+            }
+        }
+        
+        Watermark[] watermarks = new Watermark[missing.size()];
+        Statement clientStatement = clientConnection.createStatement();
+        try{
+            
+            ResultSet rs = clientStatement.executeQuery(watermarkQuery.toString());
+            while(rs.next()){
+                
+                watermarks[rs.getInt(1)] = new Watermark(rs.getTimestamp(2), 
+                                                            rs.getString(3));
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            clientStatement.close();
+        }
+        
+        for(int i = 0; i < missing.size(); i++){
+            
+            watermarkStore.put(missing.get(i), 
+                        watermarks[i] == null ? Watermark.INITIAL : watermarks[i]);
+        }
+        
+        System.out.println("Fetched last sync points of " + missing.size() + 
+                                                                    " tables");
+    }
+    
+    /**
+     * Looks up the first record past the watermark of every table, with a 
+     * single union query to the server database.
+     * @param serverConnection connection to the server database
+     * @param tableMaps the tables to probe, all with a stored watermark
+     * @return the tables with new records
+     * @throws SQLException if the tables could not be probed
+     */
+    private ArrayList<TableMap> probeTables(Connection serverConnection, 
+                        ArrayList<TableMap> tableMaps) throws SQLException{
+        
+        ArrayList<TableMap> changed = new ArrayList<>();
+        if(tableMaps.isEmpty()){
+            
+            return changed;
+        }
+        
+        StringBuilder probeQuery = new StringBuilder();
+        for(int i = 0; i < tableMaps.size(); i++){
+            
+            TableMap tableMap = tableMaps.get(i);
+            if(i > 0){
+                
+                probeQuery.append(" union all ");
+            }
+            probeQuery.append("(select ").append(i).append(" from ")
+                      .append(tableMap.getSourceTable()).append(" where ")
+                      .append(getSyncPlan(tableMap).getAfterCondition())
+                      .append(" limit 1)");
+        }
+        
+        boolean[] found = new boolean[tableMaps.size()];
+        PreparedStatement probeStatement = serverConnection.prepareStatement(
+                                                        probeQuery.toString());
+        try{
+            
+            int parameterIndex = 1;
+            for(TableMap tableMap : tableMaps){
+                
+                parameterIndex = bindAfterCondition(probeStatement, tableMap, 
+                            watermarkStore.get(tableMap), parameterIndex);
+            }
+            
+            ResultSet rs = probeStatement.executeQuery();
+            while(rs.next()){
+                
+                found[rs.getInt(1)] = true;
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            probeStatement.close();
+        }
+        
+        for(int i = 0; i < found.length; i++){
+            
+            if(found[i]){
+                
+                changed.add(tableMaps.get(i));
+            }
+        }
+        
+        return changed;
+    }
+    
+    /**
+     * Takes a snapshot of all tables and then synchronizes them periodically 
+     * from where the snapshot ended.
+     */
+    private void snapshot(){
+        
+        System.out.println("Snapshot started...");
+        
+        snapshotting = true;
+        try{
+            
+            sync();
+        }
+        
+        finally{
+            
+            snapshotting = false;
+        }
+        
+        if(isRunning){
+            
+            liveSync();
+        }
+    }
+    
+    /**
+     * Synchronizes several tables at the same time.
+     * Each table is handed to a worker thread, which synchronizes it as soon 
+     * as a connection pair is free in the pools.
+     * @param tableMaps the tables to synchronize
+     * @return time taken by each table
+     */
+    private List<TableTiming> syncInParallel(ArrayList<TableMap> tableMaps){
+        
+        List<Future<TableTiming>> futures = new ArrayList<>();
+        for(final TableMap tableMap : tableMaps){
+            
+            futures.add(getWorkers().submit(new Callable<TableTiming>() {
+                @Override
+                public TableTiming call() {
+                    return isRunning ? syncTimed(tableMap) : null;
+                }
+            }));
+        }
+        
+        List<TableTiming> timings = new ArrayList<>();
+        for(Future<TableTiming> future : futures){
+            
+            try{
+                
+                TableTiming timing = future.get();
+                if(timing != null){
+                    
+                    timings.add(timing);
+                }
+            }
+            
+            catch(InterruptedException e){
+                
+                Thread.currentThread().interrupt();
+                break;
+            }
+            
+            catch(ExecutionException e){
+                
+                e.printStackTrace();
+            }
+        }
+        
+        return timings;
+    }
+    
+    /**
+     * Gets the worker threads, one per connection pair in the pools.
+     * @return the worker threads
+     */
+    synchronized ExecutorService getWorkers(){
+        
+        if(workers == null){
+            
+            workers = Executors.newFixedThreadPool(serverPool.getSize(), 
+                                                        new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DBSynchronizer-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        return workers;
+    }
+    
+    /**
+     * Runs a task on a server and a client connection borrowed from the 
+     * pools, handing them back once the task is done.
+     * @param <T> type of the result of the task
+     * @param task the task to run
+     * @return result of the task
+     * @throws Exception if no connection could be borrowed or the task failed
+     */
+    <T> T runOnPair(PairTask<T> task) throws Exception{
+        
+        Connection serverConnection = serverPool.borrow();
+        try{
+            
+            Connection clientConnection = clientPool.borrow();
+            try{
+                
+                return task.run(serverConnection, clientConnection);
+            }
+            
+            finally{
+                
+                clientPool.release(clientConnection);
+            }
+        }
+        
+        finally{
+            
+            serverPool.release(serverConnection);
+        }
+    }
+    
+    /**
+     * Synchronizes one table and measures the time it takes.
+     * @param tableMap the table to synchronize
+     * @return time taken by the table
+     */
+    private TableTiming syncTimed(final TableMap tableMap){
+        
+        System.out.println("Synchronizing " + tableMap.getDestinationTable() 
+                            + " with " + tableMap.getSourceTable() + "...");
+        
+        long startTime = System.nanoTime();
+        long rows = 0;
+        boolean failed = false;
+        
+        try{
+            
+            rows = runOnPair(new PairTask<Long>() {
+                @Override
+                public Long run(Connection serverConnection, 
+                        Connection clientConnection) throws SQLException {
+                    if(snapshotting){
+                        return snapshotLoader.snapshotTable(tableMap, 
+                                        serverConnection, clientConnection);
+                    }
+                    return syncTable(tableMap, serverConnection, 
+                                                    clientConnection, false);
+                }
+            });
+            confirmProbe(tableMap);
+            System.out.println("Done!");
+        }
+        
+        catch(Exception e){
+            
+            failed = true;
+            metrics.get(tableMap).addError();
+            e.printStackTrace();
+        }
+        
+        metrics.get(tableMap).endCatchUp();
+        watermarkStore.save();
+        
+        return new TableTiming(tableMap, System.nanoTime() - startTime, 
+                                                                rows, failed);
+    }
+    
+    private void printCycleSummary(List<TableTiming> timings, long elapsedNanos){
+        
+        Collections.sort(timings, new Comparator<TableTiming>() {
+            @Override
+            public int compare(TableTiming t1, TableTiming t2) {
+                return Long.compare(t2.elapsedNanos, t1.elapsedNanos);
+            }
+        });
+        
+        System.out.println("Cycle summary: " + timings.size() + " tables in " + 
+                        String.format("%.2f", elapsedNanos / 1e9) + " seconds");
+        for(TableTiming timing : timings){
+            
+            System.out.println("    " + timing);
+        }
+    }
+    
+    /**
+     * Synchronizes one table.
+     * The table continues from its stored watermark; only when there is none, 
+     * the latest record is looked up in the destination table. Tables with a 
+     * large enough backlog are split into slices when a slice count is set. 
+     * Otherwise, tables with a key attribute are fetched in ordered pages 
+     * when a page size is set, all other tables with a single query.
+     * @param tableMap the table to synchronize
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @param bulk whether to apply the records in bulk whatever the apply 
+     * type, with {@link sync.db.mysql.ApplyType#LOAD_DATA} if a bulk load 
+     * threshold is set and {@link sync.db.mysql.ApplyType#MULTI_ROW} 
+     * otherwise
+     * @return number of records applied
+     * @throws SQLException if the table could not be synchronized
+     */
+    long syncTable(TableMap tableMap, Connection serverConnection, 
+                Connection clientConnection, boolean bulk) throws SQLException{
+        
+        SyncPlan syncPlan = getSyncPlan(tableMap);
+        
+        boolean paged = syncPlan.getPageQuery() != null;
+        
+        long lookupStart = System.nanoTime();
+        Watermark watermark = watermarkStore.get(tableMap);
+        if(watermark != null){
+            
+            System.out.println("Last sync point: " + watermark + " (stored)");
+        }
+        else if(paged){
+            
+            watermark = getLastSyncPoint(clientConnection, tableMap);
+        }
+        else{
+            
+            watermark = getLastSyncTimestamp(clientConnection, 
+                                    tableMap.getDestinationTable(), 
+                                    tableMap.getDestinationTimestampAttribute());
+        }
+        metrics.get(tableMap).recordWatermarkLookup(System.nanoTime() - lookupStart);
+        
+        if(!probeChanges(serverConnection, tableMap, watermark)){
+            
+            System.out.println("No changes since " + watermark);
+            return 0;
+        }
+        
+        Watermark start = watermark;
+        if(upsert && replayWindow > 0 && !watermark.isInitial()){
+            
+            start = watermark.rewind(replayWindow);
+            System.out.println("Replaying from " + start);
+        }
+        
+        long backlog = estimateBacklog(serverConnection, tableMap, start);
+        metrics.get(tableMap).startCatchUp(backlog);
+        String records = backlog < 0 ? "records" : "about " + backlog + " records";
+        
+        ApplyType tableApplyType = applyType;
+        if(bulkLoadThreshold > 0 && (bulk || backlog >= bulkLoadThreshold)){
+            
+            System.out.println("Bulk loading " + records + "...");
+            tableApplyType = ApplyType.LOAD_DATA;
+        }
+        else if(bulk && applyType != ApplyType.LOAD_DATA){
+            
+            tableApplyType = ApplyType.MULTI_ROW;
+        }
+        
+        // a failed slice is fetched again, records applied by the slices 
+        // above it included, which only works if they can be applied twice
+        if(sliceCount > 1 && serverPool.getSize() > 1 && backlog >= 0 && 
+                                backlog >= (long)sliceCount * batchSize && 
+                                (upsert || tableApplyType == ApplyType.LOAD_DATA)){
+            
+            long rows = tableSlicer.syncTableInSlices(tableMap, serverConnection, 
+                            clientConnection, start, tableApplyType, bulk);
+            Watermark merged = watermarkStore.get(tableMap);
+            if(merged != null && merged.isBefore(watermark)){
+                
+                watermarkStore.put(tableMap, watermark);
+            }
+            return rows;
+        }
+        
+        RowReader rowReader;
+        ColumnCodec[] codecs;
+        
+        if(paged){
+            
+            System.out.println("Fetching " + records + " in pages of " + 
+                                                            pageSize + "...");
+            
+            codecs = syncPlan.getPageCodecs();
+            rowReader = new PageReader(prepareExtractStatement(serverConnection, 
+                                            syncPlan.getPageQuery()), 
+                                            codecs.length, pageSize, start);
+        }
+        
+        else{
+            
+            System.out.println("Fetching " + records + "...");
+            
+            PreparedStatement extractStatement = prepareExtractStatement(
+                        serverConnection, syncPlan.getSelectQuery());
+            try{
+                
+                bindAfterCondition(extractStatement, tableMap, start);
+                rowReader = new QueryReader(extractStatement);
+            }
+            
+            catch(SQLException e){
+                
+                extractStatement.close();
+                throw e;
+            }
+            
+            codecs = syncPlan.getSelectCodecs();
+        }
+        
+        if(fetchSize == 0 && !paged && pipelineDepth == 0){
+            
+            System.out.println("Fetch complete!\nInserting records into local database...");
+        }
+        else{
+            
+            System.out.println("Streaming records into local database...");
+        }
+        
+        return transfer(syncPlan, clientConnection, rowReader, codecs, paged, 
+                                                watermark, tableApplyType);
+    }
+    
+    /**
+     * Checks cheaply whether a table may have records past its watermark, 
+     * as per the probe type.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to check
+     * @param watermark position of the last record already synchronized
+     * @return false if the table certainly has no new records
+     * @throws SQLException if the table could not be checked
+     */
+    private boolean probeChanges(Connection serverConnection, TableMap tableMap, 
+                                Watermark watermark) throws SQLException{
+        
+        if(probeType == ProbeType.TIMESTAMP_INDEX){
+            
+            PreparedStatement probeStatement = serverConnection.prepareStatement(
+                                        getSyncPlan(tableMap).getProbeQuery());
+            try{
+                
+                bindAfterCondition(probeStatement, tableMap, watermark);
+                ResultSet rs = probeStatement.executeQuery();
+                boolean changed = rs.next();
+                rs.close();
+                return changed;
+            }
+            
+            finally{
+                
+                probeStatement.close();
+            }
+        }
+        
+        if(probeType == ProbeType.UPDATE_TIME){
+            
+            return probeUpdateTime(serverConnection, tableMap);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Checks whether the UPDATE_TIME of a table has moved since the last 
+     * complete synchronization of the table.
+     * Tables without an UPDATE_TIME, such as views, are always taken to have 
+     * changed.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to check
+     * @return false if the table has not been written to since
+     * @throws SQLException if information_schema.tables could not be read
+     */
+    private boolean probeUpdateTime(Connection serverConnection, 
+                                    TableMap tableMap) throws SQLException{
+        
+        Timestamp updateTime = null;
+        Timestamp probeTime = null;
+        
+        PreparedStatement probeStatement = InformationSchema.prepareTableQuery(
+                serverConnection, "update_time, now()", "tables", 
+                tableMap.getSourceTable(), "");
+        try{
+            
+            ResultSet rs = probeStatement.executeQuery();
+            while(rs.next()){
+                
+                updateTime = rs.getTimestamp(1);
+                probeTime = rs.getTimestamp(2);
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            probeStatement.close();
+        }
+        
+        if(updateTime == null){
+            
+            probedUpdateTimes.remove(tableMap);
+            return true;
+        }
+        
+        probedUpdateTimes.put(tableMap, new Timestamp[]{updateTime, probeTime});
+        return !updateTime.equals(syncedUpdateTimes.get(tableMap));
+    }
+    
+    /**
+     * Remembers the UPDATE_TIME probed before a synchronization of a table 
+     * that has completed.
+     * UPDATE_TIME only has a resolution of seconds, so it is not remembered 
+     * when it was probed within the same second, as a later write in that 
+     * second would not move it.
+     * @param tableMap the table that was synchronized
+     */
+    private void confirmProbe(TableMap tableMap){
+        
+        Timestamp[] probed = probedUpdateTimes.remove(tableMap);
+        if(probed != null && probed[0].before(probed[1])){
+            
+            syncedUpdateTimes.put(tableMap, probed[0]);
+        }
+        else{
+            
+            syncedUpdateTimes.remove(tableMap);
+        }
+    }
+    
+    /**
+     * Estimates the records of a table after a watermark.
+     * The estimate comes from the optimizer, so unlike a count(*) it does not 
+     * read the backlog a second time before fetching it. A table without a 
+     * watermark is estimated from the row count kept in 
+     * information_schema.tables, as the optimizer tends to guess a range over 
+     * the whole table poorly.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to estimate the records of
+     * @param watermark position of the last record already synchronized
+     * @return estimated number of records after the watermark, -1 if 
+     * unknown or not estimated
+     * @throws SQLException if the records could not be estimated
+     */
+    private long estimateBacklog(Connection serverConnection, TableMap tableMap, 
+                                Watermark watermark) throws SQLException{
+        
+        if(!estimateBacklog){
+            
+            return -1;
+        }
+        
+        if(watermark.isInitial()){
+            
+            long tableRows = estimateTableRows(serverConnection, tableMap);
+            if(tableRows >= 0){
+                
+                return tableRows;
+            }
+        }
+        
+        long backlog = -1;
+        
+        PreparedStatement explainStatement = serverConnection.prepareStatement(
+                                        getSyncPlan(tableMap).getExplainQuery());
+        try{
+            
+            bindAfterCondition(explainStatement, tableMap, watermark);
+            ResultSet rs = explainStatement.executeQuery();
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int rowsColumn = 0;
+            int filteredColumn = 0;
+            for(int i = 1; i <= rsmd.getColumnCount(); i++){
+                
+                if(rsmd.getColumnLabel(i).equalsIgnoreCase("rows")){
+                    
+                    rowsColumn = i;
+                }
+                else if(rsmd.getColumnLabel(i).equalsIgnoreCase("filtered")){
+                    
+                    filteredColumn = i;
+                }
+            }
+            while(rs.next() && rowsColumn > 0){
+                
+                long rows = rs.getLong(rowsColumn);
+                if(rs.wasNull()){
+                    
+                    continue;
+                }
+                if(filteredColumn > 0){
+                    
+                    double filtered = rs.getDouble(filteredColumn);
+                    if(!rs.wasNull()){
+                        
+                        rows = (long)Math.ceil(rows * filtered / 100);
+                    }
+                }
+                backlog = Math.max(backlog, 0) + rows;
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            explainStatement.close();
+        }
+        
+        return backlog;
+    }
+    
+    /**
+     * Looks up the approximate row count of a table in 
+     * information_schema.tables.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to look up
+     * @return approximate number of records, -1 if unknown, as for views
+     * @throws SQLException if information_schema.tables could not be read
+     */
+    private long estimateTableRows(Connection serverConnection, 
+                                    TableMap tableMap) throws SQLException{
+        
+        long tableRows = -1;
+        
+        PreparedStatement rowsStatement = InformationSchema.prepareTableQuery(
+                serverConnection, "table_rows", "tables", 
+                tableMap.getSourceTable(), "");
+        try{
+            
+            ResultSet rs = rowsStatement.executeQuery();
+            while(rs.next()){
+                
+                tableRows = rs.getLong(1);
+                if(rs.wasNull()){
+                    
+                    tableRows = -1;
+                }
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            rowsStatement.close();
+        }
+        
+        return tableRows;
+    }
+    
+    /**
+     * Binds a watermark to the condition generated by 
+     * {@link sync.db.mysql.SyncPlan#getAfterCondition()}.
+     * @param statement statement starting with the condition
+     * @param tableMap the table the condition was generated for
+     * @param watermark the watermark to bind
+     * @return index of the first parameter after the condition
+     * @throws SQLException if the watermark could not be bound
+     */
+    static int bindAfterCondition(PreparedStatement statement, 
+                TableMap tableMap, Watermark watermark) throws SQLException{
+        
+        return bindAfterCondition(statement, tableMap, watermark, 1);
+    }
+    
+    /**
+     * Binds a watermark to the condition generated by 
+     * {@link sync.db.mysql.SyncPlan#getAfterCondition()}, starting at a 
+     * given parameter.
+     * @param statement statement holding the condition
+     * @param tableMap the table the condition was generated for
+     * @param watermark the watermark to bind
+     * @param parameterIndex index of the first parameter of the condition
+     * @return index of the first parameter after the condition
+     * @throws SQLException if the watermark could not be bound
+     */
+    private static int bindAfterCondition(PreparedStatement statement, 
+                TableMap tableMap, Watermark watermark, int parameterIndex) 
+                                                        throws SQLException{
+        
+        if(tableMap.getSourceKeyAttribute() != null){
+            
+            watermark.bindTo(statement, parameterIndex);
+            return parameterIndex + 3;
+        }
+        
+        watermark.bindTimestamp(statement, parameterIndex);
+        return parameterIndex + 1;
+    }
+    
+    /**
+     * Applies all the records coming out of a pipeline to the client 
+     * database.
+     * @param syncPlan plan of the table being synchronized
+     * @param clientConnection connection to the client database
+     * @param rowReader the reader to take the records from, through a 
+     * {@link sync.db.mysql.RowPipeline}; closed once all records have been 
+     * applied
+     * @param codecs codec of every column of a record
+     * @param paged whether the records come in pages, each of which is 
+     * committed as soon as it has been applied
+     * @param watermark position of the last record already synchronized, 
+     * which is advanced in the watermark store once all records have been 
+     * applied, and saved with every commit of a page or chunk as described 
+     * in {@link #saveCommittedWatermark(TableMap, Watermark, Watermark)}; 
+     * null to leave the watermark store alone
+     * @param tableApplyType the way in which the records are to be applied
+     * @return number of records applied
+     * @throws SQLException if the records could not be fetched or applied
+     */
+    long transfer(SyncPlan syncPlan, Connection clientConnection, 
+                    RowReader rowReader, ColumnCodec[] codecs, boolean paged, 
+                    Watermark watermark, ApplyType tableApplyType) 
+                                                        throws SQLException{
+        
+        RowPipeline rowPipeline = new RowPipeline(rowReader, batchSize, codecs, 
+                                                                pipelineDepth);
+        TableMap tableMap = syncPlan.getTableMap();
+        TableMetrics tableMetrics = metrics.get(tableMap);
+        int timestampColumn = syncPlan.getTimestampColumn();
+        int keyColumn = syncPlan.getKeyColumn();
+        Timestamp latestTimestamp = null;
+        Timestamp chunkTimestamp = null;
+        boolean exhausted = false;
+        Watermark previous = watermark;
+        
+        RowApplier rowApplier = null;
+        TransactionChunker transactionChunker = null;
+        long startTime = System.nanoTime();
+        long extractNanos = 0;
+        long applyNanos = 0;
+        long written = 0;
+        boolean completed = false;
+        boolean forgotten = false;
+        
+        try{
+            
+            rowApplier = RowApplier.create(tableApplyType, clientConnection, 
+                                syncPlan, batchSize, maxStatementSize, upsert);
+            
+            if(paged || isChunked()){
+                
+                transactionChunker = new TransactionChunker(clientConnection, 
+                                                    commitSize, commitInterval);
+                transactionChunker.begin();
+            }
+            
+            while(isRunning){
+                
+                long fetchStart = System.nanoTime();
+                RowBatch batch = rowPipeline.next();
+                long applyStart = System.nanoTime();
+                extractNanos += applyStart - fetchStart;
+                if(batch == null){
+                    
+                    exhausted = true;
+                    break;
+                }
+                tableMetrics.addRowsRead(batch.size(), batch.getByteSize());
+                
+                for(int row = 0; row < batch.size(); row++){
+                    
+                    if(transactionChunker == null){
+                        
+                        rowApplier.addRow(batch, row);
+                    }
+                    else if(paged){
+                        
+                        rowApplier.addRow(batch, row);
+                        if(transactionChunker.rowAdded(rowApplier) && 
+                                                        previous != null){
+                            
+                            saveCommittedWatermark(tableMap, new Watermark(
+                                    batch.getTimestamp(row, timestampColumn), 
+                                    batch.getString(row, keyColumn)), previous);
+                        }
+                    }
+                    else{
+                        
+                        // a restart resumes after the latest timestamp in the 
+                        // client database, so no chunk may end amid records 
+                        // sharing a timestamp
+                        Timestamp timestamp = batch.getTimestamp(row, timestampColumn);
+                        if(transactionChunker.isDue() && 
+                                    !Objects.equals(timestamp, chunkTimestamp)){
+                            
+                            transactionChunker.commit(rowApplier);
+                            if(previous != null && !forgotten){
+                                
+                                forgotten = saveCommittedWatermark(tableMap, 
+                                                            null, previous);
+                            }
+                        }
+                        rowApplier.addRow(batch, row);
+                        transactionChunker.rowAdded();
+                        chunkTimestamp = timestamp;
+                    }
+                }
+                
+                if(paged && batch.size() > 0){
+                    
+                    int last = batch.size() - 1;
+                    watermark = new Watermark(batch.getTimestamp(last, timestampColumn), 
+                                                batch.getString(last, keyColumn));
+                    tableMetrics.timestampSeen(watermark.getTimestamp());
+                }
+                else if(batch.size() > 0){
+                    
+                    Timestamp batchLatest = latestTimestamp;
+                    for(int row = 0; row < batch.size(); row++){
+                        
+                        Timestamp timestamp = batch.getTimestamp(row, timestampColumn);
+                        if(timestamp != null && (latestTimestamp == null || 
+                                                timestamp.after(latestTimestamp))){
+                            
+                            latestTimestamp = timestamp;
+                        }
+                    }
+                    if(latestTimestamp != batchLatest){
+                        
+                        tableMetrics.timestampSeen(latestTimestamp);
+                    }
+                }
+                
+                if(batch.isPageEnd()){
+                    
+                    transactionChunker.commit(rowApplier);
+                    saveCommittedWatermark(tableMap, watermark, previous);
+                }
+                
+                rowPipeline.release(batch);
+                
+                tableMetrics.addRowsWritten(rowApplier.getAppliedRows() - written);
+                written = rowApplier.getAppliedRows();
+                applyNanos += System.nanoTime() - applyStart;
+            }
+            
+            long commitStart = System.nanoTime();
+            if(transactionChunker != null){
+                
+                if(paged || exhausted){
+                    
+                    transactionChunker.commit(rowApplier);
+                }
+                else{
+                    
+                    // stopped amid the records, possibly amid a timestamp
+                    transactionChunker.rollback();
+                }
+                System.out.println("Committed " + 
+                        transactionChunker.getCommittedRows() + " records" + 
+                        (paged ? ", up to " + watermark : "") + ", in " + 
+                        transactionChunker.getCommits() + " transactions.");
+            }
+            else{
+                
+                rowApplier.flush();
+            }
+            tableMetrics.addRowsWritten(rowApplier.getAppliedRows() - written);
+            applyNanos += System.nanoTime() - commitStart;
+            tableMetrics.recordExtract(extractNanos);
+            tableMetrics.recordApply(applyNanos);
+            
+            if(paged){
+                
+                watermarkStore.put(tableMap, 
+                        watermark.isBefore(previous) ? previous : watermark);
+            }
+            else if(watermark != null && exhausted){
+                
+                Watermark latest = latestTimestamp == null ? watermark 
+                                    : new Watermark(latestTimestamp, null);
+                watermarkStore.put(tableMap, 
+                        latest.isBefore(watermark) ? watermark : latest);
+            }
+            else if(watermark != null){
+                
+                watermarkStore.remove(tableMap);
+            }
+            completed = true;
+        }
+        
+        finally{
+            
+            // runs for unchecked failures too, which must not reach end() 
+            // with a chunk pending, as turning autocommit back on commits it
+            rowPipeline.close();
+            if(rowApplier != null){
+                
+                // a bulk load still streaming would hold the connection
+                rowApplier.close();
+            }
+            if(transactionChunker != null){
+                
+                if(!completed){
+                    
+                    transactionChunker.rollback();
+                }
+                transactionChunker.end();
+            }
+            // pages keep the position of their last commit, which is exact
+            if(!completed && !paged && watermark != null){
+                
+                watermarkStore.remove(tableMap);
+            }
+        }
+        
+        printApplyRate(rowApplier.getAppliedRows(), System.nanoTime() - startTime);
+        
+        return rowApplier.getAppliedRows();
+    }
+    
+    /**
+     * Saves how far a table has been committed to the client database in 
+     * the middle of a transfer, so that a restart after a crash neither 
+     * applies committed records again, which fails with duplicate keys, nor 
+     * skips records.
+     * In pages, the records are committed in the order of the keyset, so 
+     * the watermark of the last committed record is exact. Chunks of a 
+     * single query carry no such watermark, so the stored watermark is 
+     * forgotten instead, once, and a restart looks up the latest timestamp 
+     * in the client database; this is exact as well, since such chunks are 
+     * only committed where the timestamp changes.
+     * @param tableMap the table being synchronized
+     * @param committed position of the last committed record, null if the 
+     * records are not fetched in pages
+     * @param previous position the transfer started from
+     * @return true if the stored watermark has been forgotten
+     */
+    private boolean saveCommittedWatermark(TableMap tableMap, Watermark committed, 
+                                                        Watermark previous){
+        
+        if(committed == null){
+            
+            watermarkStore.remove(tableMap);
+        }
+        else{
+            
+            watermarkStore.put(tableMap, 
+                        committed.isBefore(previous) ? previous : committed);
+        }
+        watermarkStore.save();
+        
+        return committed == null;
+    }
+    
+    /**
+     * Starts synchronizing the tables periodically.
+     * A cycle is only scheduled once the previous one has finished, so 
+     * cycles never overlap; each cycle synchronizes the tables that are due 
+     * as per their {@link sync.db.mysql.TableSchedule}.
+     */
+    private void liveSync() {
+        
+        System.out.println("Live sync initiated...");
+        scheduleLiveSync(TimeUnit.SECONDS.toNanos(syncInterval));
+    }
+    
+    private void scheduleLiveSync(long delayNanos){
+        
+        if(!isRunning){
+            
+            return;
+        }
+        
+        try{
+            
+            exec.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    liveSyncCycle();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        
+        catch(RejectedExecutionException e){
+            
+            // stopped in the meantime
+        }
+    }
+    
+    /**
+     * Synchronizes the tables that are due and schedules the next cycle for 
+     * when the next table is due.
+     */
+    private void liveSyncCycle(){
+        
+        long now = System.nanoTime();
+        long interval = TimeUnit.SECONDS.toNanos(Math.max(syncInterval, 1));
+        long maxInterval = TimeUnit.SECONDS.toNanos(maxSyncInterval);
+        
+        ArrayList<TableMap> dueTables = new ArrayList<>();
+        for(TableMap tableMap : dbMap.getTableMap()){
+            
+            TableSchedule schedule = tableSchedules.get(tableMap);
+            if(schedule == null){
+                
+                schedule = new TableSchedule(interval, maxInterval, now);
+                tableSchedules.put(tableMap, schedule);
+            }
+            if(schedule.isDue(now)){
+                
+                dueTables.add(tableMap);
+            }
+        }
+        
+        try{
+            
+            if(!dueTables.isEmpty()){
+                
+                for(TableTiming timing : sync(dueTables)){
+                    
+                    tableSchedules.get(timing.tableMap).completed(timing.rows, 
+                            timing.elapsedNanos, timing.failed, System.nanoTime());
+                }
+            }
+        }
+        
+        catch(RuntimeException e){
+            
+            e.printStackTrace();
+        }
+        
+        now = System.nanoTime();
+        long delay = Long.MAX_VALUE;
+        for(TableSchedule schedule : tableSchedules.values()){
+            
+            delay = Math.min(delay, schedule.getDelay(now));
+        }
+        scheduleLiveSync(delay);
+    }
+    
+    /**
+     * Brings the touched records of one table up to date.
+     * The records are applied with the configured apply type, except that 
+     * {@link sync.db.mysql.ApplyType#LOAD_DATA} is replaced with 
+     * {@link sync.db.mysql.ApplyType#MULTI_ROW}: a handful of records 
+     * fetched by key is not worth a bulk load, nor should it need local 
+     * loads to be allowed.
+     * @param tableMap the table the records belong to
+     * @param touchedKeys keys of the touched records, each mapped to whether 
+     * the record was deleted last
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @return number of records inserted
+     * @throws SQLException if the records could not be fetched or applied
+     */
+    long applyChanges(TableMap tableMap, Map<String, Boolean> touchedKeys, 
+                                Connection serverConnection, 
+                                Connection clientConnection) throws SQLException{
+        
+        SyncPlan syncPlan = getSyncPlan(tableMap);
+        ApplyType changeApplyType = applyType == ApplyType.LOAD_DATA ? 
+                                            ApplyType.MULTI_ROW : applyType;
+        RowApplier rowApplier = RowApplier.create(changeApplyType, 
+                clientConnection, syncPlan, batchSize, maxStatementSize, false);
+        RowBatch batch = new RowBatch(CHANGELOG_KEY_CHUNK, 
+                                                syncPlan.getSelectCodecs());
+        
+        try{
+            
+            List<String> keys = new ArrayList<>(touchedKeys.keySet());
+            for(int from = 0; from < keys.size(); from += CHANGELOG_KEY_CHUNK){
+                
+                List<String> chunk = keys.subList(from, 
+                            Math.min(from + CHANGELOG_KEY_CHUNK, keys.size()));
+                
+                PreparedStatement deleteStatement = clientConnection.prepareStatement(
+                        "delete from " + tableMap.getDestinationTable() + " where " + 
+                        tableMap.getDestinationKeyAttribute() + " in (" + 
+                        generatePlaceholders(chunk.size()) + ")");
+                try{
+                    
+                    for(int i = 0; i < chunk.size(); i++){
+                        
+                        deleteStatement.setString(i + 1, chunk.get(i));
+                    }
+                    deleteStatement.executeUpdate();
+                }
+                
+                finally{
+                    
+                    deleteStatement.close();
+                }
+                
+                List<String> fetchKeys = new ArrayList<>();
+                for(String key : chunk){
+                    
+                    if(!touchedKeys.get(key)){
+                        
+                        fetchKeys.add(key);
+                    }
+                }
+                if(fetchKeys.isEmpty()){
+                    
+                    continue;
+                }
+                
+                PreparedStatement fetchStatement = serverConnection.prepareStatement(
+                        syncPlan.getKeyFetchPrefix() + 
+                        generatePlaceholders(fetchKeys.size()) + ")");
+                try{
+                    
+                    for(int i = 0; i < fetchKeys.size(); i++){
+                        
+                        fetchStatement.setString(i + 1, fetchKeys.get(i));
+                    }
+                    ResultSet rs = fetchStatement.executeQuery();
+                    batch.clear();
+                    while(rs.next()){
+                        
+                        batch.add(rs);
+                    }
+                    rs.close();
+                }
+                
+                finally{
+                    
+                    fetchStatement.close();
+                }
+                
+                for(int row = 0; row < batch.size(); row++){
+                    
+                    rowApplier.addRow(batch, row);
+                }
+            }
+            
+            rowApplier.flush();
+        }
+        
+        finally{
+            
+            rowApplier.close();
+        }
+        
+        return rowApplier.getAppliedRows();
+    }
+    
+    private static String generatePlaceholders(int count){
+        
+        StringBuilder placeholders = new StringBuilder();
+        for(int i = 0; i < count; i++){
+            
+            placeholders.append(i > 0 ? ", ?" : "?");
+        }
+        return placeholders.toString();
+    }
+    
+    /**
+     * Verifies every table with a key attribute against the server database 
+     * and repairs the records that differ. Runs on the calling thread.
+     * @return summary of the verification
+     */
+    RepairReport repair(){
+        
+        return new TableRepairer(this, dbMap, repairChunkSize).repair();
+    }
+    
+    protected void stopSync(){
+        
+        System.out.println("\n" + "Stopping sync...");
+        isRunning = false;
+        exec.shutdown();
+        if(workers != null){
+            
+            workers.shutdown();
+        }
+    }
+    
+    /**
+     * A task run on a connection pair of its own.
+     * @param <T> type of the result of the task
+     */
+    interface PairTask<T> {
+        
+        T run(Connection serverConnection, Connection clientConnection) 
+                                                            throws Exception;
+    }
+    
+    /**
+     * Time taken to synchronize one table during a synchronization cycle.
+     */
+    private static class TableTiming {
+        
+        private final TableMap tableMap;
+        private final long elapsedNanos;
+        private final long rows;
+        private final boolean failed;
+        
+        TableTiming(TableMap tableMap, long elapsedNanos, long rows, 
+                                                            boolean failed){
+            
+            this.tableMap = tableMap;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.failed = failed;
+        }
+        
+        @Override
+        public String toString(){
+            
+            return tableMap.getSourceTable() + " -> " + 
+                    tableMap.getDestinationTable() + ": " + 
+                    String.format("%.2f", elapsedNanos / 1e9) + " seconds, " + 
+                    (failed ? "failed" : rows + " records");
+        }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Looks up what the information_schema of a database knows about a table.
+ * @author Arvind Sasikumar
+ */
+class InformationSchema {
+    
+    private InformationSchema(){
+        
+    }
+    
+    /**
+     * Prepares a query on a view of information_schema that describes 
+     * tables, such as tables, columns or statistics, restricted to the rows 
+     * of one table. A table name without a database name refers to the 
+     * database of the connection.
+     * @param connection connection to the database holding the table
+     * @param columns the columns to select from the view
+     * @param view name of the view
+     * @param table name of the table, optionally prefixed with the name of 
+     * its database and a dot
+     * @param clauses further conditions and clauses, appended to the query 
+     * as they are, e.g. " and non_unique = 1"; empty for none
+     * @return the statement, with the table bound, to be closed by the caller
+     * @throws SQLException if the query could not be prepared
+     */
+    static PreparedStatement prepareTableQuery(Connection connection, 
+                String columns, String view, String table, String clauses) 
+                                                        throws SQLException{
+        
+        int dot = table.indexOf('.');
+        
+        PreparedStatement statement = connection.prepareStatement("select " + 
+                columns + " from information_schema." + view + 
+                " where table_schema = coalesce(?, database()) and table_name = ?" + 
+                clauses);
+        try{
+            
+            statement.setString(1, dot < 0 ? null : table.substring(0, dot));
+            statement.setString(2, table.substring(dot + 1));
+        }
+        
+        catch(SQLException e){
+            
+            statement.close();
+            throw e;
+        }
+        
+        return statement;
+    }
+}
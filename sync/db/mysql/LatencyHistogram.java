@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of latencies that can be recorded into from many threads 
+ * without locking.
+ * Every latency is counted in the bucket of its highest bit in nanoseconds, 
+ * so bucket i holds the latencies from 2^(i-1) up to 2^i - 1 nanoseconds.
+ * @author Arvind Sasikumar
+ */
+class LatencyHistogram {
+    
+    private static final int BUCKETS = 64;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(
+                                                new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+    
+    /**
+     * Records a latency.
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos){
+        
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos), 
+                                                                BUCKETS - 1));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+    
+    /**
+     * Summarizes the latencies recorded so far.
+     * Latencies recorded while the summary is taken may or may not be 
+     * included.
+     * @return the summary
+     */
+    LatencySummary summarize(){
+        
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        
+        long maxNanos = max.get();
+        return new LatencySummary(recorded, 
+                recorded == 0 ? 0 : total.sum() / (double)count.sum() / 1e6, 
+                percentile(counts, recorded, 0.50, maxNanos) / 1e6, 
+                percentile(counts, recorded, 0.99, maxNanos) / 1e6, 
+                maxNanos / 1e6);
+    }
+    
+    private static long percentile(long[] counts, long recorded, double fraction, 
+                                                                long maxNanos){
+        
+        long rank = (long)Math.ceil(recorded * fraction);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            
+            seen += counts[i];
+            if(seen >= rank && seen > 0){
+                
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, maxNanos);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A summary of the latencies recorded by a histogram at one point in time.
+ * Percentiles are given as the upper bound of the histogram bucket they 
+ * fall in, so they are exact to within a factor of two.
+ * @author Arvind Sasikumar
+ */
+public class LatencySummary {
+    
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+    
+    @ConstructorProperties({"count", "meanMillis", "p50Millis", "p99Millis", 
+                                                                "maxMillis"})
+    public LatencySummary(long count, double meanMillis, double p50Millis, 
+                                        double p99Millis, double maxMillis){
+        
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+    
+    /**
+     * Gets the number of latencies recorded.
+     * @return number of latencies
+     */
+    public long getCount(){
+        
+        return count;
+    }
+    
+    public double getMeanMillis(){
+        
+        return meanMillis;
+    }
+    
+    public double getP50Millis(){
+        
+        return p50Millis;
+    }
+    
+    public double getP99Millis(){
+        
+        return p99Millis;
+    }
+    
+    public double getMaxMillis(){
+        
+        return maxMillis;
+    }
+    
+    @Override
+    public String toString(){
+        
+        return String.format("count=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", 
+                            count, meanMillis, p50Millis, p99Millis, maxMillis);
+    }
+}
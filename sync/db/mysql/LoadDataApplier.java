@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Applies records with "LOAD DATA LOCAL INFILE", MySQL's bulk loader.
+ * The records are written as tab separated lines into a pipe, which the 
+ * driver streams to the client database while a load statement runs on a 
+ * separate thread; nothing is written to disk, and only the pipe buffer is 
+ * held in memory. Every line is built in a reused buffer and written to the 
+ * pipe in one go. Every {@link #flush()} ends the current load statement, 
+ * the next record starts a new one.
+ * <p>
+ * Connector/J must allow local files, by adding "allowLoadLocalInfile=true" 
+ * to the client connection options, and so must the client database 
+ * (local_infile=ON). With an upsert, existing records are replaced as a 
+ * whole, so attributes that are not mapped are reset to their defaults. 
+ * Otherwise records that already exist are skipped, as LOCAL loads ignore 
+ * duplicate keys.
+ * @author Arvind Sasikumar
+ */
+class LoadDataApplier extends RowApplier {
+    
+    private static final int PIPE_SIZE = 256 * 1024;
+    
+    private final Statement statement;
+    private final Method setInputStream;
+    
+    private final String table;
+    private final ArrayList<AttributeMap> attributeMap;
+    private final boolean replace;
+    private final int columnCount;
+    
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] lineChars = new char[256];
+    
+    private String loadQuery;
+    private Writer writer;
+    private FutureTask<Integer> load;
+    
+    private int pendingRows;
+    
+    LoadDataApplier(Connection connection, String table, 
+                    ArrayList<AttributeMap> attributeMap, boolean replace) 
+                                                        throws SQLException{
+        
+        this.statement = connection.createStatement();
+        this.columnCount = attributeMap.size();
+        
+        try{
+            
+            setInputStream = statement.getClass().getMethod(
+                                "setLocalInfileInputStream", InputStream.class);
+        }
+        
+        catch(NoSuchMethodException e){
+            
+            statement.close();
+            throw new SQLException("The JDBC driver cannot stream records " + 
+                                    "into LOAD DATA LOCAL INFILE", e);
+        }
+        
+        this.table = table;
+        this.attributeMap = attributeMap;
+        this.replace = replace;
+    }
+    
+    /**
+     * Generates the load statement once the codecs of the columns are known. 
+     * Binary values arrive in hexadecimal, so they are read into a variable 
+     * and decoded with unhex().
+     * @param batch a batch holding at least one record
+     * @return the load statement
+     */
+    private String generateLoadQuery(RowBatch batch){
+        
+        StringBuilder query = new StringBuilder(
+                "load data local infile 'dbsync.tsv' ")
+                .append(replace ? "replace " : "").append("into table ")
+                .append(table).append(" character set utf8mb4 (");
+        StringBuilder decode = new StringBuilder();
+        for(int i = 0; i < attributeMap.size(); i++){
+            
+            String attribute = attributeMap.get(i).getDestinationAttribute();
+            if(batch.getCodec(i+1) == ColumnCodec.BINARY){
+                
+                query.append("@v").append(i);
+                decode.append(decode.length() == 0 ? " set " : ", ")
+                      .append(attribute).append(" = unhex(@v").append(i).append(")");
+            }
+            else{
+                
+                query.append(attribute);
+            }
+            if(i != attributeMap.size() - 1){
+                query.append(",");
+            }
+        }
+        return query.append(")").append(decode).toString();
+    }
+    
+    /**
+     * Starts a load statement reading from a new pipe.
+     * @throws SQLException if the statement could not be started
+     */
+    private void begin() throws SQLException{
+        
+        final PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        try{
+            
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new PipedOutputStream(in), StandardCharsets.UTF_8), PIPE_SIZE);
+            setInputStream.invoke(statement, in);
+        }
+        
+        catch(IOException | IllegalAccessException | InvocationTargetException e){
+            
+            throw new SQLException("Could not start LOAD DATA LOCAL INFILE", e);
+        }
+        
+        load = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws SQLException {
+                try{
+                    return statement.executeUpdate(loadQuery);
+                }
+                finally{
+                    // a load refused before the driver reads the pipe, e.g. 
+                    // with local_infile=OFF, would leave the writer blocked 
+                    // on a full pipe; a closed pipe makes it fail instead
+                    closeQuietly(in);
+                }
+            }
+        });
+        Thread loader = new Thread(load, "LoadDataApplier");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    private static void closeQuietly(InputStream in){
+        
+        try{
+            
+            in.close();
+        }
+        
+        catch(IOException e){
+            
+            // nothing is read from it any more
+        }
+    }
+    
+    /**
+     * Ends the current load statement and waits for it to finish.
+     * @throws SQLException if the load statement failed
+     */
+    private void end() throws SQLException{
+        
+        try{
+            
+            writer.close();
+        }
+        
+        catch(IOException e){
+            
+            // the load statement failed, reported below
+        }
+        
+        try{
+            
+            load.get();
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading records", e);
+        }
+        
+        catch(ExecutionException e){
+            
+            if(e.getCause() instanceof SQLException){
+                
+                throw (SQLException)e.getCause();
+            }
+            throw new SQLException("LOAD DATA LOCAL INFILE failed", e.getCause());
+        }
+        
+        finally{
+            
+            writer = null;
+            load = null;
+        }
+    }
+    
+    @Override
+    void addRow(RowBatch batch, int row) throws SQLException{
+        
+        if(loadQuery == null){
+            
+            loadQuery = generateLoadQuery(batch);
+        }
+        if(writer == null){
+            
+            begin();
+        }
+        
+        line.setLength(0);
+        for(int i = 1; i <= columnCount; i++){
+            
+            if(i != 1){
+                line.append('\t');
+            }
+            batch.appendField(row, i, line);
+        }
+        line.append('\n');
+        
+        int length = line.length();
+        if(length > lineChars.length){
+            
+            lineChars = new char[Math.max(length, lineChars.length * 2)];
+        }
+        line.getChars(0, length, lineChars, 0);
+        
+        try{
+            
+            writer.write(lineChars, 0, length);
+        }
+        
+        catch(IOException e){
+            
+            // the pipe breaks when the load statement has failed
+            end();
+            throw new SQLException("LOAD DATA LOCAL INFILE stopped reading", e);
+        }
+        
+        pendingRows++;
+    }
+    
+    @Override
+    void flush() throws SQLException{
+        
+        if(writer == null){
+            
+            return;
+        }
+        
+        end();
+        rowsApplied(pendingRows);
+        pendingRows = 0;
+    }
+    
+    /**
+     * Ends a load statement that is still running before releasing the 
+     * statement. Records that have already been streamed are loaded, so they 
+     * are only discarded if the transaction is rolled back afterwards.
+     * @throws SQLException if the statement could not be closed
+     */
+    @Override
+    void close() throws SQLException{
+        
+        if(writer != null){
+            
+            try{
+                
+                end();
+            }
+            
+            catch(SQLException e){
+                
+                // the records are discarded anyway
+            }
+            pendingRows = 0;
+        }
+        
+        statement.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the {@link sync.db.mysql.TableMetrics} of all tables of an agent 
+ * and registers them with the platform MBean server.
+ * The metrics of a table are created the first time the table is 
+ * synchronized. Every agent numbers its MBeans separately, so that agents 
+ * mapping the same tables in one JVM do not clash.
+ * @author Arvind Sasikumar
+ */
+class MetricsRegistry {
+    
+    private static final AtomicInteger AGENTS = new AtomicInteger();
+    
+    private final WatermarkStore watermarkStore;
+    private final boolean register;
+    private final int agent;
+    
+    private final ConcurrentHashMap<TableMap, TableMetrics> tableMetrics;
+    private final ConcurrentHashMap<TableMap, ObjectName> objectNames;
+    
+    /**
+     * Creates a new registry.
+     * @param watermarkStore the store to read the watermarks of the tables from
+     * @param register whether to register the metrics with JMX
+     */
+    MetricsRegistry(WatermarkStore watermarkStore, boolean register){
+        
+        this.watermarkStore = watermarkStore;
+        this.register = register;
+        this.agent = register ? AGENTS.incrementAndGet() : 0;
+        this.tableMetrics = new ConcurrentHashMap<>();
+        this.objectNames = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Gets the metrics of a table, creating and registering them the first 
+     * time.
+     * @param tableMap the table
+     * @return the metrics
+     */
+    TableMetrics get(TableMap tableMap){
+        
+        TableMetrics metrics = tableMetrics.get(tableMap);
+        if(metrics != null){
+            
+            return metrics;
+        }
+        
+        metrics = new TableMetrics(tableMap, watermarkStore);
+        TableMetrics existing = tableMetrics.putIfAbsent(tableMap, metrics);
+        if(existing != null){
+            
+            return existing;
+        }
+        
+        if(register){
+            
+            try{
+                
+                ObjectName objectName = new ObjectName("sync.db.mysql:type=TableMetrics" + 
+                        ",agent=" + agent + 
+                        ",source=" + ObjectName.quote(tableMap.getSourceTable()) + 
+                        ",destination=" + ObjectName.quote(tableMap.getDestinationTable()));
+                ManagementFactory.getPlatformMBeanServer()
+                                 .registerMBean(metrics, objectName);
+                objectNames.put(tableMap, objectName);
+            }
+            
+            catch(JMException e){
+                
+                e.printStackTrace();
+            }
+        }
+        return metrics;
+    }
+    
+    /**
+     * Unregisters all metrics from JMX and drops them, so tables synchronized 
+     * afterwards start over with new metrics.
+     */
+    void close(){
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName objectName : objectNames.values()){
+            
+            try{
+                
+                server.unregisterMBean(objectName);
+            }
+            
+            catch(JMException e){
+                
+                // already unregistered
+            }
+        }
+        objectNames.clear();
+        tableMetrics.clear();
+    }
+}
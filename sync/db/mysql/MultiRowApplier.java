@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Applies records by packing many of them into a single 
+ * "insert into ... values (..),(..),..." statement.
+ * Each statement is kept below the maximum statement size, which is derived 
+ * from the max_allowed_packet setting of the client database. Records are 
+ * encoded into one statement buffer and one record buffer that are both 
+ * reused for the whole table, so no new buffer is created per record, and 
+ * numbers are written into the buffer straight from the batch. An upsert 
+ * clause is appended to every statement when it is sent.
+ * @author Arvind Sasikumar
+ */
+class MultiRowApplier extends RowApplier {
+    
+    private final Statement statement;
+    
+    private final int columnCount;
+    private final int batchSize;
+    private final long maxStatementSize;
+    
+    private final StringBuilder statementBuffer;
+    private final StringBuilder rowBuffer;
+    private final int prefixLength;
+    private final long prefixSize;
+    private final String upsertClause;
+    
+    private long statementSize;
+    private long rowSize;
+    private int pendingRows;
+    
+    MultiRowApplier(Connection connection, String insertPrefix, 
+                    int columnCount, int batchSize, long maxStatementSize, 
+                    String upsertClause) throws SQLException{
+        
+        this.statement = connection.createStatement();
+        this.columnCount = columnCount;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxStatementSize = maxStatementSize;
+        
+        statementBuffer = new StringBuilder(1024);
+        statementBuffer.append(insertPrefix);
+        
+        prefixLength = statementBuffer.length();
+        prefixSize = utf8Length(statementBuffer) + utf8Length(upsertClause);
+        statementSize = prefixSize;
+        this.upsertClause = upsertClause;
+        
+        rowBuffer = new StringBuilder(256);
+    }
+    
+    private static long utf8Length(CharSequence s){
+        
+        long length = 0;
+        for(int i = 0; i < s.length(); i++){
+            
+            length += utf8Length(s.charAt(i));
+        }
+        return length;
+    }
+    
+    private static int utf8Length(char c){
+        
+        if(c < 0x80){
+            
+            return 1;
+        }
+        if(c < 0x800 || Character.isSurrogate(c)){
+            
+            return 2;
+        }
+        return 3;
+    }
+    
+    private void encodeRow(RowBatch batch, int row){
+        
+        rowBuffer.setLength(0);
+        rowBuffer.append('(');
+        for(int i = 1; i <= columnCount; i++){
+            
+            if(i != 1){
+                rowBuffer.append(',');
+            }
+            batch.appendLiteral(row, i, rowBuffer);
+        }
+        rowBuffer.append(')');
+        rowSize = utf8Length(rowBuffer);
+    }
+    
+    @Override
+    void addRow(RowBatch batch, int row) throws SQLException{
+        
+        encodeRow(batch, row);
+        
+        if(pendingRows > 0 && statementSize + 1 + rowSize > maxStatementSize){
+            
+            flush();
+        }
+        
+        if(pendingRows > 0){
+            
+            statementBuffer.append(',');
+            statementSize++;
+        }
+        statementBuffer.append(rowBuffer);
+        statementSize += rowSize;
+        
+        if(++pendingRows >= batchSize){
+            
+            flush();
+        }
+    }
+    
+    @Override
+    void flush() throws SQLException{
+        
+        if(pendingRows == 0){
+            
+            return;
+        }
+        
+        statementBuffer.append(upsertClause);
+        statement.executeUpdate(statementBuffer.toString());
+        rowsApplied(pendingRows);
+        
+        statementBuffer.setLength(prefixLength);
+        statementSize = prefixSize;
+        pendingRows = 0;
+    }
+    
+    @Override
+    void close() throws SQLException{
+        
+        statement.close();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Fetches the records to be synchronized in pages ordered by (timestamp, key).
+ * Each page is fetched with the same prepared query, bound to the position of 
+ * the last record of the previous page. A batch never spans two pages; the 
+ * last batch of every page is marked as such, so that the page can be 
+ * committed once it has been applied.
+ * @author Arvind Sasikumar
+ */
+class PageReader extends RowReader {
+    
+    private final PreparedStatement statement;
+    
+    private final int pageSize;
+    private final int timestampColumn;
+    private final int keyColumn;
+    
+    private Watermark watermark;
+    
+    private ResultSet resultSet;
+    private int pageRows;
+    private boolean finished;
+    
+    /**
+     * Creates a new page reader.
+     * @param statement prepared page query, whose first three parameters 
+     * take the position to continue from and which returns the timestamp 
+     * and the key of every record in its last two columns; closed along 
+     * with the reader
+     * @param columnCount number of columns returned by the page query
+     * @param pageSize number of records per page
+     * @param watermark position of the last record already synchronized
+     */
+    PageReader(PreparedStatement statement, int columnCount, int pageSize, 
+                                                        Watermark watermark){
+        
+        this.statement = statement;
+        this.pageSize = pageSize;
+        this.timestampColumn = columnCount - 1;
+        this.keyColumn = columnCount;
+        this.watermark = watermark;
+    }
+    
+    @Override
+    boolean read(RowBatch batch) throws SQLException{
+        
+        if(finished){
+            
+            return false;
+        }
+        
+        if(resultSet == null){
+            
+            watermark.bindTo(statement, 1);
+            resultSet = statement.executeQuery();
+            pageRows = 0;
+        }
+        
+        while(!batch.isFull() && resultSet.next()){
+            
+            batch.add(resultSet);
+            pageRows++;
+        }
+        
+        if(batch.size() > 0){
+            
+            int last = batch.size() - 1;
+            watermark = new Watermark(batch.getTimestamp(last, timestampColumn), 
+                                            batch.getString(last, keyColumn));
+        }
+        
+        if(!batch.isFull()){
+            
+            resultSet.close();
+            resultSet = null;
+            batch.markPageEnd();
+            
+            if(pageRows < pageSize){
+                
+                finished = true;
+            }
+        }
+        
+        return true;
+    }
+    
+    @Override
+    void close(){
+        
+        if(resultSet != null){
+            
+            // a page is still being read
+            cancelStreaming(statement);
+        }
+        closeQuietly(resultSet);
+        closeQuietly(statement);
+    }
+    
+    @Override
+    void cancel(){
+        
+        cancelQuietly(statement);
+    }
+}
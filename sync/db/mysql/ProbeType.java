@@ -0,0 +1,48 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+/**
+ * Enum class that defines the ways in which a table is checked for new 
+ * records before it is synchronized.
+ * <p>
+ * <b>NONE</b> type does not check and always synchronizes the table.
+ * <b>TIMESTAMP_INDEX</b> type looks up the first record past the watermark 
+ * of the table, which only reads a single index entry when the timestamp 
+ * attribute is indexed.
+ * <b>UPDATE_TIME</b> type compares the UPDATE_TIME of the table in 
+ * information_schema.tables with the one seen before the last 
+ * synchronization, which does not touch the table at all.
+ * <b>BATCHED</b> type probes like TIMESTAMP_INDEX, but for all tables of a 
+ * synchronization cycle in a single union query, after looking up the 
+ * missing watermarks in the client database in a single union query as 
+ * well; only the tables with new records are then synchronized.
+ * @author Arvind Sasikumar
+ */
+public enum ProbeType {
+    
+    NONE, TIMESTAMP_INDEX, UPDATE_TIME, BATCHED
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Fetches all the records to be synchronized with a single query.
+ * @author Arvind Sasikumar
+ */
+class QueryReader extends RowReader {
+    
+    private final Statement statement;
+    private final ResultSet resultSet;
+    
+    private boolean finished;
+    
+    /**
+     * Runs the given prepared query.
+     * @param statement prepared query fetching the records, with all its 
+     * parameters bound; closed along with the reader
+     * @throws SQLException if the query failed
+     */
+    QueryReader(PreparedStatement statement) throws SQLException{
+        
+        this.statement = statement;
+        this.resultSet = statement.executeQuery();
+    }
+    
+    @Override
+    boolean read(RowBatch batch) throws SQLException{
+        
+        if(finished){
+            
+            return false;
+        }
+        
+        while(!batch.isFull()){
+            
+            if(!resultSet.next()){
+                
+                finished = true;
+                break;
+            }
+            batch.add(resultSet);
+        }
+        
+        return batch.size() > 0;
+    }
+    
+    @Override
+    void close(){
+        
+        if(!finished){
+            
+            cancelStreaming(statement);
+        }
+        closeQuietly(resultSet);
+        closeQuietly(statement);
+    }
+    
+    @Override
+    void cancel(){
+        
+        cancelQuietly(statement);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+/**
+ * An object of the class sums up a verification of the client database 
+ * against the server database, as done by {@link DBSyncAgent#repair()}.
+ * @author Arvind Sasikumar
+ */
+public class RepairReport {
+    
+    private int tables;
+    private int skippedTables;
+    private int failedTables;
+    
+    private long scannedChunks;
+    private long mismatchedChunks;
+    
+    private long repairedRows;
+    private long deletedRows;
+    
+    void tableVerified(){
+        
+        tables++;
+    }
+    
+    void tableSkipped(){
+        
+        skippedTables++;
+    }
+    
+    void tableFailed(){
+        
+        failedTables++;
+    }
+    
+    void chunkScanned(boolean mismatched){
+        
+        scannedChunks++;
+        if(mismatched){
+            
+            mismatchedChunks++;
+        }
+    }
+    
+    void rowsRepaired(long repaired, long deleted){
+        
+        repairedRows += repaired;
+        deletedRows += deleted;
+    }
+    
+    /**
+     * Gets the number of tables that were verified completely.
+     * @return number of verified tables
+     */
+    public int getTables(){
+        
+        return tables;
+    }
+    
+    /**
+     * Gets the number of tables that were not verified because they have no 
+     * key attribute.
+     * @return number of skipped tables
+     */
+    public int getSkippedTables(){
+        
+        return skippedTables;
+    }
+    
+    /**
+     * Gets the number of tables whose verification failed.
+     * @return number of failed tables
+     */
+    public int getFailedTables(){
+        
+        return failedTables;
+    }
+    
+    /**
+     * Gets the number of key ranges whose checksums were compared, including 
+     * the ranges that mismatched ranges were split into.
+     * @return number of scanned chunks
+     */
+    public long getScannedChunks(){
+        
+        return scannedChunks;
+    }
+    
+    /**
+     * Gets the number of key ranges whose checksums differed.
+     * @return number of mismatched chunks
+     */
+    public long getMismatchedChunks(){
+        
+        return mismatchedChunks;
+    }
+    
+    /**
+     * Gets the number of records that were missing from or differed in the 
+     * client database and were copied over again.
+     * @return number of repaired records
+     */
+    public long getRepairedRows(){
+        
+        return repairedRows;
+    }
+    
+    /**
+     * Gets the number of records of the client database that no longer 
+     * exist in the server database and were deleted.
+     * @return number of deleted records
+     */
+    public long getDeletedRows(){
+        
+        return deletedRows;
+    }
+    
+    @Override
+    public String toString(){
+        
+        return tables + " tables verified (" + skippedTables + " skipped, " + 
+                failedTables + " failed), " + scannedChunks + 
+                " chunks scanned, " + mismatchedChunks + " mismatched, " + 
+                repairedRows + " records repaired, " + deletedRows + 
+                " records deleted";
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+
+/**
+ * Base class of all the strategies used to apply the records fetched from the 
+ * server database to a table of the client database.
+ * An applier is created for one table at a time. Records are handed over one 
+ * by one using {@link #addRow(sync.db.mysql.RowBatch, int)}; the applier is 
+ * free to hold them back until {@link #flush()} is called.
+ * @author Arvind Sasikumar
+ */
+abstract class RowApplier {
+    
+    /**
+     * Alias of the inserted record in an upsert clause.
+     */
+    private static final String ROW_ALIAS = "new";
+    
+    /**
+     * Takes NO_BACKSLASH_ESCAPES out of the sql_mode of a client session and 
+     * keeps every other mode. String literals and the fields of a 
+     * "LOAD DATA" file are escaped with backslashes, which that mode would 
+     * read as plain characters, corrupting the values or failing the 
+     * statement.
+     */
+    static final String SESSION_SQL_MODE = "set session sql_mode = " + 
+            "trim(both ',' from replace(concat(',', @@session.sql_mode, ','), " + 
+            "',NO_BACKSLASH_ESCAPES,', ','))";
+    
+    private long appliedRows;
+    
+    /**
+     * Creates the applier for the given apply type.
+     * @param applyType the way in which the records are to be applied
+     * @param connection connection to the client database
+     * @param syncPlan plan of the table the records belong to; the columns 
+     * of the fetched records are in the order of its attribute mapping
+     * @param batchSize maximum number of records held back before they are 
+     * sent to the client database
+     * @param maxStatementSize maximum size of a single statement in bytes
+     * @param upsert whether records that already exist in the destination 
+     * table are to be updated instead of failing the insert
+     * @return a new applier
+     * @throws SQLException if the applier could not be prepared
+     */
+    static RowApplier create(ApplyType applyType, Connection connection, 
+                             SyncPlan syncPlan, int batchSize, 
+                             long maxStatementSize, boolean upsert) 
+                                                        throws SQLException{
+        
+        TableMap tableMap = syncPlan.getTableMap();
+        int columnCount = syncPlan.getAttributeCount();
+        String upsertClause = upsert ? 
+                syncPlan.getUpsertClause(supportsRowAlias(connection)) : "";
+        
+        if(applyType == ApplyType.BATCH){
+            
+            return new BatchApplier(connection, syncPlan.getInsertQuery() + 
+                                    upsertClause, columnCount, batchSize);
+        }
+        
+        if(applyType == ApplyType.MULTI_ROW){
+            
+            return new MultiRowApplier(connection, syncPlan.getInsertPrefix(), 
+                    columnCount, batchSize, maxStatementSize, upsertClause);
+        }
+        
+        if(applyType == ApplyType.LOAD_DATA){
+            
+            return new LoadDataApplier(connection, tableMap.getDestinationTable(), 
+                                        tableMap.getAttributeMap(), upsert);
+        }
+        
+        return new StatementApplier(connection, syncPlan.getInsertPrefix(), 
+                                                    columnCount, upsertClause);
+    }
+    
+    /**
+     * Checks whether the client database takes an alias for the inserted 
+     * record, as in "insert ... values (...) as new on duplicate key update 
+     * a=new.a", which MySQL supports since 8.0.19. Referring to the inserted 
+     * values with values(a) has been deprecated since 8.0.20 and raises a 
+     * warning for every statement.
+     * @param connection connection to the client database
+     * @return true if the alias is supported
+     * @throws SQLException if the server version could not be read
+     */
+    static boolean supportsRowAlias(Connection connection) throws SQLException{
+        
+        String version = connection.getMetaData().getDatabaseProductVersion();
+        if(version == null || version.contains("MariaDB")){
+            
+            return false;
+        }
+        
+        int[] parts = new int[3];
+        int part = 0;
+        for(int i = 0; i < version.length() && part < parts.length; i++){
+            
+            char c = version.charAt(i);
+            if(c >= '0' && c <= '9'){
+                
+                parts[part] = parts[part] * 10 + (c - '0');
+            }
+            else if(c == '.'){
+                
+                part++;
+            }
+            else{
+                
+                break;
+            }
+        }
+        
+        if(parts[0] != 8){
+            
+            return parts[0] > 8;
+        }
+        return parts[1] > 0 || parts[2] >= 19;
+    }
+    
+    /**
+     * Generates the clause that turns an insert into an upsert.
+     * Every mapped attribute except the key attribute is overwritten with 
+     * the inserted value when the record collides with an existing one on 
+     * the primary key or a unique key of the destination table.
+     * @param attributeMap attribute mapping of the table
+     * @param keyAttribute name of the key attribute of the destination 
+     * table, null if there is none
+     * @param rowAlias whether the inserted values are referred to through an 
+     * alias of the inserted record, see 
+     * {@link #supportsRowAlias(java.sql.Connection)}, rather than with 
+     * values()
+     * @return the clause, starting with a space
+     */
+    static String generateUpsertClause(ArrayList<AttributeMap> attributeMap, 
+                                        String keyAttribute, boolean rowAlias){
+        
+        StringBuilder upsertClause = new StringBuilder();
+        if(rowAlias){
+            
+            upsertClause.append(" as ").append(ROW_ALIAS);
+        }
+        upsertClause.append(" on duplicate key update ");
+        int length = upsertClause.length();
+        
+        for(AttributeMap attribute : attributeMap){
+            
+            String destinationAttribute = attribute.getDestinationAttribute();
+            if(destinationAttribute.equalsIgnoreCase(keyAttribute)){
+                
+                continue;
+            }
+            if(upsertClause.length() != length){
+                upsertClause.append(",");
+            }
+            upsertClause.append(destinationAttribute).append("=");
+            if(rowAlias){
+                
+                upsertClause.append(ROW_ALIAS).append(".") 
+                            .append(destinationAttribute);
+            }
+            else{
+                
+                upsertClause.append("values(").append(destinationAttribute) 
+                            .append(")");
+            }
+        }
+        
+        if(upsertClause.length() == length){
+            
+            upsertClause.append(keyAttribute).append("=").append(keyAttribute);
+        }
+        return upsertClause.toString();
+    }
+    
+    /**
+     * Adds a record of the given batch.
+     * @param batch batch holding the record to be applied
+     * @param row index of the record in the batch
+     * @throws SQLException if the record could not be applied
+     */
+    abstract void addRow(RowBatch batch, int row) throws SQLException;
+    
+    /**
+     * Sends all the records held back so far to the client database.
+     * @throws SQLException if the records could not be applied
+     */
+    abstract void flush() throws SQLException;
+    
+    /**
+     * Releases the resources held by this applier.
+     * Records that have not been flushed yet are discarded.
+     * @throws SQLException if the resources could not be released
+     */
+    abstract void close() throws SQLException;
+    
+    /**
+     * Gets the number of records applied to the client database so far.
+     * @return number of records applied so far
+     */
+    long getAppliedRows(){
+        
+        return appliedRows;
+    }
+    
+    protected void rowsApplied(int rows){
+        
+        appliedRows += rows;
+    }
+}
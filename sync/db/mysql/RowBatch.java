@@ -0,0 +1,559 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+/**
+ * A batch of records fetched from the server database, waiting to be applied 
+ * to the client database.
+ * A batch has a fixed capacity and is meant to be cleared and refilled over 
+ * and over again, so the arrays holding the records are only created once. 
+ * Values are held column by column in the form given by the 
+ * {@link sync.db.mysql.ColumnCodec} of their column: integers in a long 
+ * array, doubles in a double array and everything else in an object array. 
+ * Columns whose codec is {@link sync.db.mysql.ColumnCodec#AUTO} get theirs 
+ * from the metadata of the first result set read into the batch.
+ * @author Arvind Sasikumar
+ */
+class RowBatch {
+    
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    
+    private final ColumnCodec[] codecs;
+    private final int columnCount;
+    private final int capacity;
+    
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private final boolean[][] nulls;
+    
+    private boolean resolved;
+    private int size;
+    private long byteSize;
+    private boolean pageEnd;
+    
+    /**
+     * Creates a new, empty batch holding all values as text.
+     * @param capacity maximum number of records in the batch
+     * @param columnCount number of columns of every record
+     */
+    RowBatch(int capacity, int columnCount){
+        
+        this(capacity, textCodecs(columnCount));
+    }
+    
+    /**
+     * Creates a new, empty batch.
+     * @param capacity maximum number of records in the batch
+     * @param codecs codec of every column of a record
+     */
+    RowBatch(int capacity, ColumnCodec[] codecs){
+        
+        this.codecs = codecs.clone();
+        this.columnCount = codecs.length;
+        this.capacity = Math.max(capacity, 1);
+        
+        longs = new long[columnCount][];
+        doubles = new double[columnCount][];
+        objects = new Object[columnCount][];
+        nulls = new boolean[columnCount][];
+        
+        resolved = true;
+        for(int i = 0; i < columnCount; i++){
+            
+            if(this.codecs[i] == ColumnCodec.AUTO){
+                
+                resolved = false;
+            }
+            else{
+                
+                allocate(i);
+            }
+        }
+    }
+    
+    private static ColumnCodec[] textCodecs(int columnCount){
+        
+        ColumnCodec[] codecs = new ColumnCodec[columnCount];
+        for(int i = 0; i < columnCount; i++){
+            
+            codecs[i] = ColumnCodec.TEXT;
+        }
+        return codecs;
+    }
+    
+    private void allocate(int column){
+        
+        nulls[column] = new boolean[capacity];
+        switch(codecs[column]){
+            
+            case LONG:
+                longs[column] = new long[capacity];
+                break;
+            case DOUBLE:
+                doubles[column] = new double[capacity];
+                break;
+            default:
+                objects[column] = new Object[capacity];
+        }
+    }
+    
+    private void resolve(ResultSetMetaData metaData) throws SQLException{
+        
+        for(int i = 0; i < columnCount; i++){
+            
+            if(codecs[i] == ColumnCodec.AUTO){
+                
+                codecs[i] = ColumnCodec.forColumn(metaData, i+1);
+                allocate(i);
+            }
+        }
+        resolved = true;
+    }
+    
+    /**
+     * Copies the current record of the given result set into the batch.
+     * @param rs result set positioned on the record to be copied
+     * @throws SQLException if the record could not be read
+     */
+    void add(ResultSet rs) throws SQLException{
+        
+        if(!resolved){
+            
+            resolve(rs.getMetaData());
+        }
+        
+        int row = size++;
+        for(int i = 0; i < columnCount; i++){
+            
+            Object value = null;
+            switch(codecs[i]){
+                
+                case LONG:
+                    longs[i][row] = rs.getLong(i+1);
+                    nulls[i][row] = rs.wasNull();
+                    byteSize += 8;
+                    continue;
+                case DOUBLE:
+                    doubles[i][row] = rs.getDouble(i+1);
+                    nulls[i][row] = rs.wasNull();
+                    byteSize += 8;
+                    continue;
+                case DECIMAL:
+                    value = rs.getBigDecimal(i+1);
+                    byteSize += 16;
+                    break;
+                case DATETIME:
+                    value = rs.getTimestamp(i+1);
+                    byteSize += 8;
+                    break;
+                case DATE:
+                    value = rs.getDate(i+1);
+                    byteSize += 4;
+                    break;
+                case BINARY:
+                    byte[] bytes = rs.getBytes(i+1);
+                    byteSize += bytes == null ? 0 : bytes.length;
+                    value = bytes;
+                    break;
+                default:
+                    String text = rs.getString(i+1);
+                    byteSize += text == null ? 0 : text.length();
+                    value = text;
+            }
+            objects[i][row] = value;
+            nulls[i][row] = value == null;
+        }
+    }
+    
+    /**
+     * Gets the codec of a column, which is only known for every column once 
+     * a record has been added.
+     * @param column index of the column, starting at 1 as in JDBC
+     * @return the codec
+     */
+    ColumnCodec getCodec(int column){
+        
+        return codecs[column-1];
+    }
+    
+    boolean isNull(int row, int column){
+        
+        return nulls[column-1][row];
+    }
+    
+    /**
+     * Gets a value of a record in the batch as text.
+     * Binary values are given in hexadecimal.
+     * @param row index of the record in the batch, starting at 0
+     * @param column index of the column, starting at 1 as in JDBC
+     * @return the value, null for SQL NULL
+     */
+    String getString(int row, int column){
+        
+        int i = column - 1;
+        if(nulls[i][row]){
+            
+            return null;
+        }
+        
+        switch(codecs[i]){
+            
+            case LONG:
+                return Long.toString(longs[i][row]);
+            case DOUBLE:
+                return Double.toString(doubles[i][row]);
+            case DECIMAL:
+                return ((BigDecimal)objects[i][row]).toPlainString();
+            case BINARY:
+                StringBuilder hex = new StringBuilder();
+                appendHex((byte[])objects[i][row], hex);
+                return hex.toString();
+            default:
+                return objects[i][row].toString();
+        }
+    }
+    
+    /**
+     * Gets a value of a column held with the 
+     * {@link sync.db.mysql.ColumnCodec#DATETIME} codec.
+     * @param row index of the record in the batch, starting at 0
+     * @param column index of the column, starting at 1 as in JDBC
+     * @return the value, null for SQL NULL
+     */
+    Timestamp getTimestamp(int row, int column){
+        
+        return (Timestamp)objects[column-1][row];
+    }
+    
+    /**
+     * Binds a value of a record in the batch to a statement parameter, using 
+     * the setter matching its codec.
+     * @param row index of the record in the batch, starting at 0
+     * @param column index of the column, starting at 1 as in JDBC
+     * @param statement the statement
+     * @param parameterIndex index of the parameter, starting at 1
+     * @throws SQLException if the value could not be bound
+     */
+    void bind(int row, int column, PreparedStatement statement, 
+                                    int parameterIndex) throws SQLException{
+        
+        int i = column - 1;
+        switch(codecs[i]){
+            
+            case LONG:
+                if(nulls[i][row]){
+                    
+                    statement.setNull(parameterIndex, Types.BIGINT);
+                }
+                else{
+                    
+                    statement.setLong(parameterIndex, longs[i][row]);
+                }
+                break;
+            case DOUBLE:
+                if(nulls[i][row]){
+                    
+                    statement.setNull(parameterIndex, Types.DOUBLE);
+                }
+                else{
+                    
+                    statement.setDouble(parameterIndex, doubles[i][row]);
+                }
+                break;
+            case DECIMAL:
+                statement.setBigDecimal(parameterIndex, 
+                                        (BigDecimal)objects[i][row]);
+                break;
+            case DATETIME:
+                statement.setTimestamp(parameterIndex, 
+                                        (Timestamp)objects[i][row]);
+                break;
+            case DATE:
+                statement.setDate(parameterIndex, (Date)objects[i][row]);
+                break;
+            case BINARY:
+                statement.setBytes(parameterIndex, (byte[])objects[i][row]);
+                break;
+            default:
+                statement.setString(parameterIndex, (String)objects[i][row]);
+        }
+    }
+    
+    /**
+     * Appends a value of a record in the batch as a MySQL literal: NULL, a 
+     * plain number, a hexadecimal literal for binary values, or an escaped 
+     * and quoted string for everything else. Text held for a numerical 
+     * attribute is only appended as is if it is a number, and quoted like 
+     * any other string otherwise. Strings are escaped with backslashes, so 
+     * the session must not run with NO_BACKSLASH_ESCAPES, see 
+     * {@link sync.db.mysql.RowApplier#SESSION_SQL_MODE}.
+     * @param row index of the record in the batch, starting at 0
+     * @param column index of the column, starting at 1 as in JDBC
+     * @param sql the buffer to append to
+     */
+    void appendLiteral(int row, int column, StringBuilder sql){
+        
+        int i = column - 1;
+        if(nulls[i][row]){
+            
+            sql.append("NULL");
+            return;
+        }
+        
+        switch(codecs[i]){
+            
+            case LONG:
+                sql.append(longs[i][row]);
+                break;
+            case DOUBLE:
+                sql.append(doubles[i][row]);
+                break;
+            case DECIMAL:
+                sql.append(((BigDecimal)objects[i][row]).toPlainString());
+                break;
+            case NUMBER:
+                String number = (String)objects[i][row];
+                if(isNumber(number)){
+                    
+                    sql.append(number);
+                }
+                else{
+                    
+                    sql.append('\'');
+                    appendEscaped(number, sql, false);
+                    sql.append('\'');
+                }
+                break;
+            case BINARY:
+                sql.append("X'");
+                appendHex((byte[])objects[i][row], sql);
+                sql.append('\'');
+                break;
+            default:
+                sql.append('\'');
+                appendEscaped(objects[i][row].toString(), sql, false);
+                sql.append('\'');
+        }
+    }
+    
+    /**
+     * Appends a value of a record in the batch as a field of a tab separated 
+     * "LOAD DATA" line, \N for SQL NULL. Binary values are given in 
+     * hexadecimal and have to be decoded with unhex() by the load statement.
+     * @param row index of the record in the batch, starting at 0
+     * @param column index of the column, starting at 1 as in JDBC
+     * @param line the buffer to append to
+     */
+    void appendField(int row, int column, StringBuilder line){
+        
+        int i = column - 1;
+        if(nulls[i][row]){
+            
+            line.append("\\N");
+            return;
+        }
+        
+        switch(codecs[i]){
+            
+            case LONG:
+                line.append(longs[i][row]);
+                break;
+            case DOUBLE:
+                line.append(doubles[i][row]);
+                break;
+            case DECIMAL:
+                line.append(((BigDecimal)objects[i][row]).toPlainString());
+                break;
+            case BINARY:
+                appendHex((byte[])objects[i][row], line);
+                break;
+            default:
+                appendEscaped(objects[i][row].toString(), line, true);
+        }
+    }
+    
+    /**
+     * Checks whether a string is a decimal number, with an optional sign, 
+     * fraction and exponent, that can be used in a statement as is.
+     */
+    private static boolean isNumber(String value){
+        
+        int i = 0;
+        int length = value.length();
+        if(i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')){
+            
+            i++;
+        }
+        
+        int digits = 0;
+        while(i < length && isDigit(value.charAt(i))){
+            
+            i++;
+            digits++;
+        }
+        if(i < length && value.charAt(i) == '.'){
+            
+            i++;
+            while(i < length && isDigit(value.charAt(i))){
+                
+                i++;
+                digits++;
+            }
+        }
+        if(digits == 0){
+            
+            return false;
+        }
+        
+        if(i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')){
+            
+            i++;
+            if(i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')){
+                
+                i++;
+            }
+            if(i == length){
+                
+                return false;
+            }
+            while(i < length && isDigit(value.charAt(i))){
+                
+                i++;
+            }
+        }
+        
+        return i == length;
+    }
+    
+    private static boolean isDigit(char c){
+        
+        return c >= '0' && c <= '9';
+    }
+    
+    private static void appendHex(byte[] value, StringBuilder out){
+        
+        for(byte b : value){
+            
+            out.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+    }
+    
+    /**
+     * Escapes a string for a MySQL string literal, or for a field of a 
+     * "LOAD DATA" line, where tabs are escaped as well and quotes are not.
+     */
+    private static void appendEscaped(String value, StringBuilder out, 
+                                                            boolean field){
+        
+        for(int i = 0; i < value.length(); i++){
+            
+            char c = value.charAt(i);
+            switch(c){
+                
+                case '\0':
+                    out.append("\\0");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append(field ? "\\t" : "\t");
+                    break;
+                case '\u001a':
+                    if(field){
+                        out.append(c);
+                    }
+                    else{
+                        out.append("\\Z");
+                    }
+                    break;
+                case '\'':
+                    if(field){
+                        out.append(c);
+                    }
+                    else{
+                        out.append("\\'");
+                    }
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+    
+    int size(){
+        
+        return size;
+    }
+    
+    /**
+     * Gets the approximate size of the records in the batch, counting 
+     * numbers and dates at their binary size and text at one byte per 
+     * character.
+     * @return size in bytes
+     */
+    long getByteSize(){
+        
+        return byteSize;
+    }
+    
+    boolean isFull(){
+        
+        return size == capacity;
+    }
+    
+    /**
+     * Marks this batch as the last one of a page.
+     * Every page is committed to the client database once its last batch has 
+     * been applied.
+     */
+    void markPageEnd(){
+        
+        pageEnd = true;
+    }
+    
+    boolean isPageEnd(){
+        
+        return pageEnd;
+    }
+    
+    void clear(){
+        
+        size = 0;
+        byteSize = 0;
+        pageEnd = false;
+    }
+}
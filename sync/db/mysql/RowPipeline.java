@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the batches of a {@link sync.db.mysql.RowReader} over to the thread 
+ * applying them.
+ * With a queue depth of 0, every batch is read on the calling thread when it 
+ * is asked for. Otherwise a separate reader thread fetches batches ahead of 
+ * time and queues them, so that reading from the server database overlaps 
+ * with writing to the client database. The reader can only run as far ahead 
+ * as there are free batches: a fixed set of queueDepth + 2 batches is 
+ * created up front and recycled through {@link #release(RowBatch)}, which 
+ * bounds the memory held by the pipeline no matter how far the client falls 
+ * behind.
+ * @author Arvind Sasikumar
+ */
+class RowPipeline {
+    
+    private static final RowBatch END = new RowBatch(1, 0);
+    
+    /**
+     * Time in milliseconds {@link #close()} waits for the reader thread.
+     */
+    private static final long CLOSE_TIMEOUT = 10000;
+    
+    private final RowReader rowReader;
+    
+    private final RowBatch batch;
+    
+    private final BlockingQueue<RowBatch> freeBatches;
+    private final BlockingQueue<RowBatch> fullBatches;
+    private final Thread readerThread;
+    
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private volatile boolean abandoned;
+    
+    /**
+     * Creates a new pipeline and, if a queue depth is given, starts reading.
+     * @param rowReader the reader to fetch batches from
+     * @param batchSize maximum number of records per batch
+     * @param codecs codec of every column of a record
+     * @param queueDepth maximum number of batches read ahead, 0 to read 
+     * every batch on the calling thread
+     */
+    RowPipeline(RowReader rowReader, int batchSize, ColumnCodec[] codecs, 
+                                                            int queueDepth){
+        
+        this.rowReader = rowReader;
+        
+        if(queueDepth <= 0){
+            
+            batch = new RowBatch(batchSize, codecs);
+            freeBatches = null;
+            fullBatches = null;
+            readerThread = null;
+            return;
+        }
+        
+        batch = null;
+        freeBatches = new ArrayBlockingQueue<>(queueDepth + 2);
+        fullBatches = new ArrayBlockingQueue<>(queueDepth + 3);
+        for(int i = 0; i < queueDepth + 2; i++){
+            
+            freeBatches.add(new RowBatch(batchSize, codecs));
+        }
+        
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "DBSynchronizer-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+    
+    private void readAhead(){
+        
+        try{
+            
+            while(!closed){
+                
+                RowBatch next = freeBatches.take();
+                next.clear();
+                if(!rowReader.read(next)){
+                    
+                    break;
+                }
+                fullBatches.put(next);
+            }
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+            if(!closed){
+                
+                failure = e;
+            }
+        }
+        
+        catch(Throwable e){
+            
+            // anything short of the end of the records must reach next(), 
+            // or a failed read would pass for a complete one
+            failure = e;
+        }
+        
+        finally{
+            
+            fullBatches.offer(END);
+            if(abandoned){
+                
+                rowReader.close();
+            }
+        }
+    }
+    
+    /**
+     * Gets the next batch of records.
+     * @return the next batch, null if there are no more records
+     * @throws SQLException if the records could not be fetched, wrapping 
+     * whatever else the reader thread failed with
+     */
+    RowBatch next() throws SQLException{
+        
+        if(readerThread == null){
+            
+            batch.clear();
+            return rowReader.read(batch) ? batch : null;
+        }
+        
+        RowBatch next;
+        try{
+            
+            next = fullBatches.take();
+        }
+        
+        catch(InterruptedException e){
+            
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for records", e);
+        }
+        
+        if(next == END){
+            
+            fullBatches.offer(END);
+            if(failure instanceof SQLException){
+                
+                throw (SQLException)failure;
+            }
+            if(failure != null){
+                
+                throw new SQLException("Reading records failed", failure);
+            }
+            return null;
+        }
+        
+        return next;
+    }
+    
+    /**
+     * Hands a batch obtained from {@link #next()} back once it has been 
+     * applied, so that it can be refilled.
+     * @param applied the batch that has been applied
+     */
+    void release(RowBatch applied){
+        
+        if(freeBatches != null){
+            
+            freeBatches.offer(applied);
+        }
+    }
+    
+    /**
+     * Stops the reader thread, if any, and closes the reader.
+     * A reader thread blocked in a socket read does not respond to 
+     * interrupts, so its query is cancelled first. If the thread still has 
+     * not stopped after {@link #CLOSE_TIMEOUT} milliseconds, it is left to 
+     * close the reader itself whenever its read returns, and this method 
+     * returns without waiting any longer.
+     */
+    void close(){
+        
+        closed = true;
+        
+        if(readerThread != null){
+            
+            rowReader.cancel();
+            readerThread.interrupt();
+            try{
+                
+                readerThread.join(CLOSE_TIMEOUT);
+            }
+            
+            catch(InterruptedException e){
+                
+                Thread.currentThread().interrupt();
+            }
+            
+            if(readerThread.isAlive()){
+                
+                System.out.println("Reader thread did not stop within " + 
+                        CLOSE_TIMEOUT + " ms, leaving it to close the reader");
+                abandoned = true;
+                if(readerThread.isAlive()){
+                    
+                    return;
+                }
+            }
+        }
+        
+        rowReader.close();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Base class of the ways in which records are fetched from the server 
+ * database, one batch at a time.
+ * @author Arvind Sasikumar
+ */
+abstract class RowReader {
+    
+    /**
+     * Fills the given batch with the next records.
+     * @param batch an empty batch
+     * @return false if there are no more records to read
+     * @throws SQLException if the records could not be fetched
+     */
+    abstract boolean read(RowBatch batch) throws SQLException;
+    
+    /**
+     * Releases the statements and result sets held by this reader.
+     */
+    abstract void close();
+    
+    /**
+     * Cancels the query of this reader, if one is running, so that a read 
+     * blocked on the server database returns. May be called from any thread.
+     */
+    abstract void cancel();
+    
+    /**
+     * Cancels the query of a result that is streamed row by row (fetch size 
+     * of {@link Integer#MIN_VALUE}) and has not been read to the end.
+     * Closing such a result otherwise reads and discards all its remaining 
+     * rows first, the rest of the table in the middle of a catch-up.
+     * @param statement the statement running the query
+     */
+    protected static void cancelStreaming(Statement statement){
+        
+        try{
+            
+            if(statement.getFetchSize() == Integer.MIN_VALUE){
+                
+                cancelQuietly(statement);
+            }
+        }
+        
+        catch(SQLException e){
+            
+            // the statement has already been closed
+        }
+    }
+    
+    protected static void cancelQuietly(Statement statement){
+        
+        try{
+            
+            statement.cancel();
+        }
+        
+        catch(SQLException e){
+            
+            // the query may have finished or failed in the meantime
+        }
+    }
+    
+    protected static void closeQuietly(AutoCloseable closeable){
+        
+        if(closeable == null){
+            
+            return;
+        }
+        
+        try{
+            
+            closeable.close();
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies tables into empty destination tables for a snapshot, with their 
+ * secondary indexes dropped while the records are copied and added back 
+ * afterwards.
+ * @author Arvind Sasikumar
+ */
+class SnapshotLoader {
+    
+    private final DBSynchronizer synchronizer;
+    private final DBMap dbMap;
+    
+    /**
+     * Creates a new snapshot loader.
+     * @param synchronizer the synchronizer the snapshot is taken by, which 
+     * synchronizes the records and holds the watermark store
+     * @param dbMap database map
+     */
+    SnapshotLoader(DBSynchronizer synchronizer, DBMap dbMap){
+        
+        this.synchronizer = synchronizer;
+        this.dbMap = dbMap;
+    }
+    
+    /**
+     * Copies a table in bulk if its destination table is empty, and 
+     * synchronizes it as usual otherwise.
+     * Before the copy, the non-unique secondary indexes of the destination 
+     * table are dropped and unique and foreign key checks are turned off for 
+     * the session, and for the sessions of any slices; afterwards the checks 
+     * are restored and the indexes are added back with a single alter table, 
+     * which builds them in one pass rather than record by record. Indexes on 
+     * expressions and indexes that back a foreign key are kept. The dropped 
+     * indexes are kept in the watermark store until they have been added 
+     * back, so a snapshot interrupted by a crash is continued, rather than 
+     * taken as a table that is not empty, and its indexes are added back.
+     * @param tableMap the table to copy
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @return number of records applied
+     * @throws SQLException if the table could not be copied or its indexes 
+     * could not be added back
+     */
+    long snapshotTable(TableMap tableMap, Connection serverConnection, 
+                            Connection clientConnection) throws SQLException{
+        
+        String destinationTable = tableMap.getDestinationTable();
+        List<String> indexes = synchronizer.getWatermarkStore()
+                                                .getPendingIndexes(tableMap);
+        
+        Statement clientStatement = clientConnection.createStatement();
+        try{
+            
+            ResultSet rs = clientStatement.executeQuery("select 1 from " + 
+                                                destinationTable + " limit 1");
+            boolean empty = !rs.next();
+            rs.close();
+            if(!empty && indexes == null){
+                
+                System.out.println(destinationTable + 
+                                " is not empty, synchronizing it as usual");
+                return synchronizer.syncTable(tableMap, serverConnection, 
+                                                    clientConnection, false);
+            }
+        }
+        
+        finally{
+            
+            clientStatement.close();
+        }
+        
+        if(indexes != null){
+            
+            System.out.println("Continuing the interrupted snapshot of " + 
+                                                            destinationTable);
+        }
+        else{
+            
+            indexes = dropSecondaryIndexes(clientConnection, tableMap);
+        }
+        
+        int[] checks = disableChecks(clientConnection);
+        long rows;
+        try{
+            
+            rows = synchronizer.syncTable(tableMap, serverConnection, 
+                                                    clientConnection, true);
+        }
+        
+        catch(SQLException | RuntimeException e){
+            
+            finishSnapshot(tableMap, clientConnection, checks, indexes, e);
+            throw e;
+        }
+        
+        finishSnapshot(tableMap, clientConnection, checks, indexes, null);
+        return rows;
+    }
+    
+    /**
+     * Restores the checks and adds the dropped indexes of a table back once 
+     * its snapshot has ended.
+     * @param tableMap the table copied
+     * @param clientConnection connection to the client database
+     * @param checks the checks returned by {@link #disableChecks(Connection)}
+     * @param indexes the clauses of an alter table that add the dropped 
+     * indexes back
+     * @param failure what the copy failed with, to which a failure to add 
+     * the indexes back is attached; null if the copy succeeded
+     * @throws SQLException if the copy succeeded but the indexes could not 
+     * be added back
+     */
+    private void finishSnapshot(TableMap tableMap, Connection clientConnection, 
+                    int[] checks, List<String> indexes, Exception failure) 
+                                                        throws SQLException{
+        
+        restoreChecks(clientConnection, checks);
+        
+        try{
+            
+            rebuildIndexes(tableMap, clientConnection, indexes);
+        }
+        
+        catch(SQLException e){
+            
+            System.out.println("Could not add back the indexes of " + 
+                    tableMap.getDestinationTable() + ", retrying on the next " + 
+                    "start: " + e.getMessage());
+            if(failure == null){
+                
+                throw e;
+            }
+            failure.addSuppressed(e);
+        }
+    }
+    
+    /**
+     * Turns unique and foreign key checks off for the session.
+     * @param clientConnection connection to the client database
+     * @return the checks to pass to 
+     * {@link #restoreChecks(Connection, int[])}
+     * @throws SQLException if the checks could not be turned off
+     */
+    static int[] disableChecks(Connection clientConnection) throws SQLException{
+        
+        Statement clientStatement = clientConnection.createStatement();
+        try{
+            
+            ResultSet rs = clientStatement.executeQuery(
+                    "select @@session.unique_checks, @@session.foreign_key_checks");
+            rs.next();
+            int[] checks = {rs.getInt(1), rs.getInt(2)};
+            rs.close();
+            
+            clientStatement.execute(
+                    "set session unique_checks = 0, foreign_key_checks = 0");
+            return checks;
+        }
+        
+        finally{
+            
+            clientStatement.close();
+        }
+    }
+    
+    /**
+     * Restores the unique and foreign key checks of the session.
+     * A connection whose checks cannot be restored is closed, so that its 
+     * pool replaces it instead of lending it out without checks.
+     * @param clientConnection connection to the client database
+     * @param checks the checks returned by {@link #disableChecks(Connection)}
+     */
+    static void restoreChecks(Connection clientConnection, int[] checks){
+        
+        try{
+            
+            Statement clientStatement = clientConnection.createStatement();
+            try{
+                
+                clientStatement.execute("set session unique_checks = " + 
+                        checks[0] + ", foreign_key_checks = " + checks[1]);
+            }
+            
+            finally{
+                
+                clientStatement.close();
+            }
+        }
+        
+        catch(SQLException e){
+            
+            e.printStackTrace();
+            try{
+                
+                clientConnection.close();
+            }
+            
+            catch(SQLException closeFailure){
+                
+                // closed anyway
+            }
+        }
+    }
+    
+    /**
+     * Adds the indexes dropped by a snapshot back to a destination table 
+     * with a single alter table, and forgets them in the watermark store.
+     * Indexes that exist already, because the alter table of an earlier 
+     * attempt went through, are left out.
+     * @param tableMap the table the indexes belong to
+     * @param clientConnection connection to the client database
+     * @param indexes the clauses of an alter table that add the indexes back
+     * @throws SQLException if the indexes could not be added back
+     */
+    private void rebuildIndexes(TableMap tableMap, Connection clientConnection, 
+                                    List<String> indexes) throws SQLException{
+        
+        String destinationTable = tableMap.getDestinationTable();
+        Set<String> existing = indexes.isEmpty() ? new HashSet<String>() 
+                                : getIndexNames(clientConnection, destinationTable);
+        
+        List<String> missing = new ArrayList<>();
+        for(String index : indexes){
+            
+            int start = index.indexOf('`') + 1;
+            if(!existing.contains(index.substring(start, 
+                                        index.indexOf('`', start)).toLowerCase())){
+                
+                missing.add(index);
+            }
+        }
+        
+        if(!missing.isEmpty()){
+            
+            System.out.println("Rebuilding " + missing.size() + 
+                                " indexes of " + destinationTable + "...");
+            long startTime = System.nanoTime();
+            
+            StringBuilder alterQuery = new StringBuilder("alter table ")
+                                                .append(destinationTable);
+            for(int i = 0; i < missing.size(); i++){
+                
+                alterQuery.append(i > 0 ? ", " : " ").append(missing.get(i));
+            }
+            Statement clientStatement = clientConnection.createStatement();
+            try{
+                
+                clientStatement.executeUpdate(alterQuery.toString());
+            }
+            
+            finally{
+                
+                clientStatement.close();
+            }
+            
+            System.out.println("Rebuilt indexes in " + String.format("%.2f", 
+                    (System.nanoTime() - startTime) / 1e9) + " seconds");
+        }
+        
+        WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        if(watermarkStore.getPendingIndexes(tableMap) != null){
+            
+            watermarkStore.removePendingIndexes(tableMap);
+            watermarkStore.save();
+        }
+    }
+    
+    /**
+     * Adds back the indexes of every table that a snapshot dropped and did 
+     * not add back, e.g. because the agent crashed while copying the table.
+     */
+    void rebuildPendingIndexes(){
+        
+        final WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        for(final TableMap tableMap : watermarkStore.getTablesWithPendingIndexes(
+                                                        dbMap.getTableMap())){
+            
+            try{
+                
+                synchronizer.runOnPair(new DBSynchronizer.PairTask<Void>() {
+                    @Override
+                    public Void run(Connection serverConnection, 
+                            Connection clientConnection) throws SQLException {
+                        rebuildIndexes(tableMap, clientConnection, 
+                                    watermarkStore.getPendingIndexes(tableMap));
+                        return null;
+                    }
+                });
+            }
+            
+            catch(Exception e){
+                
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private Set<String> getIndexNames(Connection clientConnection, String table) 
+                                                        throws SQLException{
+        
+        Set<String> indexNames = new HashSet<>();
+        
+        PreparedStatement indexStatement = InformationSchema.prepareTableQuery(
+                clientConnection, "distinct index_name", "statistics", table, "");
+        try{
+            
+            ResultSet rs = indexStatement.executeQuery();
+            while(rs.next()){
+                
+                indexNames.add(rs.getString(1).toLowerCase());
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            indexStatement.close();
+        }
+        
+        return indexNames;
+    }
+    
+    /**
+     * Drops the non-unique secondary indexes of a destination table.
+     * Every dropped index is saved in the watermark store right away.
+     * @param clientConnection connection to the client database
+     * @param tableMap the table to drop the indexes of
+     * @return the clauses of an alter table that add the dropped indexes back
+     * @throws SQLException if the indexes could not be looked up
+     */
+    private List<String> dropSecondaryIndexes(Connection clientConnection, 
+                                    TableMap tableMap) throws SQLException{
+        
+        String table = tableMap.getDestinationTable();
+        Map<String, StringBuilder> definitions = new LinkedHashMap<>();
+        List<String> keptIndexes = new ArrayList<>();
+        
+        PreparedStatement indexStatement = InformationSchema.prepareTableQuery(
+                clientConnection, 
+                "index_name, column_name, sub_part, collation, index_type", 
+                "statistics", table, 
+                " and non_unique = 1 order by index_name, seq_in_index");
+        try{
+            
+            ResultSet rs = indexStatement.executeQuery();
+            while(rs.next()){
+                
+                String indexName = rs.getString(1);
+                String columnName = rs.getString(2);
+                if(columnName == null){
+                    
+                    keptIndexes.add(indexName);
+                    continue;
+                }
+                
+                StringBuilder definition = definitions.get(indexName);
+                if(definition == null){
+                    
+                    String indexType = rs.getString(5);
+                    definition = new StringBuilder("add ")
+                        .append(indexType.equals("FULLTEXT") || indexType.equals("SPATIAL") 
+                                ? indexType.toLowerCase() + " " : "")
+                        .append("index `").append(indexName).append("` (");
+                    definitions.put(indexName, definition);
+                }
+                else{
+                    
+                    definition.append(", ");
+                }
+                
+                definition.append('`').append(columnName).append('`');
+                if(rs.getObject(3) != null){
+                    
+                    definition.append('(').append(rs.getInt(3)).append(')');
+                }
+                if("D".equals(rs.getString(4))){
+                    
+                    definition.append(" desc");
+                }
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            indexStatement.close();
+        }
+        
+        List<String> indexes = new ArrayList<>();
+        WatermarkStore watermarkStore = synchronizer.getWatermarkStore();
+        Statement clientStatement = clientConnection.createStatement();
+        try{
+            
+            for(Map.Entry<String, StringBuilder> index : definitions.entrySet()){
+                
+                if(keptIndexes.contains(index.getKey())){
+                    
+                    continue;
+                }
+                
+                String definition = index.getValue().append(")").toString();
+                try{
+                    
+                    indexes.add(definition);
+                    watermarkStore.putPendingIndexes(tableMap, indexes);
+                    watermarkStore.save();
+                    clientStatement.executeUpdate("alter table " + table + 
+                                    " drop index `" + index.getKey() + "`");
+                    System.out.println("Dropped index " + index.getKey() + 
+                                " of " + table + ", to be added back with: " + 
+                                definition);
+                }
+                
+                catch(SQLException e){
+                    
+                    indexes.remove(indexes.size() - 1);
+                    if(indexes.isEmpty()){
+                        
+                        watermarkStore.removePendingIndexes(tableMap);
+                    }
+                    else{
+                        
+                        watermarkStore.putPendingIndexes(tableMap, indexes);
+                    }
+                    watermarkStore.save();
+                    System.out.println("Keeping index " + index.getKey() + 
+                                        " of " + table + ": " + e.getMessage());
+                }
+            }
+        }
+        
+        finally{
+            
+            clientStatement.close();
+        }
+        
+        return indexes;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Applies every record using its own insert statement.
+ * With an upsert clause, an existing record is updated instead.
+ * @author Arvind Sasikumar
+ */
+class StatementApplier extends RowApplier {
+    
+    private final Statement statement;
+    
+    private final String insertPrefix;
+    private final int columnCount;
+    private final String upsertClause;
+    
+    private final StringBuilder updateQuery = new StringBuilder(256);
+    
+    StatementApplier(Connection connection, String insertPrefix, 
+                     int columnCount, String upsertClause) throws SQLException{
+        
+        this.statement = connection.createStatement();
+        this.insertPrefix = insertPrefix;
+        this.columnCount = columnCount;
+        this.upsertClause = upsertClause;
+    }
+    
+    private String generateUpdateQuery(RowBatch batch, int row){
+        
+        updateQuery.setLength(0);
+        updateQuery.append(insertPrefix).append("(");
+        for(int i = 1; i <= columnCount; i++){
+            
+            batch.appendLiteral(row, i, updateQuery);
+            if(i != columnCount){
+                updateQuery.append(",");
+            }
+        }
+        updateQuery.append(")").append(upsertClause);
+        return updateQuery.toString();
+    }
+    
+    @Override
+    void addRow(RowBatch batch, int row) throws SQLException{
+        
+        statement.executeUpdate(generateUpdateQuery(batch, row));
+        rowsApplied(1);
+    }
+    
+    @Override
+    void flush(){
+        
+    }
+    
+    @Override
+    void close() throws SQLException{
+        
+        statement.close();
+    }
+}
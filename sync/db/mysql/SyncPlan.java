@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.util.ArrayList;
+
+/**
+ * The statements and column layout used to synchronize a table, compiled 
+ * once from its {@link sync.db.mysql.TableMap}.
+ * A plan is immutable, so it is built the first time the table is 
+ * synchronized and shared by every cycle, slice and applier after that. All 
+ * queries of a table are prepared from the same text every time, which lets 
+ * Connector/J reuse their server side prepared statements when 
+ * "useServerPrepStmts=true&amp;cachePrepStmts=true" is set in the server 
+ * connection options.
+ * <p>
+ * The fetched records hold the mapped attributes first, followed by the 
+ * timestamp attribute and, for paged queries, the key attribute. Whatever 
+ * their mapping, the timestamp is always read with getTimestamp(), which 
+ * also takes DATE columns, and the key as text, which is what watermarks 
+ * are made of.
+ * @author Arvind Sasikumar
+ */
+class SyncPlan {
+    
+    private final TableMap tableMap;
+    private final int attributeCount;
+    
+    private final String afterCondition;
+    private final String selectQuery;
+    private final String pageQuery;
+    private final String explainQuery;
+    private final String probeQuery;
+    private final String boundsQuery;
+    private final String firstSliceQuery;
+    private final String sliceQuery;
+    private final String lastSliceQuery;
+    private final String topKeyQuery;
+    private final String keyFetchPrefix;
+    
+    private final ColumnCodec[] selectCodecs;
+    private final ColumnCodec[] pageCodecs;
+    
+    private final String insertPrefix;
+    private final String insertQuery;
+    private final String upsertClause;
+    private final String legacyUpsertClause;
+    
+    /**
+     * Compiles the plan of a table.
+     * @param tableMap the table to compile the plan of
+     * @param pageSize number of records per page, 0 if the table is not 
+     * fetched in pages
+     * @param ordered whether records fetched without pages are to be ordered 
+     * by timestamp
+     */
+    SyncPlan(TableMap tableMap, int pageSize, boolean ordered){
+        
+        ArrayList<AttributeMap> attributeMap = tableMap.getAttributeMap();
+        String sourceTable = tableMap.getSourceTable();
+        String timestampAttribute = tableMap.getSourceTimestampAttribute();
+        String keyAttribute = tableMap.getSourceKeyAttribute();
+        
+        this.tableMap = tableMap;
+        this.attributeCount = attributeMap.size();
+        boolean keyed = keyAttribute != null;
+        
+        StringBuilder columns = new StringBuilder();
+        for(AttributeMap attribute : attributeMap){
+            
+            columns.append(attribute.getSourceAttribute()).append(", ");
+        }
+        columns.append(timestampAttribute);
+        
+        if(keyed){
+            
+            afterCondition = timestampAttribute + " >= ? and (" + 
+                    timestampAttribute + " > ? or " + keyAttribute + " > ?)";
+        }
+        else{
+            
+            afterCondition = timestampAttribute + " > ?";
+        }
+        
+        String select = "select " + columns + " from " + sourceTable + " where ";
+        String order = ordered ? " order by " + timestampAttribute : "";
+        String sliceEnd = " and " + timestampAttribute + " <= ?";
+        String lastSliceEnd = !keyed ? sliceEnd : " and " + timestampAttribute + 
+                    " <= ? and (" + timestampAttribute + " < ? or " + 
+                    keyAttribute + " <= ?)";
+        
+        selectQuery = select + afterCondition + order;
+        firstSliceQuery = select + afterCondition + sliceEnd + order;
+        sliceQuery = select + timestampAttribute + " > ?" + sliceEnd + order;
+        lastSliceQuery = select + timestampAttribute + " > ?" + lastSliceEnd + order;
+        keyFetchPrefix = keyed ? select + keyAttribute + " in (" : null;
+        topKeyQuery = keyed ? "select max(" + keyAttribute + ") from " + 
+                sourceTable + " where " + timestampAttribute + " = ?" : null;
+        
+        if(keyed && pageSize > 0){
+            
+            pageQuery = "select " + columns + ", " + keyAttribute + " from " + 
+                    sourceTable + " where " + afterCondition + " order by " + 
+                    timestampAttribute + ", " + keyAttribute + " limit " + pageSize;
+        }
+        else{
+            
+            pageQuery = null;
+        }
+        
+        explainQuery = "explain select 1 from " + sourceTable + " where " + 
+                                                                afterCondition;
+        probeQuery = "select 1 from " + sourceTable + " where " + 
+                                                    afterCondition + " limit 1";
+        boundsQuery = "select min(" + timestampAttribute + "), max(" + 
+                        timestampAttribute + ") from " + sourceTable + 
+                        " where " + afterCondition;
+        
+        selectCodecs = ColumnCodec.forColumns(attributeMap, ColumnCodec.DATETIME);
+        pageCodecs = ColumnCodec.forColumns(attributeMap, ColumnCodec.DATETIME, 
+                                                            ColumnCodec.TEXT);
+        
+        StringBuilder insert = new StringBuilder("insert into ")
+                            .append(tableMap.getDestinationTable()).append("(");
+        StringBuilder placeholders = new StringBuilder("(");
+        for(int i = 0; i < attributeCount; i++){
+            
+            if(i != 0){
+                insert.append(",");
+                placeholders.append(",");
+            }
+            insert.append(attributeMap.get(i).getDestinationAttribute());
+            placeholders.append("?");
+        }
+        insertPrefix = insert.append(") values ").toString();
+        insertQuery = insertPrefix + placeholders.append(")");
+        upsertClause = RowApplier.generateUpsertClause(attributeMap, 
+                                tableMap.getDestinationKeyAttribute(), true);
+        legacyUpsertClause = RowApplier.generateUpsertClause(attributeMap, 
+                                tableMap.getDestinationKeyAttribute(), false);
+    }
+    
+    TableMap getTableMap(){
+        
+        return tableMap;
+    }
+    
+    int getAttributeCount(){
+        
+        return attributeCount;
+    }
+    
+    /**
+     * Index of the timestamp attribute in the fetched records, starting at 1, 
+     * held with the {@link sync.db.mysql.ColumnCodec#DATETIME} codec.
+     */
+    int getTimestampColumn(){
+        
+        return attributeCount + 1;
+    }
+    
+    /**
+     * Index of the key attribute in the records fetched in pages, starting 
+     * at 1, held as text.
+     */
+    int getKeyColumn(){
+        
+        return attributeCount + 2;
+    }
+    
+    /**
+     * Gets the condition matching all records after a watermark: the keyset 
+     * condition in (timestamp, key) order for tables with a key attribute, 
+     * which takes the watermark timestamp twice followed by the watermark 
+     * key, otherwise a plain comparison on the timestamp attribute.
+     */
+    String getAfterCondition(){
+        
+        return afterCondition;
+    }
+    
+    String getSelectQuery(){
+        
+        return selectQuery;
+    }
+    
+    /**
+     * Gets the query fetching one page, null unless the table has a key 
+     * attribute and is fetched in pages.
+     */
+    String getPageQuery(){
+        
+        return pageQuery;
+    }
+    
+    /**
+     * Gets the query the optimizer estimates the backlog after a watermark 
+     * with, without reading the records.
+     */
+    String getExplainQuery(){
+        
+        return explainQuery;
+    }
+    
+    String getProbeQuery(){
+        
+        return probeQuery;
+    }
+    
+    /**
+     * Gets the query of the lowest and highest timestamp after a watermark.
+     */
+    String getBoundsQuery(){
+        
+        return boundsQuery;
+    }
+    
+    /**
+     * Gets the query fetching a slice: the first one continues from the 
+     * watermark, every other one from the end of the slice below, and each 
+     * takes the end of the slice as its last parameter. For tables with a 
+     * key attribute, the last slice ends at a (timestamp, key) position 
+     * instead, bound like a watermark, so that records added later with 
+     * the same timestamp are left to the next synchronization. A slice is 
+     * never both the first and the last one.
+     */
+    String getSliceQuery(boolean first, boolean last){
+        
+        return first ? firstSliceQuery : last ? lastSliceQuery : sliceQuery;
+    }
+    
+    /**
+     * Gets the query of the highest key among the records with a given 
+     * timestamp, null unless the table has a key attribute.
+     */
+    String getTopKeyQuery(){
+        
+        return topKeyQuery;
+    }
+    
+    /**
+     * Gets the start of the query fetching the records with given keys, to 
+     * be completed with the placeholders of the keys and a closing 
+     * parenthesis; null unless the table has a key attribute.
+     */
+    String getKeyFetchPrefix(){
+        
+        return keyFetchPrefix;
+    }
+    
+    ColumnCodec[] getSelectCodecs(){
+        
+        return selectCodecs;
+    }
+    
+    ColumnCodec[] getPageCodecs(){
+        
+        return pageCodecs;
+    }
+    
+    /**
+     * Gets "insert into table(attributes) values ".
+     */
+    String getInsertPrefix(){
+        
+        return insertPrefix;
+    }
+    
+    /**
+     * Gets the parameterized insert statement of one record.
+     */
+    String getInsertQuery(){
+        
+        return insertQuery;
+    }
+    
+    /**
+     * Gets the clause that turns an insert into an upsert, starting with a 
+     * space.
+     * @param rowAlias whether the client database takes an alias for the 
+     * inserted record, see 
+     * {@link sync.db.mysql.RowApplier#supportsRowAlias(java.sql.Connection)}
+     */
+    String getUpsertClause(boolean rowAlias){
+        
+        return rowAlias ? upsertClause : legacyUpsertClause;
+    }
+}
@@ -29,9 +29,15 @@ package sync.db.mysql;
  * <p>
  * <b>SYNC</b> type refers to one-off synchronization.
  * <b>LIVE_SYNC</b> type refers to live synchronization.
+ * <b>BINLOG</b> type refers to replaying inserts, updates and deletes from the 
+ * binary log of the server database.
+ * <b>CHANGELOG</b> type refers to applying the inserts, updates and deletes 
+ * logged by triggers into a changelog table of the server database.
+ * <b>SNAPSHOT</b> type refers to a bulk copy into empty destination tables 
+ * with their secondary indexes deferred, followed by live synchronization.
  * @author Arvind Sasikumar
  */
 public enum SyncType {
     
-    SYNC, LIVE_SYNC
+    SYNC, LIVE_SYNC, BINLOG, CHANGELOG, SNAPSHOT
 }
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes checksums of ranges of keys of a table on either database, so 
+ * that the source and the destination table can be compared without 
+ * transferring their records.
+ * The checksum of a record is the CRC32 of its mapped attributes, and the 
+ * checksum of a range is the BIT_XOR of the checksums of its records along 
+ * with their count; both are computed by the database. A range holds the 
+ * keys greater than its lower bound and up to its upper bound, where a null 
+ * bound leaves the range open on that side. The mapped attributes must have 
+ * the same types in both tables, otherwise their values are written 
+ * differently and every range differs.
+ * @author Arvind Sasikumar
+ */
+class TableChecksum {
+    
+    private final TableMap tableMap;
+    
+    private final String sourceChecksum;
+    private final String destinationChecksum;
+    
+    /**
+     * Creates the checksums of a table with a key attribute.
+     * @param tableMap the table to compare
+     */
+    TableChecksum(TableMap tableMap){
+        
+        this.tableMap = tableMap;
+        
+        ArrayList<String> sourceAttributes = new ArrayList<>();
+        ArrayList<String> destinationAttributes = new ArrayList<>();
+        for(AttributeMap attributeMap : tableMap.getAttributeMap()){
+            
+            sourceAttributes.add(attributeMap.getSourceAttribute());
+            destinationAttributes.add(attributeMap.getDestinationAttribute());
+        }
+        
+        sourceChecksum = generateRowChecksum(sourceAttributes);
+        destinationChecksum = generateRowChecksum(destinationAttributes);
+    }
+    
+    /**
+     * Generates the expression computing the checksum of a record.
+     * NULL values are left out by concat_ws, so whether each attribute is 
+     * NULL is added as well.
+     * @param attributes the attributes to cover
+     * @return the expression
+     */
+    private static String generateRowChecksum(ArrayList<String> attributes){
+        
+        StringBuilder checksum = new StringBuilder("crc32(concat_ws('#'");
+        for(String attribute : attributes){
+            
+            checksum.append(", ").append(attribute);
+        }
+        for(String attribute : attributes){
+            
+            checksum.append(", isnull(").append(attribute).append(")");
+        }
+        return checksum.append("))").toString();
+    }
+    
+    private String generateRangeQuery(String select, boolean source, 
+                                                String low, String high){
+        
+        String keyAttribute = source ? tableMap.getSourceKeyAttribute() 
+                                     : tableMap.getDestinationKeyAttribute();
+        
+        StringBuilder query = new StringBuilder("select ").append(select)
+                .append(" from ").append(source ? tableMap.getSourceTable() 
+                                                : tableMap.getDestinationTable());
+        if(low != null){
+            
+            query.append(" where ").append(keyAttribute).append(" > ?");
+        }
+        if(high != null){
+            
+            query.append(low != null ? " and " : " where ")
+                 .append(keyAttribute).append(" <= ?");
+        }
+        return query.toString();
+    }
+    
+    private static void bindRange(PreparedStatement statement, String low, 
+                                        String high) throws SQLException{
+        
+        int parameterIndex = 1;
+        if(low != null){
+            
+            statement.setString(parameterIndex++, low);
+        }
+        if(high != null){
+            
+            statement.setString(parameterIndex, high);
+        }
+    }
+    
+    /**
+     * Computes the checksum of a range.
+     * @param connection connection to the database holding the table
+     * @param source true for the source table, false for the destination 
+     * table
+     * @param low lower bound of the range, exclusive, null for none
+     * @param high upper bound of the range, inclusive, null for none
+     * @return the number of records in the range followed by their checksum
+     * @throws SQLException if the checksum could not be computed
+     */
+    long[] getChecksum(Connection connection, boolean source, String low, 
+                                        String high) throws SQLException{
+        
+        long[] checksum = new long[2];
+        
+        PreparedStatement checksumStatement = connection.prepareStatement(
+                generateRangeQuery("count(*), coalesce(bit_xor(" + 
+                        (source ? sourceChecksum : destinationChecksum) + 
+                        "), 0)", source, low, high));
+        try{
+            
+            bindRange(checksumStatement, low, high);
+            ResultSet rs = checksumStatement.executeQuery();
+            while(rs.next()){
+                
+                checksum[0] = rs.getLong(1);
+                checksum[1] = rs.getLong(2);
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            checksumStatement.close();
+        }
+        
+        return checksum;
+    }
+    
+    /**
+     * Computes the checksum of every record of a range.
+     * @param connection connection to the database holding the table
+     * @param source true for the source table, false for the destination 
+     * table
+     * @param low lower bound of the range, exclusive, null for none
+     * @param high upper bound of the range, inclusive, null for none
+     * @return the checksums by key
+     * @throws SQLException if the checksums could not be computed
+     */
+    Map<String, Long> getRowChecksums(Connection connection, boolean source, 
+                            String low, String high) throws SQLException{
+        
+        Map<String, Long> checksums = new LinkedHashMap<>();
+        
+        String keyAttribute = source ? tableMap.getSourceKeyAttribute() 
+                                     : tableMap.getDestinationKeyAttribute();
+        PreparedStatement checksumStatement = connection.prepareStatement(
+                generateRangeQuery(keyAttribute + ", " + 
+                        (source ? sourceChecksum : destinationChecksum), 
+                        source, low, high));
+        try{
+            
+            bindRange(checksumStatement, low, high);
+            ResultSet rs = checksumStatement.executeQuery();
+            while(rs.next()){
+                
+                checksums.put(rs.getString(1), rs.getLong(2));
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            checksumStatement.close();
+        }
+        
+        return checksums;
+    }
+    
+    /**
+     * Gets the key of the source or destination table at a position of a 
+     * range, in key order.
+     * @param connection connection to the server database for the source 
+     * table, to the client database for the destination table
+     * @param source whether to read the source table
+     * @param low lower bound of the range, exclusive, null for none
+     * @param high upper bound of the range, inclusive, null for none
+     * @param offset number of keys of the range to skip
+     * @return the key, null if the range holds no more than offset keys
+     * @throws SQLException if the key could not be read
+     */
+    String getKeyAt(Connection connection, boolean source, String low, 
+                        String high, long offset) throws SQLException{
+        
+        String key = null;
+        
+        String keyAttribute = source ? tableMap.getSourceKeyAttribute() 
+                                     : tableMap.getDestinationKeyAttribute();
+        PreparedStatement keyStatement = connection.prepareStatement(
+                generateRangeQuery(keyAttribute, source, low, high) + 
+                " order by " + keyAttribute + " limit 1 offset " + offset);
+        try{
+            
+            bindRange(keyStatement, low, high);
+            ResultSet rs = keyStatement.executeQuery();
+            while(rs.next()){
+                
+                key = rs.getString(1);
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            keyStatement.close();
+        }
+        
+        return key;
+    }
+}
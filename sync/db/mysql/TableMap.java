@@ -40,6 +40,9 @@ public class TableMap {
     private final String sourceTimestampAttribute;
     private final String destinationTimestampAttribute;
     
+    private final String sourceKeyAttribute;
+    private final String destinationKeyAttribute;
+    
     /**
      * Create a new table map using this constructor.
      * The source table name is mapped to the specified destination table name. 
@@ -72,6 +75,45 @@ public class TableMap {
         this.sourceTimestampAttribute = sourceTimestampAttribute;
         this.destinationTimestampAttribute = destinationTimeStampAttribute;
         
+        this.sourceKeyAttribute = null;
+        this.destinationKeyAttribute = null;
+        
+        attributeMapList = new ArrayList<>();
+    }
+    
+    /**
+     * Create a new table map with a key attribute using this constructor.
+     * In addition to {@link #TableMap(String, String, String, String)}, this 
+     * constructor specifies the attributes in the source and the destination 
+     * tables that uniquely identify a record, usually the primary key. 
+     * Together with the timestamp attributes, the key attributes give every 
+     * record a unique position, which lets the table be synchronized in 
+     * ordered pages without skipping records that share a timestamp.
+     * @param sourceTable name of the table in the source table
+     * @param destinationTable name of the table in the destination table
+     * @param sourceTimestampAttribute name of the timestamp attribute in the 
+     * source table to use used for synchronization
+     * @param destinationTimeStampAttribute name of the timestamp attribute in 
+     * the destination table to use used for synchronization
+     * @param sourceKeyAttribute name of the key attribute in the source table
+     * @param destinationKeyAttribute name of the key attribute in the 
+     * destination table
+     * @see sync.db.mysql.AttributeMap
+     */
+    public TableMap(String sourceTable, String destinationTable, 
+                    String sourceTimestampAttribute, 
+                    String destinationTimeStampAttribute, 
+                    String sourceKeyAttribute, String destinationKeyAttribute){
+        
+        this.sourceTable = sourceTable;
+        this.destinationTable = destinationTable;
+        
+        this.sourceTimestampAttribute = sourceTimestampAttribute;
+        this.destinationTimestampAttribute = destinationTimeStampAttribute;
+        
+        this.sourceKeyAttribute = sourceKeyAttribute;
+        this.destinationKeyAttribute = destinationKeyAttribute;
+        
         attributeMapList = new ArrayList<>();
     }
     
@@ -126,6 +168,28 @@ public class TableMap {
         return destinationTimestampAttribute;
     }
     
+    /**
+     * Gets the attribute name of the source table that uniquely identifies 
+     * a record.
+     * @return attribute name of the source table that uniquely identifies a 
+     * record, null if no key attribute was specified
+     */
+    public String getSourceKeyAttribute(){
+        
+        return sourceKeyAttribute;
+    }
+    
+    /**
+     * Gets the attribute name of the destination table that uniquely 
+     * identifies a record.
+     * @return attribute name of the destination table that uniquely 
+     * identifies a record, null if no key attribute was specified
+     */
+    public String getDestinationKeyAttribute(){
+        
+        return destinationKeyAttribute;
+    }
+    
     /**
      * Gets the entire attribute mapping between the source and the 
      * destination tables.
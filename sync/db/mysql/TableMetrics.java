@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * The metrics of one mapped table, along with the progress of its current 
+ * synchronization.
+ * The counters are striped, so the threads synchronizing a table in slices 
+ * update them without contending with each other, and the watermark is 
+ * read from the watermark store whenever it is asked for.
+ * @author Arvind Sasikumar
+ */
+class TableMetrics implements TableMetricsMXBean {
+    
+    private final TableMap tableMap;
+    private final WatermarkStore watermarkStore;
+    
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    
+    private final LatencyHistogram watermarkLookupLatency = new LatencyHistogram();
+    private final LatencyHistogram extractLatency = new LatencyHistogram();
+    private final LatencyHistogram applyLatency = new LatencyHistogram();
+    
+    private final LongAccumulator newestTimestamp = new LongAccumulator(
+                                                new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, Long.MIN_VALUE);
+    
+    private final LongAdder catchUpRows = new LongAdder();
+    private volatile boolean catchingUp;
+    private volatile long catchUpStart;
+    private volatile long catchUpBacklog;
+    
+    TableMetrics(TableMap tableMap, WatermarkStore watermarkStore){
+        
+        this.tableMap = tableMap;
+        this.watermarkStore = watermarkStore;
+    }
+    
+    void addRowsRead(long rows, long bytes){
+        
+        rowsRead.add(rows);
+        bytesTransferred.add(bytes);
+    }
+    
+    void addRowsWritten(long rows){
+        
+        rowsWritten.add(rows);
+        catchUpRows.add(rows);
+    }
+    
+    /**
+     * Marks the start of a synchronization of the table.
+     * @param estimatedBacklog estimated number of records to synchronize, 
+     * -1 if unknown
+     */
+    void startCatchUp(long estimatedBacklog){
+        
+        catchUpRows.reset();
+        catchUpBacklog = estimatedBacklog;
+        catchUpStart = System.nanoTime();
+        catchingUp = true;
+    }
+    
+    void endCatchUp(){
+        
+        catchingUp = false;
+    }
+    
+    /**
+     * Records a timestamp of a record fetched from the source table.
+     * @param timestamp the timestamp, null for none
+     */
+    void timestampSeen(Timestamp timestamp){
+        
+        if(timestamp != null){
+            
+            newestTimestamp.accumulate(timestamp.getTime());
+        }
+    }
+    
+    /**
+     * Gets the progress of the table.
+     * The newest timestamp seen falls back to the stored watermark until a 
+     * record has been fetched.
+     * @return the progress
+     */
+    TableStatus getStatus(){
+        
+        long newest = newestTimestamp.get();
+        Watermark watermark = watermarkStore.get(tableMap);
+        if(watermark != null && watermark.getTimestamp() != null){
+            
+            newest = Math.max(newest, watermark.getTimestamp().getTime());
+        }
+        
+        boolean active = catchingUp;
+        long backlog = active ? catchUpBacklog : -1;
+        long applied = catchUpRows.sum();
+        long elapsed = System.nanoTime() - catchUpStart;
+        double rate = active && elapsed > 0 ? applied * 1e9 / elapsed : 0;
+        long remaining = !active ? 0 : backlog < 0 ? -1 : Math.max(backlog - applied, 0);
+        double eta = !active ? 0 : remaining < 0 || rate <= 0 ? -1 : remaining / rate;
+        
+        return new TableStatus(tableMap.getSourceTable(), 
+                tableMap.getDestinationTable(), getRowsWritten(), getErrors(), 
+                active, backlog, remaining, rate, eta, 
+                newest == Long.MIN_VALUE ? null : new Timestamp(newest), 
+                newest == Long.MIN_VALUE ? -1 : 
+                        Math.max(System.currentTimeMillis() - newest, 0));
+    }
+    
+    void addError(){
+        
+        errors.increment();
+    }
+    
+    void recordWatermarkLookup(long nanos){
+        
+        watermarkLookupLatency.record(nanos);
+    }
+    
+    void recordExtract(long nanos){
+        
+        extractLatency.record(nanos);
+    }
+    
+    void recordApply(long nanos){
+        
+        applyLatency.record(nanos);
+    }
+    
+    @Override
+    public String getSourceTable(){
+        
+        return tableMap.getSourceTable();
+    }
+    
+    @Override
+    public String getDestinationTable(){
+        
+        return tableMap.getDestinationTable();
+    }
+    
+    @Override
+    public long getRowsRead(){
+        
+        return rowsRead.sum();
+    }
+    
+    @Override
+    public long getRowsWritten(){
+        
+        return rowsWritten.sum();
+    }
+    
+    @Override
+    public long getBytesTransferred(){
+        
+        return bytesTransferred.sum();
+    }
+    
+    @Override
+    public long getErrors(){
+        
+        return errors.sum();
+    }
+    
+    @Override
+    public String getWatermark(){
+        
+        Watermark watermark = watermarkStore.get(tableMap);
+        return watermark == null ? null : watermark.toString();
+    }
+    
+    @Override
+    public long getLagMillis(){
+        
+        return getStatus().getLagMillis();
+    }
+    
+    @Override
+    public long getRowsRemaining(){
+        
+        return getStatus().getRowsRemaining();
+    }
+    
+    @Override
+    public double getEtaSeconds(){
+        
+        return getStatus().getEtaSeconds();
+    }
+    
+    @Override
+    public LatencySummary getWatermarkLookupLatency(){
+        
+        return watermarkLookupLatency.summarize();
+    }
+    
+    @Override
+    public LatencySummary getExtractLatency(){
+        
+        return extractLatency.summarize();
+    }
+    
+    @Override
+    public LatencySummary getApplyLatency(){
+        
+        return applyLatency.summarize();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+/**
+ * The metrics of one mapped table, exposed through JMX as an MXBean named 
+ * "sync.db.mysql:type=TableMetrics,agent=N,source=...,destination=...".
+ * Counters add up over the lifetime of the agent. Latencies are taken per 
+ * synchronization of the table: the time spent looking up its watermark, 
+ * the time spent waiting for records from the server database, and the 
+ * time spent applying and committing them to the client database.
+ * @author Arvind Sasikumar
+ */
+public interface TableMetricsMXBean {
+    
+    String getSourceTable();
+    
+    String getDestinationTable();
+    
+    /**
+     * Gets the number of records fetched from the server database.
+     * @return number of records read
+     */
+    long getRowsRead();
+    
+    /**
+     * Gets the number of records sent to the client database.
+     * @return number of records written
+     */
+    long getRowsWritten();
+    
+    /**
+     * Gets the approximate size of the records fetched, counting numbers 
+     * and dates at their binary size and text at one byte per character.
+     * @return number of bytes transferred
+     */
+    long getBytesTransferred();
+    
+    /**
+     * Gets the number of synchronizations of the table that failed.
+     * @return number of errors
+     */
+    long getErrors();
+    
+    /**
+     * Gets the position of the last record synchronized.
+     * @return the watermark, null if the table has none stored
+     */
+    String getWatermark();
+    
+    /**
+     * Gets the time from the newest timestamp synchronized from the source 
+     * table to now.
+     * @return lag in milliseconds, -1 if unknown
+     * @see sync.db.mysql.TableStatus#getLagMillis()
+     */
+    long getLagMillis();
+    
+    /**
+     * Gets the estimated number of records still to be applied by the 
+     * current synchronization of the table.
+     * @return number of records, 0 if not catching up, -1 if unknown
+     */
+    long getRowsRemaining();
+    
+    /**
+     * Gets the estimated time until the current synchronization of the 
+     * table is done.
+     * @return seconds, 0 if not catching up, -1 if unknown
+     */
+    double getEtaSeconds();
+    
+    LatencySummary getWatermarkLookupLatency();
+    
+    LatencySummary getExtractLatency();
+    
+    LatencySummary getApplyLatency();
+}
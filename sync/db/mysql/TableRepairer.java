@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies the tables of the client database against the server database 
+ * with checksums and repairs the records that have drifted.
+ * @author Arvind Sasikumar
+ */
+class TableRepairer {
+    
+    private static final int REPAIR_LEAF_SIZE = 256;
+    
+    private final DBSynchronizer synchronizer;
+    
+    private final DBMap dbMap;
+    
+    private final int repairChunkSize;
+    
+    /**
+     * Creates a new table repairer.
+     * @param synchronizer the synchronizer the tables are repaired for, 
+     * which applies the records that differ and tells when to stop
+     * @param dbMap database map
+     * @param repairChunkSize number of records of the source table per chunk
+     */
+    TableRepairer(DBSynchronizer synchronizer, DBMap dbMap, int repairChunkSize){
+        
+        this.synchronizer = synchronizer;
+        this.dbMap = dbMap;
+        this.repairChunkSize = repairChunkSize;
+    }
+    
+    /**
+     * Verifies every table with a key attribute against the server database 
+     * and repairs the records that differ.
+     * Each table is walked in chunks of consecutive keys, and the checksums 
+     * of every chunk are compared between both databases. A chunk that 
+     * differs is split in two halves that are compared in turn, until it is 
+     * small enough to compare record by record; only the records that 
+     * differ are then copied over again or deleted. Runs on the calling 
+     * thread.
+     * @return summary of the verification
+     */
+    RepairReport repair(){
+        
+        System.out.println("\nRepair started...");
+        
+        final RepairReport report = new RepairReport();
+        for(final TableMap tableMap : dbMap.getTableMap()){
+            
+            if(!synchronizer.isRunning()){
+                
+                break;
+            }
+            
+            if(tableMap.getSourceKeyAttribute() == null){
+                
+                System.out.println("Skipping " + tableMap.getSourceTable() + 
+                                                    ", it has no key attribute");
+                report.tableSkipped();
+                continue;
+            }
+            
+            System.out.println("Verifying " + tableMap.getDestinationTable() 
+                                + " with " + tableMap.getSourceTable() + "...");
+            
+            try{
+                
+                synchronizer.runOnPair(new DBSynchronizer.PairTask<Void>() {
+                    @Override
+                    public Void run(Connection serverConnection, 
+                            Connection clientConnection) throws SQLException {
+                        repairTable(tableMap, serverConnection, clientConnection, 
+                                                                        report);
+                        return null;
+                    }
+                });
+                report.tableVerified();
+            }
+            
+            catch(Exception e){
+                
+                report.tableFailed();
+                e.printStackTrace();
+            }
+        }
+        
+        System.out.println("Repair complete: " + report + "\n");
+        
+        return report;
+    }
+    
+    private void repairTable(TableMap tableMap, Connection serverConnection, 
+                        Connection clientConnection, RepairReport report) 
+                                                        throws SQLException{
+        
+        TableChecksum tableChecksum = new TableChecksum(tableMap);
+        
+        String low = null;
+        do{
+            
+            String high = tableChecksum.getKeyAt(serverConnection, true, low, 
+                                                null, repairChunkSize - 1);
+            repairChunk(tableMap, tableChecksum, low, high, serverConnection, 
+                                                    clientConnection, report);
+            low = high;
+        }
+        while(low != null && synchronizer.isRunning());
+    }
+    
+    /**
+     * Compares a range of keys and repairs it if it differs.
+     * @param tableMap the table being verified
+     * @param tableChecksum checksums of the table
+     * @param low lower bound of the range, exclusive, null for none
+     * @param high upper bound of the range, inclusive, null for none
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @param report the report to add to
+     * @throws SQLException if the range could not be compared or repaired
+     */
+    private void repairChunk(TableMap tableMap, TableChecksum tableChecksum, 
+                    String low, String high, Connection serverConnection, 
+                    Connection clientConnection, RepairReport report) 
+                                                        throws SQLException{
+        
+        long[] sourceChecksum = tableChecksum.getChecksum(serverConnection, 
+                                                            true, low, high);
+        long[] destinationChecksum = tableChecksum.getChecksum(clientConnection, 
+                                                            false, low, high);
+        
+        boolean mismatched = sourceChecksum[0] != destinationChecksum[0] || 
+                                    sourceChecksum[1] != destinationChecksum[1];
+        report.chunkScanned(mismatched);
+        if(!mismatched){
+            
+            return;
+        }
+        
+        // split on the side holding more records, so that neither side 
+        // brings more than a leaf of them to the record by record comparison, 
+        // e.g. extra records in the client database past the last source key
+        long rows = Math.max(sourceChecksum[0], destinationChecksum[0]);
+        String middle = rows <= REPAIR_LEAF_SIZE ? null 
+                    : sourceChecksum[0] >= destinationChecksum[0] 
+                    ? tableChecksum.getKeyAt(serverConnection, true, low, high, 
+                                                                rows / 2 - 1) 
+                    : tableChecksum.getKeyAt(clientConnection, false, low, high, 
+                                                                rows / 2 - 1);
+        if(middle != null){
+            
+            repairChunk(tableMap, tableChecksum, low, middle, serverConnection, 
+                                                    clientConnection, report);
+            repairChunk(tableMap, tableChecksum, middle, high, serverConnection, 
+                                                    clientConnection, report);
+            return;
+        }
+        
+        Map<String, Long> sourceRows = tableChecksum.getRowChecksums(
+                                            serverConnection, true, low, high);
+        Map<String, Long> destinationRows = tableChecksum.getRowChecksums(
+                                            clientConnection, false, low, high);
+        
+        Map<String, Boolean> touchedKeys = new LinkedHashMap<>();
+        long repaired = 0;
+        for(Map.Entry<String, Long> row : sourceRows.entrySet()){
+            
+            if(!row.getValue().equals(destinationRows.get(row.getKey()))){
+                
+                touchedKeys.put(row.getKey(), false);
+                repaired++;
+            }
+        }
+        for(String key : destinationRows.keySet()){
+            
+            if(!sourceRows.containsKey(key)){
+                
+                touchedKeys.put(key, true);
+            }
+        }
+        if(touchedKeys.isEmpty()){
+            
+            return;
+        }
+        
+        boolean autoCommit = clientConnection.getAutoCommit();
+        clientConnection.setAutoCommit(false);
+        try{
+            
+            synchronizer.applyChanges(tableMap, touchedKeys, serverConnection, 
+                                                            clientConnection);
+            clientConnection.commit();
+        }
+        
+        catch(SQLException e){
+            
+            clientConnection.rollback();
+            throw e;
+        }
+        
+        catch(RuntimeException e){
+            
+            clientConnection.rollback();
+            throw e;
+        }
+        
+        finally{
+            
+            clientConnection.setAutoCommit(autoCommit);
+        }
+        
+        report.rowsRepaired(repaired, touchedKeys.size() - repaired);
+        System.out.println("Repaired " + repaired + " and deleted " + 
+                    (touchedKeys.size() - repaired) + " records between " + 
+                    (low == null ? "start" : low) + " and " + 
+                    (high == null ? "end" : high));
+    }
+    
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+/**
+ * Decides when a table is synchronized next during a live sync.
+ * A table that kept finding records for longer than the synchronization 
+ * interval has fallen behind and is synchronized again right away. A table 
+ * that found records otherwise is synchronized again after the interval. 
+ * A table that found no records, or failed, waits twice as long after every 
+ * such attempt, up to a maximum interval, and returns to the interval as 
+ * soon as it finds records again.
+ * @author Arvind Sasikumar
+ */
+class TableSchedule {
+    
+    private final long interval;
+    private final long maxInterval;
+    
+    private int idleCycles;
+    private long nextRun;
+    
+    /**
+     * Creates a schedule for a table that is due right away.
+     * @param interval synchronization interval in nanoseconds
+     * @param maxInterval maximum interval in nanoseconds an idle table waits
+     * @param now the current {@link System#nanoTime()}
+     */
+    TableSchedule(long interval, long maxInterval, long now){
+        
+        this.interval = interval;
+        this.maxInterval = Math.max(maxInterval, interval);
+        nextRun = now;
+    }
+    
+    /**
+     * Tells whether the table is to be synchronized.
+     * @param now the current {@link System#nanoTime()}
+     * @return true if the table is due
+     */
+    boolean isDue(long now){
+        
+        return now - nextRun >= 0;
+    }
+    
+    /**
+     * Gets the time until the table is due.
+     * @param now the current {@link System#nanoTime()}
+     * @return time in nanoseconds, 0 if the table is due
+     */
+    long getDelay(long now){
+        
+        return Math.max(nextRun - now, 0);
+    }
+    
+    /**
+     * Schedules the next synchronization of the table after one has 
+     * finished.
+     * @param rows number of records applied
+     * @param elapsedNanos time taken
+     * @param failed whether the synchronization failed
+     * @param now the current {@link System#nanoTime()}
+     */
+    void completed(long rows, long elapsedNanos, boolean failed, long now){
+        
+        if(failed || rows == 0){
+            
+            long delay = interval;
+            for(int i = 0; i < idleCycles && delay < maxInterval; i++){
+                
+                delay *= 2;
+            }
+            idleCycles++;
+            nextRun = now + Math.min(delay, maxInterval);
+        }
+        else{
+            
+            idleCycles = 0;
+            nextRun = elapsedNanos >= interval ? now : now + interval;
+        }
+    }
+}
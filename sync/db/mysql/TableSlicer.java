@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Synchronizes a table with a large backlog in slices of its timestamp 
+ * range that are fetched and applied at the same time, each on a 
+ * connection pair of its own.
+ * @author Arvind Sasikumar
+ */
+class TableSlicer {
+    
+    private final DBSynchronizer synchronizer;
+    private final int sliceCount;
+    
+    /**
+     * Creates a new table slicer.
+     * @param synchronizer the synchronizer the tables are synchronized by, 
+     * which applies the records of every slice
+     * @param sliceCount number of slices a table is split into
+     */
+    TableSlicer(DBSynchronizer synchronizer, int sliceCount){
+        
+        this.synchronizer = synchronizer;
+        this.sliceCount = sliceCount;
+    }
+    
+    /**
+     * Synchronizes one table by splitting its backlog into slices that are 
+     * fetched and applied at the same time.
+     * The range of timestamps after the watermark is probed and cut into 
+     * sliceCount slices of equal length. The first slice is synchronized on 
+     * the connection pair of the table, the others are handed to the worker 
+     * threads, which borrow a pair of their own from the pools. Slices no 
+     * worker has started by the time the table gets to them are run on the 
+     * pair of the table instead, so tables synchronized in parallel never 
+     * wait for workers held by each other. Slices can finish in any order, 
+     * so the watermark of the table is only advanced past a slice once all 
+     * the slices below it have finished as well. If a slice fails, the table 
+     * is held back at the end of the last slice below the failed one, and 
+     * the next synchronization resumes from there, applying the records of 
+     * the slices above it again.
+     * @param tableMap the table to synchronize
+     * @param serverConnection connection to the server database
+     * @param clientConnection connection to the client database
+     * @param watermark position of the last record already synchronized
+     * @param tableApplyType the way in which the records are to be applied
+     * @param bulk whether unique and foreign key checks are to be turned off 
+     * for the slices on borrowed connection pairs, as they are for the 
+     * connection of the table
+     * @return number of records applied
+     * @throws SQLException if the range of the slices could not be probed
+     */
+    long syncTableInSlices(final TableMap tableMap, 
+                final Connection serverConnection, 
+                final Connection clientConnection, final Watermark watermark, 
+                final ApplyType tableApplyType, final boolean bulk) 
+                                                        throws SQLException{
+        
+        final Timestamp[] bounds = probeSliceBounds(serverConnection, tableMap, 
+                                                                    watermark);
+        if(bounds == null){
+            
+            return 0;
+        }
+        final Watermark top = probeSliceTop(serverConnection, tableMap, 
+                                                        bounds[sliceCount]);
+        
+        System.out.println("Fetching records in " + sliceCount + " slices...");
+        
+        List<FutureTask<Long>> futures = new ArrayList<>();
+        futures.add(null);
+        for(int i = 1; i < sliceCount; i++){
+            
+            final int slice = i;
+            FutureTask<Long> future = new FutureTask<>(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    if(!synchronizer.isRunning()){
+                        return null;
+                    }
+                    return synchronizer.runOnPair(
+                                        new DBSynchronizer.PairTask<Long>() {
+                        @Override
+                        public Long run(Connection serverConnection, 
+                                Connection clientConnection) throws SQLException {
+                            int[] checks = bulk ? SnapshotLoader.disableChecks(
+                                                    clientConnection) : null;
+                            try{
+                                return syncSlice(tableMap, serverConnection, 
+                                        clientConnection, watermark, bounds, 
+                                        top, slice, tableApplyType);
+                            }
+                            finally{
+                                if(checks != null){
+                                    SnapshotLoader.restoreChecks(
+                                                    clientConnection, checks);
+                                }
+                            }
+                        }
+                    });
+                }
+            });
+            synchronizer.getWorkers().execute(future);
+            futures.add(future);
+        }
+        
+        for(int i = 0; i < sliceCount; i++){
+            
+            // only a slice no worker has started can be cancelled, so every 
+            // slice runs either here or on a worker, never on both
+            if(i > 0 && !futures.get(i).cancel(false)){
+                
+                continue;
+            }
+            
+            final int slice = i;
+            FutureTask<Long> ownSlice = new FutureTask<>(new Callable<Long>() {
+                @Override
+                public Long call() throws SQLException {
+                    return syncSlice(tableMap, serverConnection, clientConnection, 
+                                    watermark, bounds, top, slice, tableApplyType);
+                }
+            });
+            ownSlice.run();
+            futures.set(i, ownSlice);
+        }
+        
+        long rows = 0;
+        Watermark merged = watermark;
+        boolean complete = true;
+        
+        for(int slice = 0; slice < futures.size(); slice++){
+            
+            try{
+                
+                Long sliceRows = futures.get(slice).get();
+                if(sliceRows == null){
+                    
+                    complete = false;
+                    continue;
+                }
+                
+                rows += sliceRows;
+                if(complete){
+                    
+                    merged = slice == sliceCount - 1 ? top : 
+                                        new Watermark(bounds[slice + 1], null);
+                }
+            }
+            
+            catch(InterruptedException e){
+                
+                Thread.currentThread().interrupt();
+                complete = false;
+                break;
+            }
+            
+            catch(ExecutionException e){
+                
+                complete = false;
+                System.out.println("Slice " + (slice + 1) + " of " + sliceCount + 
+                                                                    " failed.");
+                e.getCause().printStackTrace();
+            }
+        }
+        
+        synchronizer.getWatermarkStore().put(tableMap, merged);
+        if(!complete){
+            
+            System.out.println("Holding back sync point at " + merged);
+        }
+        
+        System.out.println("Applied " + rows + " records up to " + merged);
+        
+        return rows;
+    }
+    
+    /**
+     * Probes the bounds of the slices of a table.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to slice
+     * @param watermark position of the last record already synchronized
+     * @return sliceCount + 1 timestamps, the first being the watermark and 
+     * the last being the latest timestamp of the table; null if there are 
+     * no records after the watermark
+     * @throws SQLException if the bounds could not be probed
+     */
+    private Timestamp[] probeSliceBounds(Connection serverConnection, 
+                TableMap tableMap, Watermark watermark) throws SQLException{
+        
+        Timestamp[] bounds = new Timestamp[sliceCount + 1];
+        bounds[0] = watermark.getTimestamp();
+        Timestamp low = null;
+        
+        PreparedStatement probeStatement = serverConnection.prepareStatement(
+                            synchronizer.getSyncPlan(tableMap).getBoundsQuery());
+        try{
+            
+            DBSynchronizer.bindAfterCondition(probeStatement, tableMap, 
+                                                                    watermark);
+            ResultSet rs = probeStatement.executeQuery();
+            if(rs.next()){
+                
+                low = rs.getTimestamp(1);
+                bounds[sliceCount] = rs.getTimestamp(2);
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            probeStatement.close();
+        }
+        
+        if(bounds[sliceCount] == null){
+            
+            return null;
+        }
+        
+        long range = bounds[sliceCount].getTime() - low.getTime();
+        for(int i = 1; i < sliceCount; i++){
+            
+            bounds[i] = new Timestamp(low.getTime() + range * i / sliceCount);
+        }
+        
+        return bounds;
+    }
+    
+    /**
+     * Probes the end of the last slice of a table: the latest timestamp and, 
+     * for tables with a key attribute, the highest key among the records 
+     * with that timestamp. The watermark of the table ends up there once 
+     * all slices are done, so that records added later with the latest 
+     * timestamp and a higher key are synchronized the next time.
+     * @param serverConnection connection to the server database
+     * @param tableMap the table to slice
+     * @param latest the latest timestamp of the table
+     * @return the end of the last slice, without a key if the table has no 
+     * key attribute or no longer holds a record with the latest timestamp
+     * @throws SQLException if the key could not be probed
+     */
+    private Watermark probeSliceTop(Connection serverConnection, 
+                TableMap tableMap, Timestamp latest) throws SQLException{
+        
+        String topKeyQuery = synchronizer.getSyncPlan(tableMap).getTopKeyQuery();
+        if(topKeyQuery == null){
+            
+            return new Watermark(latest, null);
+        }
+        
+        String key = null;
+        PreparedStatement probeStatement = serverConnection.prepareStatement(
+                                                                topKeyQuery);
+        try{
+            
+            probeStatement.setTimestamp(1, latest);
+            ResultSet rs = probeStatement.executeQuery();
+            if(rs.next()){
+                
+                key = rs.getString(1);
+            }
+            rs.close();
+        }
+        
+        finally{
+            
+            probeStatement.close();
+        }
+        
+        return new Watermark(latest, key);
+    }
+    
+    /**
+     * Synchronizes one slice of a table.
+     * The first slice continues right after the watermark, every other slice 
+     * right after the end of the slice below it. The last slice ends at the 
+     * given top, every other slice at the bound above it.
+     * @return number of records applied, null if the synchronization was 
+     * stopped before the slice was done
+     */
+    private Long syncSlice(TableMap tableMap, Connection serverConnection, 
+                Connection clientConnection, Watermark watermark, 
+                Timestamp[] bounds, Watermark top, int slice, 
+                ApplyType tableApplyType) throws SQLException{
+        
+        SyncPlan syncPlan = synchronizer.getSyncPlan(tableMap);
+        boolean keyedEnd = slice == sliceCount - 1 && top.getKey() != null;
+        
+        PreparedStatement sliceStatement = synchronizer.prepareExtractStatement(
+                serverConnection, syncPlan.getSliceQuery(slice == 0, keyedEnd));
+        RowReader rowReader;
+        try{
+            
+            int parameterIndex;
+            if(slice == 0){
+                
+                parameterIndex = DBSynchronizer.bindAfterCondition(
+                                        sliceStatement, tableMap, watermark);
+            }
+            else{
+                
+                sliceStatement.setTimestamp(1, bounds[slice]);
+                parameterIndex = 2;
+            }
+            if(keyedEnd){
+                
+                top.bindTo(sliceStatement, parameterIndex);
+            }
+            else{
+                
+                sliceStatement.setTimestamp(parameterIndex, bounds[slice + 1]);
+            }
+            
+            rowReader = new QueryReader(sliceStatement);
+        }
+        
+        catch(SQLException e){
+            
+            sliceStatement.close();
+            throw e;
+        }
+        
+        long rows = synchronizer.transfer(syncPlan, clientConnection, rowReader, 
+                        syncPlan.getSelectCodecs(), false, null, tableApplyType);
+        
+        return synchronizer.isRunning() ? rows : null;
+    }}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.sql.Timestamp;
+
+/**
+ * The progress of one mapped table at one point in time, as returned by 
+ * {@link sync.db.mysql.DBSyncAgent#getStatus()}.
+ * While a table is catching up, the records still to be applied are 
+ * estimated from the backlog the server database reported before the 
+ * records were fetched, see 
+ * {@link sync.db.mysql.DBSyncAgent.Builder#setEstimateBacklog(boolean)}, so 
+ * they and the time left are only as good as that estimate. The lag is the 
+ * time from the newest source timestamp seen to now; it keeps growing while 
+ * no new records arrive, and assumes that the timestamps of the server 
+ * database are in the time zone of this JVM.
+ * @author Arvind Sasikumar
+ */
+public class TableStatus {
+    
+    private final String sourceTable;
+    private final String destinationTable;
+    private final long rowsApplied;
+    private final long errors;
+    private final boolean catchingUp;
+    private final long estimatedBacklog;
+    private final long rowsRemaining;
+    private final double applyRate;
+    private final double etaSeconds;
+    private final Timestamp newestSourceTimestamp;
+    private final long lagMillis;
+    
+    TableStatus(String sourceTable, String destinationTable, long rowsApplied, 
+                long errors, boolean catchingUp, long estimatedBacklog, 
+                long rowsRemaining, double applyRate, double etaSeconds, 
+                Timestamp newestSourceTimestamp, long lagMillis){
+        
+        this.sourceTable = sourceTable;
+        this.destinationTable = destinationTable;
+        this.rowsApplied = rowsApplied;
+        this.errors = errors;
+        this.catchingUp = catchingUp;
+        this.estimatedBacklog = estimatedBacklog;
+        this.rowsRemaining = rowsRemaining;
+        this.applyRate = applyRate;
+        this.etaSeconds = etaSeconds;
+        this.newestSourceTimestamp = newestSourceTimestamp;
+        this.lagMillis = lagMillis;
+    }
+    
+    public String getSourceTable(){
+        
+        return sourceTable;
+    }
+    
+    public String getDestinationTable(){
+        
+        return destinationTable;
+    }
+    
+    /**
+     * Gets the number of records applied to the destination table since 
+     * the agent was connected.
+     * @return number of records applied
+     */
+    public long getRowsApplied(){
+        
+        return rowsApplied;
+    }
+    
+    /**
+     * Gets the number of synchronizations of the table that failed.
+     * @return number of errors
+     */
+    public long getErrors(){
+        
+        return errors;
+    }
+    
+    /**
+     * Tells whether the table is being synchronized right now.
+     * @return true while records are being fetched and applied
+     */
+    public boolean isCatchingUp(){
+        
+        return catchingUp;
+    }
+    
+    /**
+     * Gets the backlog estimated when the current synchronization of the 
+     * table started.
+     * @return number of records, -1 if unknown or not catching up
+     */
+    public long getEstimatedBacklog(){
+        
+        return estimatedBacklog;
+    }
+    
+    /**
+     * Gets the number of records still to be applied by the current 
+     * synchronization.
+     * @return number of records, 0 if not catching up, -1 if unknown
+     */
+    public long getRowsRemaining(){
+        
+        return rowsRemaining;
+    }
+    
+    /**
+     * Gets the rate at which the current synchronization applies records.
+     * @return records per second, 0 if not catching up
+     */
+    public double getApplyRate(){
+        
+        return applyRate;
+    }
+    
+    /**
+     * Gets the estimated time until the current synchronization is done.
+     * @return seconds, 0 if not catching up, -1 if unknown
+     */
+    public double getEtaSeconds(){
+        
+        return etaSeconds;
+    }
+    
+    /**
+     * Gets the newest timestamp synchronized from the source table.
+     * @return the timestamp, null if none is known yet
+     */
+    public Timestamp getNewestSourceTimestamp(){
+        
+        return newestSourceTimestamp;
+    }
+    
+    /**
+     * Gets the time from the newest timestamp synchronized from the source 
+     * table to now.
+     * @return lag in milliseconds, -1 if unknown
+     */
+    public long getLagMillis(){
+        
+        return lagMillis;
+    }
+    
+    @Override
+    public String toString(){
+        
+        StringBuilder status = new StringBuilder(sourceTable).append(" -> ")
+                .append(destinationTable).append(": ").append(rowsApplied)
+                .append(" records applied, lag ")
+                .append(lagMillis < 0 ? "unknown" : lagMillis + " ms");
+        if(catchingUp){
+            
+            status.append(", catching up at ").append((long)applyRate)
+                  .append(" records/sec");
+            if(rowsRemaining >= 0){
+                
+                status.append(", about ").append(rowsRemaining)
+                      .append(" records left");
+            }
+            if(etaSeconds >= 0){
+                
+                status.append(", done in about ").append((long)Math.ceil(etaSeconds))
+                      .append(" seconds");
+            }
+        }
+        if(errors > 0){
+            
+            status.append(", ").append(errors).append(" errors");
+        }
+        return status.toString();
+    }
+}
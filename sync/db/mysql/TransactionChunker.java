@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Groups the records applied to the client database into transactions of a 
+ * bounded size.
+ * While active, autocommit is turned off on the client connection and a 
+ * commit is issued every commitSize records or every commitInterval 
+ * milliseconds, whichever comes first. A failure rolls back only the 
+ * current chunk; all the chunks committed before it are kept.
+ * @author Arvind Sasikumar
+ */
+class TransactionChunker {
+    
+    private final Connection connection;
+    
+    private final int commitSize;
+    private final long commitInterval;
+    
+    private boolean autoCommit;
+    
+    private int uncommittedRows;
+    private long chunkStartTime;
+    
+    private long committedRows;
+    private int commits;
+    
+    /**
+     * Creates a new transaction chunker.
+     * @param connection connection to the client database
+     * @param commitSize number of records after which a commit is issued, 
+     * 0 to not commit by size
+     * @param commitInterval time in milliseconds after which a commit is 
+     * issued, 0 to not commit by time
+     */
+    TransactionChunker(Connection connection, int commitSize, 
+                                                        long commitInterval){
+        
+        this.connection = connection;
+        this.commitSize = commitSize;
+        this.commitInterval = commitInterval;
+    }
+    
+    /**
+     * Turns autocommit off and starts the first chunk.
+     * @throws SQLException if autocommit could not be turned off
+     */
+    void begin() throws SQLException{
+        
+        autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        
+        uncommittedRows = 0;
+        chunkStartTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Records that one more record has been handed over to the applier, and 
+     * commits the current chunk if it is due.
+     * @param rowApplier the applier holding the records of the current chunk
+     * @return whether the chunk was committed, up to and including the record
+     * @throws SQLException if the chunk could not be committed
+     */
+    boolean rowAdded(RowApplier rowApplier) throws SQLException{
+        
+        uncommittedRows++;
+        
+        if(isDue()){
+            
+            commit(rowApplier);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Records that one more record has been handed over to the applier, 
+     * leaving the commit to the caller once {@link #isDue()}.
+     */
+    void rowAdded(){
+        
+        uncommittedRows++;
+    }
+    
+    /**
+     * Tells whether the current chunk holds records and has reached its size 
+     * or its interval.
+     * @return whether the current chunk is due to be committed
+     */
+    boolean isDue(){
+        
+        return uncommittedRows > 0 && 
+                ((commitSize > 0 && uncommittedRows >= commitSize) || 
+                (commitInterval > 0 && 
+                System.currentTimeMillis() - chunkStartTime >= commitInterval));
+    }
+    
+    /**
+     * Flushes the applier and commits the current chunk.
+     * @param rowApplier the applier holding the records of the current chunk
+     * @throws SQLException if the chunk could not be committed
+     */
+    void commit(RowApplier rowApplier) throws SQLException{
+        
+        rowApplier.flush();
+        connection.commit();
+        
+        if(uncommittedRows > 0){
+            
+            committedRows += uncommittedRows;
+            commits++;
+        }
+        
+        uncommittedRows = 0;
+        chunkStartTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Rolls back the current chunk.
+     */
+    void rollback(){
+        
+        try{
+            
+            connection.rollback();
+            System.out.println("Rolled back " + uncommittedRows + 
+                                                    " uncommitted records.");
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+        }
+        
+        uncommittedRows = 0;
+    }
+    
+    /**
+     * Restores the autocommit mode the connection had before 
+     * {@link #begin()}.
+     * Turning autocommit back on commits the current chunk, so call 
+     * {@link #rollback()} first unless the last chunk has been committed.
+     */
+    void end(){
+        
+        try{
+            
+            connection.setAutoCommit(autoCommit);
+        }
+        
+        catch(Exception e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    long getCommittedRows(){
+        
+        return committedRows;
+    }
+    
+    int getCommits(){
+        
+        return commits;
+    }
+}
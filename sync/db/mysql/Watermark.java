@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package sync.db.mysql;
+
+import java.sql.*;
+
+/**
+ * Position of the last record of a table that has been applied to the client 
+ * database.
+ * The position is made of the timestamp of the record and, for tables with 
+ * a key attribute, its key. A watermark without a key covers all the records 
+ * sharing its timestamp. The initial watermark, before any record has been 
+ * applied, has no timestamp either.
+ * @author Arvind Sasikumar
+ */
+class Watermark {
+    
+    static final Watermark INITIAL = new Watermark(null, null);
+    
+    private static final String INITIAL_TIMESTAMP = "0000-00-00 00:00:00";
+    
+    private final Timestamp timestamp;
+    private final String key;
+    
+    Watermark(Timestamp timestamp, String key){
+        
+        this.timestamp = timestamp;
+        this.key = key;
+    }
+    
+    /**
+     * Creates a watermark from the number of microseconds since the epoch.
+     * @param epochMicros timestamp in microseconds since the epoch
+     * @param key key of the record, null for none
+     * @return the watermark
+     * @see #getEpochMicros()
+     */
+    static Watermark fromEpochMicros(long epochMicros, String key){
+        
+        Timestamp timestamp = new Timestamp(Math.floorDiv(epochMicros, 1000000L) * 1000);
+        timestamp.setNanos((int)Math.floorMod(epochMicros, 1000000L) * 1000);
+        return new Watermark(timestamp, key);
+    }
+    
+    Timestamp getTimestamp(){
+        
+        return timestamp;
+    }
+    
+    String getKey(){
+        
+        return key;
+    }
+    
+    boolean isInitial(){
+        
+        return timestamp == null;
+    }
+    
+    /**
+     * Gets the timestamp of this watermark as the number of microseconds 
+     * since the epoch, the precision of MySQL's DATETIME(6).
+     * @return timestamp in microseconds since the epoch
+     */
+    long getEpochMicros(){
+        
+        return Math.floorDiv(timestamp.getTime(), 1000L) * 1000000L 
+                                                + timestamp.getNanos() / 1000;
+    }
+    
+    /**
+     * Binds the timestamp of this watermark to a parameter.
+     * The initial watermark binds the zero date, which comes before any 
+     * timestamp.
+     * @param statement statement containing the parameter
+     * @param parameterIndex index of the parameter
+     * @throws SQLException if the timestamp could not be bound
+     */
+    void bindTimestamp(PreparedStatement statement, int parameterIndex) 
+                                                        throws SQLException{
+        
+        if(timestamp == null){
+            
+            statement.setString(parameterIndex, INITIAL_TIMESTAMP);
+        }
+        else{
+            
+            statement.setTimestamp(parameterIndex, timestamp);
+        }
+    }
+    
+    /**
+     * Binds this watermark to the parameters of a keyset condition of the 
+     * form "ts &gt;= ? and (ts &gt; ? or key &gt; ?)".
+     * A watermark without a key matches all records with a later timestamp, 
+     * since comparing the key against null is never true.
+     * @param statement statement containing the keyset condition
+     * @param parameterIndex index of the first parameter of the condition
+     * @throws SQLException if the watermark could not be bound
+     */
+    void bindTo(PreparedStatement statement, int parameterIndex) 
+                                                        throws SQLException{
+        
+        bindTimestamp(statement, parameterIndex);
+        bindTimestamp(statement, parameterIndex + 1);
+        if(key == null){
+            
+            statement.setNull(parameterIndex + 2, Types.VARCHAR);
+        }
+        else{
+            
+            statement.setString(parameterIndex + 2, key);
+        }
+    }
+    
+    /**
+     * Creates a watermark some time before this one.
+     * The key is dropped, so that all records with a later timestamp match.
+     * @param millis time in milliseconds to go back
+     * @return the earlier watermark, this watermark if it is the initial one
+     */
+    Watermark rewind(long millis){
+        
+        if(timestamp == null){
+            
+            return this;
+        }
+        
+        return new Watermark(new Timestamp(timestamp.getTime() - millis), null);
+    }
+    
+    /**
+     * Tells whether this watermark has an earlier timestamp than another.
+     * @param other the watermark to compare with
+     * @return true if this watermark lies before the other
+     */
+    boolean isBefore(Watermark other){
+        
+        if(other.timestamp == null){
+            
+            return false;
+        }
+        
+        return timestamp == null || timestamp.before(other.timestamp);
+    }
+    
+    @Override
+    public String toString(){
+        
+        String position = timestamp == null ? "start" : timestamp.toString();
+        return key == null ? position : "(" + position + ", " + key + ")";
+    }
+}
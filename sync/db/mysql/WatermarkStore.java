@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Arvind Sasikumar.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package sync.db.mysql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the watermark of every table across synchronization cycles, so that 
+ * the client database does not have to be asked for the latest synchronized 
+ * record at the start of every cycle.
+ * When a file is given, the watermarks are also written to it, as the number 
+ * of microseconds since the epoch plus the key, and read back on start up; 
+ * a table that has been synchronized without finding any record is written 
+ * without a timestamp. The binlog position of a binlog sync and the last 
+ * applied sequence number of a changelog sync are kept in the same file, 
+ * and so are the indexes a snapshot has dropped and not yet added back. 
+ * The file is replaced atomically, so a crash while saving leaves the 
+ * previous version in place. Delete the file to make the next 
+ * synchronization look up the latest record in the client database again, 
+ * e.g. after the destination tables have been emptied.
+ * @author Arvind Sasikumar
+ */
+class WatermarkStore {
+    
+    private final File file;
+    
+    private static final String BINLOG_POSITION = "@binlog";
+    private static final String CHANGELOG_SEQUENCE = "@changelog";
+    private static final String PENDING_INDEXES = "@indexes:";
+    
+    private final ConcurrentHashMap<String, Watermark> watermarks;
+    
+    private final ConcurrentHashMap<String, List<String>> pendingIndexes;
+    
+    private volatile BinlogPosition binlogPosition;
+    
+    private volatile long changelogSequence = -1;
+    
+    /**
+     * Creates a new store, reading the watermarks saved in the file if it 
+     * exists.
+     * @param fileName the file to keep the watermarks in, null to keep them 
+     * in memory only
+     */
+    WatermarkStore(String fileName){
+        
+        file = fileName == null ? null : new File(fileName);
+        watermarks = new ConcurrentHashMap<>();
+        pendingIndexes = new ConcurrentHashMap<>();
+        
+        if(file != null && file.exists()){
+            
+            load();
+        }
+    }
+    
+    /**
+     * Gets the stored watermark of a table.
+     * @param tableMap the table to look up
+     * @return the watermark, null if none is stored
+     */
+    Watermark get(TableMap tableMap){
+        
+        return watermarks.get(getName(tableMap));
+    }
+    
+    /**
+     * Stores the watermark of a table in memory; call {@link #save()} to 
+     * write it to the file.
+     * @param tableMap the table the watermark belongs to
+     * @param watermark position of the last record applied to the table
+     */
+    void put(TableMap tableMap, Watermark watermark){
+        
+        watermarks.put(getName(tableMap), watermark);
+    }
+    
+    /**
+     * Forgets the watermark of a table, so that it is looked up in the 
+     * client database again.
+     * @param tableMap the table to forget
+     */
+    void remove(TableMap tableMap){
+        
+        watermarks.remove(getName(tableMap));
+    }
+    
+    /**
+     * Gets the position up to which the binary log of the server database 
+     * has been replayed.
+     * @return the binlog position, null if none is stored
+     */
+    BinlogPosition getBinlogPosition(){
+        
+        return binlogPosition;
+    }
+    
+    /**
+     * Stores the position up to which the binary log of the server database 
+     * has been replayed; call {@link #save()} to write it to the file.
+     * @param binlogPosition position of the next binlog event to replay
+     */
+    void putBinlogPosition(BinlogPosition binlogPosition){
+        
+        this.binlogPosition = binlogPosition;
+    }
+    
+    /**
+     * Gets the sequence number of the last changelog record applied to the 
+     * client database.
+     * @return the sequence number, -1 if none is stored
+     */
+    long getChangelogSequence(){
+        
+        return changelogSequence;
+    }
+    
+    /**
+     * Stores the sequence number of the last changelog record applied to the 
+     * client database; call {@link #save()} to write it to the file.
+     * @param changelogSequence sequence number of the last applied record
+     */
+    void putChangelogSequence(long changelogSequence){
+        
+        this.changelogSequence = changelogSequence;
+    }
+    
+    /**
+     * Gets the indexes dropped from the destination table of a table by a 
+     * snapshot that have not been added back yet.
+     * @param tableMap the table to look up
+     * @return the clauses of an alter table that add the indexes back, null 
+     * if there are none
+     */
+    List<String> getPendingIndexes(TableMap tableMap){
+        
+        return pendingIndexes.get(getName(tableMap));
+    }
+    
+    /**
+     * Stores the indexes dropped from the destination table of a table by a 
+     * snapshot; call {@link #save()} to write them to the file.
+     * @param tableMap the table the indexes belong to
+     * @param indexes the clauses of an alter table that add the indexes back
+     */
+    void putPendingIndexes(TableMap tableMap, List<String> indexes){
+        
+        pendingIndexes.put(getName(tableMap), new ArrayList<>(indexes));
+    }
+    
+    /**
+     * Forgets the indexes dropped from the destination table of a table, 
+     * once they have been added back.
+     * @param tableMap the table the indexes belong to
+     */
+    void removePendingIndexes(TableMap tableMap){
+        
+        pendingIndexes.remove(getName(tableMap));
+    }
+    
+    /**
+     * Gets the tables with indexes that have not been added back yet.
+     * @param tableMaps the tables to look through
+     * @return the tables of the given ones with pending indexes
+     */
+    List<TableMap> getTablesWithPendingIndexes(List<TableMap> tableMaps){
+        
+        List<TableMap> tables = new ArrayList<>();
+        for(TableMap tableMap : tableMaps){
+            
+            if(pendingIndexes.containsKey(getName(tableMap))){
+                
+                tables.add(tableMap);
+            }
+        }
+        return tables;
+    }
+    
+    /**
+     * Writes all watermarks to the file and forces them to disk.
+     * Does nothing if the store has no file.
+     */
+    synchronized void save(){
+        
+        if(file == null){
+            
+            return;
+        }
+        
+        Properties properties = new Properties();
+        for(Map.Entry<String, Watermark> entry : watermarks.entrySet()){
+            
+            Watermark watermark = entry.getValue();
+            String value = watermark.isInitial() ? "" 
+                                : Long.toString(watermark.getEpochMicros());
+            if(watermark.getKey() != null){
+                
+                value += "," + watermark.getKey();
+            }
+            properties.setProperty(entry.getKey(), value);
+        }
+        
+        if(binlogPosition != null){
+            
+            properties.setProperty(BINLOG_POSITION, binlogPosition.getFileName() + 
+                                            "," + binlogPosition.getPosition());
+        }
+        
+        if(changelogSequence >= 0){
+            
+            properties.setProperty(CHANGELOG_SEQUENCE, Long.toString(changelogSequence));
+        }
+        
+        for(Map.Entry<String, List<String>> entry : pendingIndexes.entrySet()){
+            
+            StringBuilder indexes = new StringBuilder();
+            for(String index : entry.getValue()){
+                
+                indexes.append(indexes.length() == 0 ? "" : "\n").append(index);
+            }
+            properties.setProperty(PENDING_INDEXES + entry.getKey(), indexes.toString());
+        }
+        
+        File tempFile = new File(file.getPath() + ".tmp");
+        try{
+            
+            try(FileOutputStream out = new FileOutputStream(tempFile)){
+                
+                properties.store(out, "mysql-db-sync watermarks, microseconds since the epoch");
+                out.getFD().sync();
+            }
+            
+            Files.move(tempFile.toPath(), file.toPath(), 
+                                    StandardCopyOption.REPLACE_EXISTING, 
+                                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        catch(IOException e){
+            
+            e.printStackTrace();
+        }
+    }
+    
+    private void load(){
+        
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(file)){
+            
+            properties.load(in);
+        }
+        
+        catch(IOException e){
+            
+            e.printStackTrace();
+            return;
+        }
+        
+        for(String name : properties.stringPropertyNames()){
+            
+            if(name.startsWith(PENDING_INDEXES)){
+                
+                if(!properties.getProperty(name).isEmpty()){
+                    
+                    pendingIndexes.put(name.substring(PENDING_INDEXES.length()), 
+                        Arrays.asList(properties.getProperty(name).split("\n")));
+                }
+                continue;
+            }
+            
+            String[] value = properties.getProperty(name).split(",", 2);
+            try{
+                
+                if(name.equals(BINLOG_POSITION)){
+                    
+                    binlogPosition = new BinlogPosition(value[0], 
+                                                    Long.parseLong(value[1]));
+                }
+                else if(name.equals(CHANGELOG_SEQUENCE)){
+                    
+                    changelogSequence = Long.parseLong(value[0]);
+                }
+                else if(value[0].isEmpty()){
+                    
+                    watermarks.put(name, Watermark.INITIAL);
+                }
+                else{
+                    
+                    watermarks.put(name, Watermark.fromEpochMicros(
+                                            Long.parseLong(value[0]), 
+                                            value.length > 1 ? value[1] : null));
+                }
+            }
+            
+            catch(NumberFormatException | ArrayIndexOutOfBoundsException e){
+                
+                System.out.println("Ignoring invalid watermark of " + name);
+            }
+        }
+        
+        System.out.println("Loaded " + watermarks.size() + " watermarks from " + file);
+    }
+    
+    private static String getName(TableMap tableMap){
+        
+        return tableMap.getSourceTable() + ">" + tableMap.getDestinationTable();
+    }
+}